@@ -0,0 +1,103 @@
+package fadaf;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DAFBTree insert, lookup and remove of every key of a distribution, and a
+ * scan over all of its keys. a score is the time of one pass over the keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class DAFBTreeBenchmark {
+    @Param({"random", "sorted", "zipf"})
+    public String distribution;
+
+    @Param("100000")
+    public int size;
+
+    private Integer[] keys;
+    private DAFBTree<Integer, Integer> loaded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.keys = Keys.keys(distribution, size);
+        this.loaded = btree(keys);
+    }
+
+    /**
+     * an empty tree for every pass of insert
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        DAFBTree<Integer, Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            this.tree = new DAFBTree<>();
+        }
+    }
+
+    /**
+     * a tree holding the keys for every pass of remove
+     */
+    @State(Scope.Thread)
+    public static class Full {
+        DAFBTree<Integer, Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setup(DAFBTreeBenchmark benchmark) {
+            this.tree = btree(benchmark.keys);
+        }
+    }
+
+    @Benchmark
+    public long insert(Empty empty) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += empty.tree.insert(key, key, 1) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lookup() {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += loaded.lookup(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long remove(Full full) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += full.tree.remove(key, 1) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long scan() {
+        long sum = 0;
+        Iterator<Integer> it = loaded.iterator(null, null, true);
+        while (it.hasNext()) {
+            sum += it.next();
+        }
+        return sum;
+    }
+
+    static DAFBTree<Integer, Integer> btree(Integer[] keys) {
+        DAFBTree<Integer, Integer> tree = new DAFBTree<>();
+        for (Integer key : keys) {
+            tree.insert(key, key, 1);
+        }
+        return tree;
+    }
+}
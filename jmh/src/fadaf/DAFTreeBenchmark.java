@@ -0,0 +1,93 @@
+package fadaf;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DAFTree insert, lookup and remove of every key of a distribution. sorted
+ * keys arrive in order like timestamps or sequence ids, the worst case for
+ * an unbalanced tree. a score is the time of one pass over the keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class DAFTreeBenchmark {
+    @Param({"random", "sorted", "zipf"})
+    public String distribution;
+
+    @Param("100000")
+    public int size;
+
+    private Integer[] keys;
+    private DAFTree<Integer, Integer> loaded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.keys = Keys.keys(distribution, size);
+        this.loaded = tree(keys);
+    }
+
+    /**
+     * an empty tree for every pass of insert
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        DAFTree<Integer, Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            this.tree = new DAFTree<>();
+        }
+    }
+
+    /**
+     * a tree holding the keys for every pass of remove
+     */
+    @State(Scope.Thread)
+    public static class Full {
+        DAFTree<Integer, Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setup(DAFTreeBenchmark benchmark) {
+            this.tree = tree(benchmark.keys);
+        }
+    }
+
+    @Benchmark
+    public long insert(Empty empty) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += empty.tree.insert(key, key, 1).count;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lookup() {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += loaded.lookup(key).count;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long remove(Full full) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += full.tree.remove(key, 1) == null ? 0 : 1;
+        }
+        return sum;
+    }
+
+    static DAFTree<Integer, Integer> tree(Integer[] keys) {
+        DAFTree<Integer, Integer> tree = new DAFTree<>();
+        for (Integer key : keys) {
+            tree.insert(key, key, 1);
+        }
+        return tree;
+    }
+}
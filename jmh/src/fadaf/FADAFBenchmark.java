@@ -0,0 +1,133 @@
+package fadaf;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FADAF insert, lookup and remove of every key of a distribution, and its
+ * key lists and range queries. a score is the time of one pass over the
+ * keys or the queries, the structure of insert and remove is built again
+ * outside of the timed part before every pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class FADAFBenchmark {
+    private static final int nQueries = 1000;
+
+    @Param({"random", "sorted", "zipf"})
+    public String distribution;
+
+    @Param("100000")
+    public int size;
+
+    private Integer[] keys;
+    private FADAF<Integer, Integer> loaded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.keys = Keys.keys(distribution, size);
+        this.loaded = fadaf(keys);
+    }
+
+    /**
+     * an empty FADAF for every pass of insert
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        FADAF<Integer, Integer> fadaf;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            this.fadaf = new FADAF<>(10);
+        }
+    }
+
+    /**
+     * a FADAF holding the keys for every pass of remove
+     */
+    @State(Scope.Thread)
+    public static class Full {
+        FADAF<Integer, Integer> fadaf;
+
+        @Setup(Level.Invocation)
+        public void setup(FADAFBenchmark benchmark) {
+            this.fadaf = fadaf(benchmark.keys);
+        }
+    }
+
+    /**
+     * range queries that each cover width of the keys
+     */
+    @State(Scope.Thread)
+    public static class Ranges {
+        @Param({"0.01", "0.1"})
+        public double width;
+
+        Integer[] lowers;
+        int span;
+
+        @Setup(Level.Trial)
+        public void setup(FADAFBenchmark benchmark) {
+            this.lowers = Keys.lowers(nQueries, benchmark.size);
+            this.span = (int) (width * benchmark.size);
+        }
+    }
+
+    @Benchmark
+    public long insert(Empty empty) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += empty.fadaf.insert(key, key, 1) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lookup() {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += loaded.lookup(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long remove(Full full) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += full.fadaf.remove(key, 1) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int getAllKeys() {
+        return loaded.getAllKeys(true).size();
+    }
+
+    @Benchmark
+    public int getUniqueKeys() {
+        return loaded.getAllKeys(false).size();
+    }
+
+    @Benchmark
+    public long getUniqueKeysInRange(Ranges ranges) {
+        long sum = 0;
+        for (Integer lower : ranges.lowers) {
+            sum += loaded.getUniqueKeysInRange(lower, lower + ranges.span).size();
+        }
+        return sum;
+    }
+
+    static FADAF<Integer, Integer> fadaf(Integer[] keys) {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        for (Integer key : keys) {
+            fadaf.insert(key, key, 1);
+        }
+        return fadaf;
+    }
+}
@@ -0,0 +1,113 @@
+package fadaf;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * HashTable hits, misses and inserts at several load factors. half of the
+ * keys are stored and the other half are misses. scattered keys are random
+ * ints, sorted keys are the dense run 0 to 2*size-1 that an unmixed hash
+ * would put into neighbouring slots. a score is the time of one pass over
+ * the keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class HashTableBenchmark {
+    @Param({"scattered", "sorted"})
+    public String distribution;
+
+    @Param("100000")
+    public int size;
+
+    private Integer[] keys;
+    private Integer[] misses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Integer[] all = Keys.keys(distribution, 2 * size);
+        this.keys = Arrays.copyOfRange(all, 0, size);
+        this.misses = Arrays.copyOfRange(all, size, 2 * size);
+    }
+
+    /**
+     * a table sized so that the keys fill it to the load factor without growing
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+        @Param({"0.25", "0.5", "0.65"})
+        public double loadFactor;
+
+        HashTable<Integer, Integer> table;
+
+        @Setup(Level.Trial)
+        public void setup(HashTableBenchmark benchmark) {
+            this.table = new HashTable<>((int) Math.ceil(benchmark.size / loadFactor));
+            for (Integer key : benchmark.keys) {
+                table.insert(key, key);
+            }
+        }
+    }
+
+    /**
+     * an empty table for every pass of insert, without presizing the pass
+     * includes every rehash on the way up
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        @Param({"false", "true"})
+        public boolean presized;
+
+        HashTable<Integer, Integer> table;
+
+        @Setup(Level.Invocation)
+        public void setup(HashTableBenchmark benchmark) {
+            this.table = new HashTable<>(10);
+            if (presized) {
+                table.ensureCapacity(benchmark.size);
+            }
+        }
+    }
+
+    @Benchmark
+    public long lookupHit(Loaded loaded) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += loaded.table.lookup(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lookupMiss(Loaded loaded) {
+        long sum = 0;
+        for (Integer key : misses) {
+            sum += loaded.table.lookup(key) == null ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long insertDelete(Loaded loaded) {
+        // the load stays the same, each miss goes in and out again
+        long sum = 0;
+        for (Integer key : misses) {
+            sum += loaded.table.insert(key, key) ? 1 : 0;
+            sum += loaded.table.delete(key) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long insert(Empty empty) {
+        long sum = 0;
+        for (Integer key : keys) {
+            sum += empty.table.insert(key, key) ? 1 : 0;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package fadaf;
+
+import java.util.*;
+
+/**
+ * key sets shared by the benchmarks
+ */
+final class Keys {
+    private static final double zipfexponent = 1.0;
+    private static final long seed = 42;
+
+    private Keys() {
+    }
+
+    /**
+     * returns size keys in the given distribution. random keys are a shuffle
+     * of 0 to size-1, sorted keys are 0 to size-1 in order, zipf keys repeat
+     * the small keys most often, like the popular items of a real workload,
+     * and scattered keys are distinct ints from the whole int range
+     *
+     * @param distribution random, sorted, zipf or scattered
+     * @param size the number of keys
+     * @return the keys
+     */
+    static Integer[] keys(String distribution, int size) {
+        Integer[] keys = new Integer[size];
+        Random random = new Random(seed);
+        if (distribution.equals("scattered")) {
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < size; i++) {
+                int key = random.nextInt();
+                while (!seen.add(key)) {
+                    key = random.nextInt();
+                }
+                keys[i] = key;
+            }
+            return keys;
+        }
+        if (distribution.equals("zipf")) {
+            double[] cumulative = new double[size];
+            double total = 0;
+            for (int i = 0; i < size; i++) {
+                total += 1 / Math.pow(i + 1, zipfexponent);
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < size; i++) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                keys[i] = index >= 0 ? index : Math.min(-index - 1, size - 1);
+            }
+            return keys;
+        }
+        if (!distribution.equals("random") && !distribution.equals("sorted")) {
+            throw new IllegalArgumentException("unknown distribution: " + distribution);
+        }
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+        }
+        if (distribution.equals("random")) {
+            Collections.shuffle(Arrays.asList(keys), random);
+        }
+        return keys;
+    }
+
+    /**
+     * returns lower bounds of range queries over 0 to size-1
+     *
+     * @param n the number of queries
+     * @param size the number of keys
+     * @return the lower bounds
+     */
+    static Integer[] lowers(int n, int size) {
+        Random random = new Random(seed);
+        Integer[] lowers = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            lowers[i] = random.nextInt(size);
+        }
+        return lowers;
+    }
+}
@@ -0,0 +1,206 @@
+
+import java.util.*;
+
+/**
+ * approximate FADAF for streams whose keys do not fit in memory. the memory
+ * is fixed when it is constructed and does not grow with the number of keys:
+ * counts come from a Count-Min Sketch, the number of distinct keys from a
+ * HyperLogLog and the total from a running counter. optionally the keys with
+ * the highest counts (heavy hitters) are kept exactly in a small DAFTree
+ * together with their data, in the way of the Space-Saving algorithm.
+ *
+ * accuracy, for epsilon, delta and precision given to the constructor:
+ * lookup is never below the true count and is at most epsilon * size() above
+ * it with probability 1 - delta. nDistinctKeys is within 1.04 / sqrt(2^precision)
+ * of the number of distinct keys ever inserted (one standard error).
+ * both only hold if remove never takes more copies than were inserted.
+ */
+@SuppressWarnings("rawtypes")
+public class ApproxFADAF<K extends Comparable<? super K>, D> {
+    private CountMinSketch sketch;
+    private HyperLogLog distinct;
+    private DAFTree<K, D> heavy; // the heavy hitters, null when none are kept
+    private int nHeavy;
+
+    /**
+     * A constructor that initializes an ApproxFADAF
+     *
+     * @param epsilon the error of lookup as a fraction of size, like 0.001
+     * @param delta the probability that lookup is off by more, like 0.01
+     * @param precision log2 of the HyperLogLog registers, between 4 and 18
+     * @param heavyHitters the number of keys kept exactly, 0 for none
+     * @throws IllegalArgumentException epsilon or delta are not between 0 and 1,
+     * precision is out of range or heavyHitters is negative
+     */
+    public ApproxFADAF(double epsilon, double delta, int precision, int heavyHitters) {
+        if (heavyHitters < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.sketch = new CountMinSketch(epsilon, delta);
+        this.distinct = new HyperLogLog(precision);
+        this.nHeavy = heavyHitters;
+        this.heavy = heavyHitters > 0 ? new DAFTree<>() : null;
+    }
+
+    /**
+     * returns the total number of keys inserted, including duplicates. this is exact
+     *
+     * @return long total number of keys
+     */
+    public long size() {
+        return sketch.total();
+    }
+
+    /**
+     * returns the estimated number of distinct keys that were ever inserted.
+     * unlike FADAF.nUniqueKeys it can not tell keys seen once from others
+     * and keys that were removed are still counted
+     *
+     * @return long the estimate
+     */
+    public long nDistinctKeys() {
+        return distinct.estimate();
+    }
+
+    /**
+     * adds nCopy copies of key. the data is only kept if key is a heavy hitter
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if the key was probably not seen before
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    @SuppressWarnings("unchecked")
+    public boolean insert(K key, D data, int nCopy) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        boolean isnew = sketch.estimate(key) == 0;
+        sketch.add(key, nCopy);
+        distinct.add(key);
+        if (heavy == null) {
+            return isnew;
+        }
+        if (heavy.insertDuplicate(key, nCopy) != null) {
+            return isnew; // already a heavy hitter
+        }
+        long estimate = sketch.estimate(key);
+        if (heavy.nDistinctKeys() < nHeavy) {
+            heavy.insert(key, data, clamp(estimate));
+            return isnew;
+        }
+        DAFTree.DAFNode least = heavy.leastFrequent();
+        if (least.count < estimate) {
+            // replaces the smallest heavy hitter
+            heavy.removenode((K) least.key);
+            heavy.insert(key, data, clamp(estimate));
+        }
+        return isnew;
+    }
+
+    /**
+     * returns the estimated count of the key
+     *
+     * @param key to look for
+     * @return int the estimate, never below the true count
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        long estimate = sketch.estimate(key);
+        if (heavy != null) {
+            DAFTree.DAFNode node = heavy.lookup(key);
+            if (node != null) {
+                // both are at least the true count so the smaller one is better
+                estimate = Math.min(estimate, node.count);
+            }
+        }
+        return clamp(Math.max(0, estimate));
+    }
+
+    /**
+     * takes nCopy copies of key away. only copies that were inserted may
+     * be removed, otherwise the counts of other keys can come out too low
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was probably stored
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int estimate = lookup(key);
+        if (estimate == 0) {
+            return false;
+        }
+        int removed = Math.min(nCopy, estimate);
+        sketch.add(key, -removed);
+        if (heavy != null && heavy.lookup(key) != null) {
+            heavy.remove(key, removed);
+        }
+        return true;
+    }
+
+    /**
+     * returns the data of a heavy hitter
+     *
+     * @param key to look for
+     * @return D the data, null if key is not a heavy hitter
+     * @throws NullPointerException key is null
+     */
+    @SuppressWarnings("unchecked")
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        DAFTree.DAFNode node = heavy == null ? null : heavy.lookup(key);
+        return node == null ? null : (D) node.data;
+    }
+
+    /**
+     * returns the heavy hitters with the highest counts, highest first
+     *
+     * @param k the number of keys, at most the number of heavy hitters is returned
+     * @return the keys
+     * @throws IllegalArgumentException k is negative
+     */
+    public List<K> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        ArrayList<K> result = new ArrayList<>();
+        if (heavy != null) {
+            for (DAFTree<K, D>.DAFNode<K, D> node : heavy.topK(k)) {
+                result.add(node.key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the memory taken by the sketches, which does not change.
+     * the heavy hitters take about one tree node and their data each on top
+     *
+     * @return long the number of bytes
+     */
+    public long sketchBytes() {
+        return sketch.bytes() + distinct.bytes();
+    }
+
+    private static int clamp(long count) {
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+}
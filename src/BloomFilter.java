@@ -0,0 +1,138 @@
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter, answers whether a key may have been added. a key that was
+ * added is always found, a key that was not is found with a probability of
+ * about 0.6185 ^ bitsPerKey, so 10 bits per key give about 1% false positives.
+ */
+public class BloomFilter {
+    private final long[] words;
+    private final int nbits;
+    private final int nhashes;
+
+    /**
+     * constructor of BloomFilter
+     *
+     * @param nKeys the number of keys that will be added
+     * @param bitsPerKey the bits to spend per key
+     * @throws IllegalArgumentException nKeys is negative or bitsPerKey is less than 1
+     */
+    public BloomFilter(int nKeys, int bitsPerKey) {
+        if (nKeys < 0 || bitsPerKey < 1) {
+            throw new IllegalArgumentException();
+        }
+        long bits = Math.max(Long.SIZE, (long) nKeys * bitsPerKey);
+        this.words = new long[(int) Math.min(Integer.MAX_VALUE / Long.SIZE, (bits + Long.SIZE - 1) / Long.SIZE)];
+        this.nbits = words.length * Long.SIZE;
+        // ln 2 * bits per key hashes give the fewest false positives
+        this.nhashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    private BloomFilter(long[] words, int nhashes) {
+        this.words = words;
+        this.nbits = words.length * Long.SIZE;
+        this.nhashes = nhashes;
+    }
+
+    /**
+     * adds a key by its encoded bytes. the bytes hash the same in every
+     * process, unlike hashCode, which is the identity hash for enums and
+     * many other types, so a filter that was written to a file stays valid
+     *
+     * @param buffer the buffer that holds the key
+     * @param position where the key starts
+     * @param length the number of bytes of the key
+     */
+    public void add(ByteBuffer buffer, int position, int length) {
+        long hash = hash(buffer, position, length);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < nhashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % nbits;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * returns whether the key with these encoded bytes may have been added
+     *
+     * @param buffer the buffer that holds the key
+     * @param position where the key starts
+     * @param length the number of bytes of the key
+     * @return false if the key was certainly not added
+     */
+    public boolean mightContain(ByteBuffer buffer, int position, int length) {
+        long hash = hash(buffer, position, length);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < nhashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % nbits;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the bytes followed by the murmur3 finalizer, so both
+     * halves of the hash depend on every byte
+     */
+    private static long hash(ByteBuffer buffer, int position, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= buffer.get(position + i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * returns the number of bytes write needs
+     *
+     * @return int the size
+     */
+    public int size() {
+        return 2 * Integer.BYTES + words.length * Long.BYTES;
+    }
+
+    /**
+     * writes the filter at an absolute position
+     *
+     * @param buffer the buffer to write to
+     * @param position where the filter starts
+     */
+    public void write(ByteBuffer buffer, int position) {
+        buffer.putInt(position, words.length);
+        buffer.putInt(position + Integer.BYTES, nhashes);
+        position += 2 * Integer.BYTES;
+        for (long word : words) {
+            buffer.putLong(position, word);
+            position += Long.BYTES;
+        }
+    }
+
+    /**
+     * reads a filter written by write
+     *
+     * @param buffer the buffer to read from
+     * @param position where the filter starts
+     * @return the filter
+     */
+    public static BloomFilter read(ByteBuffer buffer, int position) {
+        long[] words = new long[buffer.getInt(position)];
+        int nhashes = buffer.getInt(position + Integer.BYTES);
+        position += 2 * Integer.BYTES;
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong(position);
+            position += Long.BYTES;
+        }
+        return new BloomFilter(words, nhashes);
+    }
+}
@@ -0,0 +1,443 @@
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * thread safe FADAF. the hash index is split into stripes that each have
+ * their own lock, and the keys are kept in order in a concurrent skip list
+ * that needs no lock at all. a writer only locks the stripe of its key, so
+ * writers on keys of different stripes never wait for each other.
+ * lookup and getData read their stripe optimistically and do not block
+ * unless a writer changed that stripe at the same time, the ordered
+ * queries walk the skip list without locking and see the writes that
+ * happen meanwhile or not (weakly consistent).
+ * the skip list keeps no subtree counts, and a counted tree would put
+ * every writer back on one lock. so rank and percentile walk the keys in
+ * O(n) instead of the O(log n) of FADAF, and select and countInRange are
+ * not offered.
+ */
+public class ConcurrentFADAF<K extends Comparable<? super K>, D> {
+    private static final int defaultstripes = 16;
+    private static final int minimumcapacity = 10;
+
+    /**
+     * count and data of a key, only changed under the lock of its stripe
+     */
+    private static class Entry<D> {
+        volatile D data;
+        volatile int count; // 0 once the key is being removed
+
+        Entry(D data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    private HashTable<K, Entry<D>>[] stripes;
+    private StampedLock[] locks; // locks[i] guards stripes[i] and the counts of its keys
+    private ConcurrentSkipListMap<K, Entry<D>> ordered;
+    private LongAdder nElems;
+    private LongAdder nUnique; // number of keys whose count is exactly 1
+
+    /**
+     * A constructor that initializes a ConcurrentFADAF structure
+     * with the default number of stripes
+     *
+     * @param capacity the initial capacity for the hashtable
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     */
+    public ConcurrentFADAF(int capacity) {
+        this(capacity, defaultstripes);
+    }
+
+    /**
+     * A constructor that initializes a ConcurrentFADAF structure
+     *
+     * @param capacity the initial capacity for the hashtable, shared by the stripes
+     * @param nStripes the number of independently locked parts of the hash index
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     * or nStripes is less than 1
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentFADAF(int capacity, int nStripes) {
+        if (capacity < minimumcapacity || nStripes < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.stripes = new HashTable[nStripes];
+        this.locks = new StampedLock[nStripes];
+        for (int i = 0; i < nStripes; i++) {
+            this.stripes[i] = new HashTable<>(Math.max(minimumcapacity, capacity / nStripes));
+            this.locks[i] = new StampedLock();
+        }
+        this.ordered = new ConcurrentSkipListMap<>();
+        this.nElems = new LongAdder();
+        this.nUnique = new LongAdder();
+    }
+
+    /**
+     * returns the stripe that the key belongs to
+     *
+     * @param key the key
+     * @return int the index of the stripe
+     */
+    private int stripe(K key) {
+        // the low bits, the table of the stripe picks its slot with the high ones
+        return (int) (HashTable.mix(key.hashCode()) & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    /**
+     *  returns the total number of keys stored, including duplicates
+     *
+     * @return int total number of keys
+     */
+    public int size() {
+        return nElems.intValue();
+    }
+
+    /**
+     * returns the total number of unique keys stored.
+     *
+     * @return int the number of keys whose count is 1
+     */
+    public int nUniqueKeys() {
+        return nUnique.intValue();
+    }
+
+    /**
+     * helper method to keep nElems and nUnique right when the count of a key
+     * changes, called under the lock of the stripe of the key
+     *
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    private void recount(int before, int after) {
+        nElems.add(after - before);
+        if (before == 1) {
+            nUnique.decrement();
+        }
+        if (after == 1) {
+            nUnique.increment();
+        }
+    }
+
+    /**
+     * inserts key into its stripe and the skip list
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new and inserted to hashtable, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int i = stripe(key);
+        long stamp = locks[i].writeLock();
+        try {
+            Entry<D> entry = stripes[i].lookup(key);
+            if (entry != null) {
+                recount(entry.count, entry.count + nCopy);
+                entry.count += nCopy;
+                return false;
+            }
+            entry = new Entry<>(data, nCopy);
+            stripes[i].insert(key, entry);
+            ordered.put(key, entry);
+            recount(0, nCopy);
+            return true;
+        } finally {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * looks for the entry in the stripe and returns the count of that key.
+     *
+     * @param key to look for in hash table
+     * @return int the count of key
+     * @return int 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        Entry<D> entry = entry(key);
+        return entry == null ? 0 : entry.count;
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data
+     * @return null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public D getData(K key) {
+        Entry<D> entry = entry(key);
+        return entry == null ? null : entry.data;
+    }
+
+    /**
+     * helper method that finds the entry of the key. the stripe is read
+     * without locking, HashTable checks the stamp before it trusts a slot,
+     * and only if a writer changed the stripe in the meantime the read is
+     * repeated under the read lock
+     *
+     * @param key to look for
+     * @return the entry, null if key is not present
+     */
+    private Entry<D> entry(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int i = stripe(key);
+        long stamp = locks[i].tryOptimisticRead();
+        if (stamp != 0) {
+            Entry<D> entry = stripes[i].lookup(key, locks[i], stamp);
+            if (locks[i].validate(stamp)) {
+                return entry;
+            }
+        }
+        stamp = locks[i].readLock();
+        try {
+            return stripes[i].lookup(key);
+        } finally {
+            locks[i].unlockRead(stamp);
+        }
+    }
+
+    /**
+     * removes the key from table ncopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        return take(key, nCopy);
+    }
+
+    /**
+     * removes the given key from both its stripe and the skip list
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return take(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * helper method that takes up to nCopy copies of the key under the
+     * lock of its stripe and drops the key once none is left
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     */
+    private boolean take(K key, int nCopy) {
+        int i = stripe(key);
+        long stamp = locks[i].writeLock();
+        try {
+            Entry<D> entry = stripes[i].lookup(key);
+            if (entry == null) {
+                return false;
+            }
+            int count = entry.count;
+            int left = count - Math.min(nCopy, count);
+            recount(count, left);
+            entry.count = left;
+            if (left == 0) {
+                // readers of the skip list skip the entry until it is gone
+                stripes[i].delete(key);
+                ordered.remove(key, entry);
+            }
+            return true;
+        } finally {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A method that updates the data associated with the key to newData.
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data is null
+     */
+    public boolean update(K key, D newData) {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        int i = stripe(key);
+        long stamp = locks[i].writeLock();
+        try {
+            Entry<D> entry = stripes[i].lookup(key);
+            if (entry == null) {
+                return false;
+            }
+            entry.data = newData;
+            return true;
+        } finally {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * returns the keys in accending order, read from the skip list without locking
+     *
+     * @param allowDuplicate if Duplicates are allowed
+     * @return a linkedlist of all the keys
+     */
+    public List<K> getAllKeys(boolean allowDuplicate) {
+        return collect(ordered, allowDuplicate);
+    }
+
+    /**
+     * A method that returns a LinkedList of all unique keys
+     * between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return a linkedlist of all the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public List<K> getUniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        if (lower.compareTo(upper) >= 0) {
+            return new LinkedList<>(); // the range is empty
+        }
+        return collect(ordered.subMap(lower, false, upper, false), false);
+    }
+
+    /**
+     * helper method that lists the live keys of a part of the skip list
+     *
+     * @param view the part to walk
+     * @param allowDuplicate if Duplicates are allowed
+     * @return a linkedlist of the keys
+     */
+    private List<K> collect(ConcurrentNavigableMap<K, Entry<D>> view, boolean allowDuplicate) {
+        LinkedList<K> result = new LinkedList<>();
+        for (Map.Entry<K, Entry<D>> entry : view.entrySet()) {
+            int count = entry.getValue().count;
+            if (count == 1 || (allowDuplicate && count > 1)) {
+                for (int i = allowDuplicate ? count : 1; i > 0; i--) {
+                    result.add(entry.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the number of entries (including duplicates) that are smaller
+     * than key. the skip list has no subtree counts, so this walks the keys before key
+     *
+     * @param key the key to rank, it does not have to be stored
+     * @return int the number of entries before key
+     * @throws NullPointerException key is null
+     */
+    public int rank(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int result = 0;
+        for (Entry<D> entry : ordered.headMap(key, false).values()) {
+            result += entry.count;
+        }
+        return result;
+    }
+
+    /**
+     * returns the key at the given percentile of all entries (including
+     * duplicates), using the nearest rank. it walks the keys up to that rank
+     *
+     * @param p the percentile between 0 and 100
+     * @return the key at that percentile
+     * @return null if empty
+     * @throws IllegalArgumentException p is not between 0 and 100
+     */
+    public K percentile(double p) {
+        if (!(p >= 0 && p <= 100)) {
+            throw new IllegalArgumentException();
+        }
+        int size = size();
+        if (size == 0) {
+            return null;
+        }
+        int index = Math.max((int) Math.ceil(p / 100 * size) - 1, 0);
+        K result = null;
+        for (Map.Entry<K, Entry<D>> entry : ordered.entrySet()) {
+            int count = entry.getValue().count;
+            if (count <= 0) {
+                continue;
+            }
+            result = entry.getKey();
+            index -= count;
+            if (index < 0) {
+                break;
+            }
+        }
+        // keys removed during the walk can leave the rank past the end, then it is the max
+        return result;
+    }
+
+    /**
+     * returns the minimum key
+     * @return the minimum key
+     * @return null if empty
+     */
+    public K getMinKey() {
+        return extreme(false);
+    }
+
+    /**
+     * returns the maximum key
+     * @return the maximum key
+     * @return null if empty
+     */
+    public K getMaxKey() {
+        return extreme(true);
+    }
+
+    /**
+     * helper method that reads the min or max live key of the skip list
+     *
+     * @param isMax If isMax is true return the max key; otherwise,return the min.
+     * @return the key or null if empty
+     */
+    private K extreme(boolean isMax) {
+        NavigableMap<K, Entry<D>> view = isMax ? ordered.descendingMap() : ordered;
+        for (Map.Entry<K, Entry<D>> entry : view.entrySet()) {
+            if (entry.getValue().count > 0) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+}
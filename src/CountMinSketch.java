@@ -0,0 +1,96 @@
+
+/**
+ * Count-Min Sketch, a fixed size table of counters that estimates how often
+ * each key was added. every key adds to one counter in each of depth rows and
+ * its estimate is the smallest of those counters.
+ * with width = ceil(e / epsilon) and depth = ceil(ln(1 / delta)) an estimate
+ * is never below the true count and, with probability at least 1 - delta,
+ * not more than epsilon * total above it, as long as no count goes negative.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counters; // depth rows of width counters
+    private long total; // sum of all counts
+
+    /**
+     * constructor of CountMinSketch
+     *
+     * @param epsilon the error of an estimate as a fraction of the total count
+     * @param delta the probability that an estimate is off by more than epsilon
+     * @throws IllegalArgumentException epsilon or delta are not between 0 and 1
+     */
+    public CountMinSketch(double epsilon, double delta) {
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException();
+        }
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.counters = new long[width * depth];
+    }
+
+    /**
+     * adds to the count of the key, a negative amount takes copies away
+     *
+     * @param key the key
+     * @param amount how much to add
+     * @throws NullPointerException key is null
+     */
+    public void add(Object key, long amount) {
+        long hash = HashTable.mix(key.hashCode());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1; // odd so the rows never repeat a slot pattern
+        for (int row = 0; row < depth; row++) {
+            counters[row * width + slot(h1 + row * h2)] += amount;
+        }
+        this.total += amount;
+    }
+
+    /**
+     * returns the estimated count of the key
+     *
+     * @param key the key
+     * @return long the smallest counter of the key, never below the true count
+     * @throws NullPointerException key is null
+     */
+    public long estimate(Object key) {
+        long hash = HashTable.mix(key.hashCode());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long result = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            result = Math.min(result, counters[row * width + slot(h1 + row * h2)]);
+        }
+        return result;
+    }
+
+    /**
+     * returns the sum of all counts added
+     *
+     * @return long the total
+     */
+    public long total() {
+        return total;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * returns the memory taken by the counters
+     *
+     * @return long the number of bytes
+     */
+    public long bytes() {
+        return (long) counters.length * Long.BYTES;
+    }
+
+    private int slot(int hash) {
+        return (hash & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,869 @@
+
+import java.util.*;
+
+/**
+ * DAFIndex on a B+ tree. a node holds up to order keys in one array, so a
+ * lookup reads a few wide nodes with a binary search in each instead of one
+ * node per level like DAFTree. the keys, counts and data live in the leaves,
+ * in parallel arrays, and the leaves are linked so ordered scans walk the
+ * arrays from leaf to leaf without going back up the tree.
+ * every node but the root holds at least order / 2 keys, a node that drops
+ * below borrows a key from a sibling or is merged with it.
+ * an inner node keeps the number of copies, of unique keys and the lowest
+ * count under each child, so rank, select and leastFrequent are O(log n).
+ * it is not thread safe, wrap the FADAF or use a ShardedFADAF for that.
+ */
+public class DAFBTree<K extends Comparable<? super K>, D> implements DAFIndex<K, D> {
+    private static final int defaultorder = 64;
+    private static final int minimumorder = 4;
+
+    /**
+     * a node with its keys in accending order
+     */
+    private abstract static class Node {
+        final Object[] keys;
+        int n; // number of keys
+
+        Node(int order) {
+            this.keys = new Object[order + 1]; // one more for the key that makes it split
+        }
+    }
+
+    /**
+     * leaf with the keys and their counts and data
+     */
+    private static class Leaf extends Node {
+        final int[] counts;
+        final Object[] data;
+        Leaf next;
+        Leaf prev;
+
+        Leaf(int order) {
+            super(order);
+            this.counts = new int[order + 1];
+            this.data = new Object[order + 1];
+        }
+    }
+
+    /**
+     * inner node, children[i] holds the keys below keys[i] and
+     * children[i + 1] the keys from keys[i] on
+     */
+    private static class Inner extends Node {
+        final Node[] children;
+        final int[] totals; // copies under each child
+        final int[] uniques; // keys with count 1 under each child
+        final int[] mins; // lowest count under each child
+
+        Inner(int order) {
+            super(order);
+            this.children = new Node[order + 2];
+            this.totals = new int[order + 2];
+            this.uniques = new int[order + 2];
+            this.mins = new int[order + 2];
+        }
+    }
+
+    private final int order;
+    private final int minkeys;
+    private Node root;
+    private Leaf first; // leftmost leaf, it is never merged away
+    private int nElems;
+    private int nUnique; // number of keys whose count is exactly 1
+    private Object splitkey; // first key of the node that the last split created
+
+    /**
+     * constructor of DAFBTree with 64 keys per node
+     *
+     */
+    public DAFBTree() {
+        this(defaultorder);
+    }
+
+    /**
+     * constructor of DAFBTree
+     *
+     * @param order the most keys in a node
+     * @throws IllegalArgumentException order is less than 4
+     */
+    public DAFBTree(int order) {
+        if (order < minimumorder) {
+            throw new IllegalArgumentException();
+        }
+        this.order = order;
+        this.minkeys = order / 2;
+        this.first = new Leaf(order);
+        this.root = first;
+    }
+
+    /**
+     * returns the number of keys
+     * @return nElems
+     */
+    public int size() {
+        return nElems;
+    }
+
+    /**
+     * returns the total number of unique keys
+     *
+     * @return int
+     */
+    public int nUniqueKeys() {
+        return nUnique;
+    }
+
+    /**
+     * helper method to keep nUnique right when the count of a key changes
+     *
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    private void recount(int before, int after) {
+        if (before == 1) {
+            this.nUnique--;
+        }
+        if (after == 1) {
+            this.nUnique++;
+        }
+    }
+
+    /**
+     * recomputes the counts that parent keeps for the child at index
+     */
+    private static void refresh(Inner parent, int index) {
+        Node node = parent.children[index];
+        int total = 0;
+        int unique = 0;
+        int min = Integer.MAX_VALUE;
+        if (node instanceof Leaf) {
+            int[] counts = ((Leaf) node).counts;
+            for (int i = 0; i < node.n; i++) {
+                total += counts[i];
+                unique += counts[i] == 1 ? 1 : 0;
+                min = Math.min(min, counts[i]);
+            }
+        } else {
+            Inner inner = (Inner) node;
+            for (int i = 0; i <= inner.n; i++) {
+                total += inner.totals[i];
+                unique += inner.uniques[i];
+                min = Math.min(min, inner.mins[i]);
+            }
+        }
+        parent.totals[index] = total;
+        parent.uniques[index] = unique;
+        parent.mins[index] = min;
+    }
+
+    /**
+     * moves len children with their counts from one inner node to another
+     */
+    private static void movechildren(Inner from, int src, Inner to, int dst, int len) {
+        System.arraycopy(from.children, src, to.children, dst, len);
+        System.arraycopy(from.totals, src, to.totals, dst, len);
+        System.arraycopy(from.uniques, src, to.uniques, dst, len);
+        System.arraycopy(from.mins, src, to.mins, dst, len);
+    }
+
+    /**
+     * binary search in the keys of a node
+     *
+     * @return the position of key, or -(insertion point) - 1 if it is not there
+     */
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<? super K>> int search(Node node, K key) {
+        int lo = 0;
+        int hi = node.n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = ((K) node.keys[mid]).compareTo(key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * returns the child of an inner node that holds key
+     */
+    private static <K extends Comparable<? super K>> int child(Inner node, K key) {
+        int index = search(node, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * returns the leaf that holds key, or where it would be inserted
+     */
+    private Leaf leaf(K key) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[child(inner, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index >= 0) {
+            int count = leaf.counts[index];
+            recount(count, count + nCopy);
+            setcount(root, key, count, count + nCopy);
+            this.nElems += nCopy;
+            return false;
+        }
+        Node right = insert(root, key, data, nCopy);
+        if (right != null) {
+            // the root was split, the tree grows by one level
+            Inner newroot = new Inner(order);
+            newroot.keys[0] = splitkey;
+            newroot.children[0] = root;
+            newroot.children[1] = right;
+            newroot.n = 1;
+            refresh(newroot, 0);
+            refresh(newroot, 1);
+            this.root = newroot;
+        }
+        recount(0, nCopy);
+        this.nElems += nCopy;
+        return true;
+    }
+
+    /**
+     * helper method that adds a new key under node and splits the
+     * nodes that overflow on the way back up
+     *
+     * @param node the root of the subtree
+     * @param key the key, it is not in the tree
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return the new right half if node was split, with its first key in splitkey
+     */
+    private Node insert(Node node, K key, D data, int nCopy) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = -search(leaf, key) - 1;
+            int moved = leaf.n - index;
+            System.arraycopy(leaf.keys, index, leaf.keys, index + 1, moved);
+            System.arraycopy(leaf.counts, index, leaf.counts, index + 1, moved);
+            System.arraycopy(leaf.data, index, leaf.data, index + 1, moved);
+            leaf.keys[index] = key;
+            leaf.counts[index] = nCopy;
+            leaf.data[index] = data;
+            leaf.n++;
+            return leaf.n > order ? split(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int index = child(inner, key);
+        Node right = insert(inner.children[index], key, data, nCopy);
+        if (right == null) {
+            changed(inner, index, 0, nCopy);
+            return null;
+        }
+        System.arraycopy(inner.keys, index, inner.keys, index + 1, inner.n - index);
+        movechildren(inner, index + 1, inner, index + 2, inner.n - index);
+        inner.keys[index] = splitkey;
+        inner.children[index + 1] = right;
+        inner.n++;
+        refresh(inner, index);
+        refresh(inner, index + 1);
+        return inner.n > order ? split(inner) : null;
+    }
+
+    /**
+     * helper method that changes the count of a stored key and the counts
+     * kept on the path to its leaf
+     *
+     * @param node the root of the subtree
+     * @param key the key, it is in the tree
+     * @param before the count of the key now
+     * @param after the new count, at least 1
+     */
+    private void setcount(Node node, K key, int before, int after) {
+        if (node instanceof Leaf) {
+            ((Leaf) node).counts[search(node, key)] = after;
+            return;
+        }
+        Inner inner = (Inner) node;
+        int index = child(inner, key);
+        setcount(inner.children[index], key, before, after);
+        changed(inner, index, before, after);
+    }
+
+    /**
+     * updates the counts parent keeps for the child at index after a key
+     * under it went from before to after copies, 0 for a new key
+     */
+    private static void changed(Inner parent, int index, int before, int after) {
+        if (after < parent.mins[index]) {
+            parent.mins[index] = after;
+        } else if (before == parent.mins[index] && after != before) {
+            // the key may have been the only one with the lowest count
+            refresh(parent, index);
+            return;
+        }
+        parent.totals[index] += after - before;
+        parent.uniques[index] += (after == 1 ? 1 : 0) - (before == 1 ? 1 : 0);
+    }
+
+    /**
+     * moves the upper half of a full leaf to a new leaf after it
+     */
+    private Leaf split(Leaf leaf) {
+        Leaf right = new Leaf(order);
+        int half = leaf.n / 2;
+        right.n = leaf.n - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.n);
+        System.arraycopy(leaf.counts, half, right.counts, 0, right.n);
+        System.arraycopy(leaf.data, half, right.data, 0, right.n);
+        Arrays.fill(leaf.keys, half, leaf.n, null);
+        Arrays.fill(leaf.data, half, leaf.n, null);
+        leaf.n = half;
+        right.next = leaf.next;
+        right.prev = leaf;
+        if (leaf.next != null) {
+            leaf.next.prev = right;
+        }
+        leaf.next = right;
+        this.splitkey = right.keys[0];
+        return right;
+    }
+
+    /**
+     * moves the keys above the middle one of a full inner node to a new
+     * node, the middle key goes up to the parent
+     */
+    private Inner split(Inner inner) {
+        Inner right = new Inner(order);
+        int half = inner.n / 2;
+        right.n = inner.n - half - 1;
+        System.arraycopy(inner.keys, half + 1, right.keys, 0, right.n);
+        movechildren(inner, half + 1, right, 0, right.n + 1);
+        this.splitkey = inner.keys[half];
+        Arrays.fill(inner.keys, half, inner.n, null);
+        Arrays.fill(inner.children, half + 1, inner.n + 1, null);
+        inner.n = half;
+        return right;
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        return index >= 0 ? leaf.counts[index] : 0;
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        return take(key, nCopy);
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key the key to remove
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return take(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * helper method that takes up to nCopy copies and drops the key
+     * from its leaf once none is left
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     */
+    private boolean take(K key, int nCopy) {
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index < 0) {
+            return false;
+        }
+        int count = leaf.counts[index];
+        int left = count - Math.min(nCopy, count);
+        recount(count, left);
+        this.nElems -= count - left;
+        if (left > 0) {
+            setcount(root, key, count, left);
+            return true;
+        }
+        delete(root, key);
+        if (root instanceof Inner && root.n == 0) {
+            // the root lost its last key, the tree shrinks by one level
+            this.root = ((Inner) root).children[0];
+        }
+        return true;
+    }
+
+    /**
+     * helper method that drops a key that is in the tree and fixes the
+     * nodes that fall below minkeys on the way back up
+     *
+     * @param node the root of the subtree
+     * @param key the key to drop
+     */
+    private void delete(Node node, K key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = search(leaf, key);
+            int moved = leaf.n - index - 1;
+            System.arraycopy(leaf.keys, index + 1, leaf.keys, index, moved);
+            System.arraycopy(leaf.counts, index + 1, leaf.counts, index, moved);
+            System.arraycopy(leaf.data, index + 1, leaf.data, index, moved);
+            leaf.n--;
+            leaf.keys[leaf.n] = null;
+            leaf.data[leaf.n] = null;
+            return;
+        }
+        Inner inner = (Inner) node;
+        int index = child(inner, key);
+        delete(inner.children[index], key);
+        if (inner.children[index].n < minkeys) {
+            fix(inner, index);
+        } else {
+            refresh(inner, index);
+        }
+    }
+
+    /**
+     * refills the child at index of parent, which has one key too few,
+     * from a sibling that can spare one or else merges it with a sibling
+     */
+    private void fix(Inner parent, int index) {
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.n ? parent.children[index + 1] : null;
+        if (left != null && left.n > minkeys) {
+            borrowleft(parent, index);
+        } else if (right != null && right.n > minkeys) {
+            borrowright(parent, index);
+        } else if (left != null) {
+            merge(parent, index - 1);
+        } else if (right != null) {
+            merge(parent, index);
+        } else {
+            refresh(parent, index);
+        }
+    }
+
+    /**
+     * moves the last key of the left sibling to the front of the child at index
+     */
+    private void borrowleft(Inner parent, int index) {
+        Node node = parent.children[index];
+        Node left = parent.children[index - 1];
+        System.arraycopy(node.keys, 0, node.keys, 1, node.n);
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf from = (Leaf) left;
+            System.arraycopy(leaf.counts, 0, leaf.counts, 1, leaf.n);
+            System.arraycopy(leaf.data, 0, leaf.data, 1, leaf.n);
+            leaf.keys[0] = from.keys[from.n - 1];
+            leaf.counts[0] = from.counts[from.n - 1];
+            leaf.data[0] = from.data[from.n - 1];
+            from.data[from.n - 1] = null;
+            parent.keys[index - 1] = leaf.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner from = (Inner) left;
+            movechildren(inner, 0, inner, 1, inner.n + 1);
+            // the separator comes down and the last key of the sibling goes up
+            inner.keys[0] = parent.keys[index - 1];
+            movechildren(from, from.n, inner, 0, 1);
+            from.children[from.n] = null;
+            parent.keys[index - 1] = from.keys[from.n - 1];
+        }
+        left.keys[left.n - 1] = null;
+        left.n--;
+        node.n++;
+        refresh(parent, index - 1);
+        refresh(parent, index);
+    }
+
+    /**
+     * moves the first key of the right sibling to the end of the child at index
+     */
+    private void borrowright(Inner parent, int index) {
+        Node node = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf from = (Leaf) right;
+            leaf.keys[leaf.n] = from.keys[0];
+            leaf.counts[leaf.n] = from.counts[0];
+            leaf.data[leaf.n] = from.data[0];
+            System.arraycopy(from.counts, 1, from.counts, 0, from.n - 1);
+            System.arraycopy(from.data, 1, from.data, 0, from.n - 1);
+            from.data[from.n - 1] = null;
+            System.arraycopy(from.keys, 1, from.keys, 0, from.n - 1);
+            parent.keys[index] = from.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner from = (Inner) right;
+            inner.keys[inner.n] = parent.keys[index];
+            movechildren(from, 0, inner, inner.n + 1, 1);
+            parent.keys[index] = from.keys[0];
+            System.arraycopy(from.keys, 1, from.keys, 0, from.n - 1);
+            movechildren(from, 1, from, 0, from.n);
+            from.children[from.n] = null;
+        }
+        right.keys[right.n - 1] = null;
+        right.n--;
+        node.n++;
+        refresh(parent, index);
+        refresh(parent, index + 1);
+    }
+
+    /**
+     * merges the child at index + 1 of parent into the child at index
+     */
+    private void merge(Inner parent, int index) {
+        Node node = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf from = (Leaf) right;
+            System.arraycopy(from.keys, 0, leaf.keys, leaf.n, from.n);
+            System.arraycopy(from.counts, 0, leaf.counts, leaf.n, from.n);
+            System.arraycopy(from.data, 0, leaf.data, leaf.n, from.n);
+            leaf.n += from.n;
+            leaf.next = from.next;
+            if (from.next != null) {
+                from.next.prev = leaf;
+            }
+        } else {
+            Inner inner = (Inner) node;
+            Inner from = (Inner) right;
+            // the separator comes down between the two halves
+            inner.keys[inner.n] = parent.keys[index];
+            System.arraycopy(from.keys, 0, inner.keys, inner.n + 1, from.n);
+            movechildren(from, 0, inner, inner.n + 1, from.n + 1);
+            inner.n += from.n + 1;
+        }
+        System.arraycopy(parent.keys, index + 1, parent.keys, index, parent.n - index - 1);
+        movechildren(parent, index + 2, parent, index + 1, parent.n - index - 1);
+        parent.n--;
+        parent.keys[parent.n] = null;
+        parent.children[parent.n + 1] = null;
+        refresh(parent, index);
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     * @throws NullPointerException key is null
+     */
+    @SuppressWarnings("unchecked")
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        return index >= 0 ? (D) leaf.data[index] : null;
+    }
+
+    /**
+     * replaces the data of the key
+     *
+     * @param key the key to update
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data are null
+     */
+    public boolean update(K key, D newData) {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index < 0) {
+            return false;
+        }
+        leaf.data[index] = newData;
+        return true;
+    }
+
+    /**
+     * returns the most extreme key
+     *
+     * @param isMax If isMax is true return the max key; otherwise,return the min.
+     * @return the key, null if empty
+     */
+    @SuppressWarnings("unchecked")
+    public K findExtreme(boolean isMax) {
+        if (nElems == 0) {
+            return null;
+        }
+        if (!isMax) {
+            return (K) first.keys[0];
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[node.n];
+        }
+        return (K) node.keys[node.n - 1];
+    }
+
+    /**
+     * returns the number of copies in the tree that are smaller than the
+     * key, adding up the counts the inner nodes keep for the children on
+     * the left of the path
+     *
+     * @param key the key to rank, it does not have to be in the tree
+     * @param inclusive if true the copies of the key itself are counted too
+     * @return int the number of copies
+     * @throws NullPointerException key is null
+     */
+    public int rank(K key, boolean inclusive) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int result = 0;
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int index = child(inner, key);
+            for (int i = 0; i < index; i++) {
+                result += inner.totals[i];
+            }
+            node = inner.children[index];
+        }
+        Leaf leaf = (Leaf) node;
+        int index = search(leaf, key);
+        int end = index < 0 ? -index - 1 : inclusive ? index + 1 : index;
+        for (int i = 0; i < end; i++) {
+            result += leaf.counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * returns the key of the copy at the given position when all copies
+     * are listed in accending order
+     *
+     * @param index the position starting from 0
+     * @return the key of the copy
+     * @throws IllegalArgumentException index is negative or not less than size
+     */
+    @SuppressWarnings("unchecked")
+    public K select(int index) {
+        if (index < 0 || index >= nElems) {
+            throw new IllegalArgumentException();
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int i = 0;
+            while (index >= inner.totals[i]) {
+                index -= inner.totals[i++];
+            }
+            node = inner.children[i];
+        }
+        Leaf leaf = (Leaf) node;
+        int i = 0;
+        while (index >= leaf.counts[i]) {
+            index -= leaf.counts[i++];
+        }
+        return (K) leaf.keys[i];
+    }
+
+    /**
+     * returns a key with the lowest count, of those the smallest one. it
+     * follows the child with the lowest count from the root down
+     *
+     * @return the key, null if the tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public K leastFrequent() {
+        if (nElems == 0) {
+            return null;
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int best = 0;
+            for (int i = 1; i <= inner.n; i++) {
+                if (inner.mins[i] < inner.mins[best]) {
+                    best = i;
+                }
+            }
+            node = inner.children[best];
+        }
+        Leaf leaf = (Leaf) node;
+        int best = 0;
+        for (int i = 1; i < leaf.n; i++) {
+            if (leaf.counts[i] < leaf.counts[best]) {
+                best = i;
+            }
+        }
+        return (K) leaf.keys[best];
+    }
+
+    /**
+     * returns the height of the tree, 1 while the root is a leaf
+     *
+     * @return int the height
+     */
+    public int height() {
+        int result = 1;
+        for (Node node = root; node instanceof Inner; node = ((Inner) node).children[0]) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * returns an iterator over the keys between lower (exclusive) and
+     * upper (exclusive) in accending order, it walks the linked leaves
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     * @return the iterator
+     */
+    public Iterator<K> iterator(K lower, K upper, boolean allowDuplicate) {
+        if (lower != null && upper != null && lower.compareTo(upper) >= 0) {
+            return Collections.emptyIterator(); // the range is empty
+        }
+        Leaf leaf = first;
+        int index = 0;
+        if (lower != null) {
+            leaf = leaf(lower);
+            index = search(leaf, lower);
+            index = index >= 0 ? index + 1 : -index - 1;
+        }
+        return new DAFBTreeIterator(leaf, index, upper, allowDuplicate);
+    }
+
+    /**
+     * DAFBTreeIterator
+     * repeats every key once per copy
+     */
+    public class DAFBTreeIterator implements Iterator<K> {
+        Leaf leaf;
+        int index; // position of the next key in leaf
+        K upper;
+        boolean allowDuplicate;
+        int parr = 0; // copies of multi that are left to return
+        K multi;
+
+        /**
+         * constructor of DAFBTreeIterator
+         *
+         * @param leaf the leaf to start in
+         * @param index the position to start at
+         * @param upper the upper bound (exclusive), null for no bound
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        DAFBTreeIterator(Leaf leaf, int index, K upper, boolean allowDuplicate) {
+            this.leaf = leaf;
+            this.index = index;
+            this.upper = upper;
+            this.allowDuplicate = allowDuplicate;
+            advance();
+        }
+
+        /**
+         * moves to the next key that passes the filter
+         */
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (leaf != null) {
+                while (index < leaf.n) {
+                    K key = (K) leaf.keys[index];
+                    int count = leaf.counts[index++];
+                    if (upper != null && key.compareTo(upper) >= 0) {
+                        this.leaf = null;
+                        this.parr = 0;
+                        return;
+                    }
+                    if (count == 1 || allowDuplicate) {
+                        this.multi = key;
+                        this.parr = allowDuplicate ? count : 1;
+                        return;
+                    }
+                }
+                this.leaf = leaf.next;
+                this.index = 0;
+            }
+            this.parr = 0;
+        }
+
+        public boolean hasNext() {
+            return parr > 0;
+        }
+
+        /**
+         * returns the next key
+         *
+         * @return the next key
+         * @throws NoSuchElementException when there is no element left
+         */
+        public K next() {
+            if (parr == 0) {
+                throw new NoSuchElementException();
+            }
+            K key = multi;
+            this.parr--;
+            if (parr == 0) {
+                advance();
+            }
+            return key;
+        }
+    }
+}
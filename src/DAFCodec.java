@@ -0,0 +1,96 @@
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * turns keys or data into bytes for storage outside of the java heap.
+ * fixed width codecs always return the same size, serialized ones like
+ * STRING return the length of the encoded value.
+ */
+public interface DAFCodec<T> {
+
+    /**
+     * returns how many bytes the value takes
+     *
+     * @param value the value to encode
+     * @return int the number of bytes
+     */
+    int size(T value);
+
+    /**
+     * writes the value at an absolute position, the buffer position is not moved
+     *
+     * @param buffer the buffer to write to
+     * @param position where the value starts
+     * @param value the value to encode
+     */
+    void write(ByteBuffer buffer, int position, T value);
+
+    /**
+     * reads a value written by write
+     *
+     * @param buffer the buffer to read from
+     * @param position where the value starts
+     * @param length the number of bytes returned by size when it was written
+     * @return the decoded value
+     */
+    T read(ByteBuffer buffer, int position, int length);
+
+    /**
+     * 4 byte int codec
+     */
+    DAFCodec<Integer> INT = new DAFCodec<Integer>() {
+        public int size(Integer value) {
+            return Integer.BYTES;
+        }
+
+        public void write(ByteBuffer buffer, int position, Integer value) {
+            buffer.putInt(position, value);
+        }
+
+        public Integer read(ByteBuffer buffer, int position, int length) {
+            return buffer.getInt(position);
+        }
+    };
+
+    /**
+     * 8 byte long codec
+     */
+    DAFCodec<Long> LONG = new DAFCodec<Long>() {
+        public int size(Long value) {
+            return Long.BYTES;
+        }
+
+        public void write(ByteBuffer buffer, int position, Long value) {
+            buffer.putLong(position, value);
+        }
+
+        public Long read(ByteBuffer buffer, int position, int length) {
+            return buffer.getLong(position);
+        }
+    };
+
+    /**
+     * utf-8 string codec
+     */
+    DAFCodec<String> STRING = new DAFCodec<String>() {
+        public int size(String value) {
+            return value.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        public void write(ByteBuffer buffer, int position, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i++) {
+                buffer.put(position + i, bytes[i]);
+            }
+        }
+
+        public String read(ByteBuffer buffer, int position, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+}
@@ -0,0 +1,131 @@
+
+import java.util.*;
+
+/**
+ * ordered multiset of keys that can back a FADAF in place of the
+ * DAFTree and HashTable pair. every key has a duplicate count and data,
+ * a key whose count drops to 0 is no longer stored.
+ */
+public interface DAFIndex<K extends Comparable<? super K>, D> {
+
+    /**
+     * returns the total number of keys, including duplicates
+     *
+     * @return int the number of keys
+     */
+    int size();
+
+    /**
+     * returns the number of keys whose count is exactly 1
+     *
+     * @return int the number of unique keys
+     */
+    int nUniqueKeys();
+
+    /**
+     * adds nCopy copies of the key, the data is only kept for a new key
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     */
+    boolean insert(K key, D data, int nCopy);
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     */
+    int lookup(K key);
+
+    /**
+     * removes the key nCopy times, the key is dropped when no copy is left
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     */
+    boolean remove(K key, int nCopy);
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key the key to remove
+     * @return true if the key was found
+     */
+    boolean removeAll(K key);
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     */
+    D getData(K key);
+
+    /**
+     * replaces the data of the key
+     *
+     * @param key the key to update
+     * @param newData the new data
+     * @return true if the key was found
+     */
+    boolean update(K key, D newData);
+
+    /**
+     * returns the most extreme key
+     *
+     * @param isMax If isMax is true return the max key; otherwise,return the min.
+     * @return the key, null if empty
+     */
+    K findExtreme(boolean isMax);
+
+    /**
+     * returns an iterator over the keys between lower (exclusive) and
+     * upper (exclusive) in accending order. a key is repeated once per copy
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     * @return the iterator
+     */
+    Iterator<K> iterator(K lower, K upper, boolean allowDuplicate);
+
+    /**
+     * returns the number of copies that are smaller than the key. this is
+     * an optional operation for an index that keeps subtree counts
+     *
+     * @param key the key to rank, it does not have to be stored
+     * @param inclusive if true the copies of the key itself are counted too
+     * @return int the number of copies
+     * @throws UnsupportedOperationException the index keeps no subtree counts
+     */
+    default int rank(K key, boolean inclusive) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * returns the key of the copy at the given position when all copies
+     * are listed in accending order. this is an optional operation
+     *
+     * @param index the position starting from 0
+     * @return the key of the copy
+     * @throws UnsupportedOperationException the index keeps no subtree counts
+     */
+    default K select(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * returns a key with the lowest count, the one a bounded FADAF evicts.
+     * this is an optional operation
+     *
+     * @return the key, null if empty
+     * @throws UnsupportedOperationException the index keeps no count order
+     */
+    default K leastFrequent() {
+        throw new UnsupportedOperationException();
+    }
+}
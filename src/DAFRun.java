@@ -0,0 +1,455 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * immutable sorted run of TieredFADAF on disk. a run holds one record per key
+ * in accending order: key length, key bytes, data length, data bytes, delta.
+ * the delta is the change of the count the run makes, removes make it negative,
+ * and the data length is -1 when the run does not change the data.
+ * after the records come a BloomFilter of the encoded keys and a sparse index with every
+ * indexinterval-th key, so a lookup reads the filter and at most one block of records.
+ * the header holds magic, version, number of records, the length of the longest
+ * record, where the filter and the index start, the range of flush sequences the
+ * run covers and the sum of the deltas.
+ *
+ * file positions are longs, so a run may be larger than 2GB. the records are
+ * mapped in windows of mapsize bytes that overlap by the longest record, so
+ * every record can be read from the window it starts in.
+ */
+public class DAFRun<K extends Comparable<? super K>, D> {
+    private static final int magic = 0x44414652; // "DAFR"
+    private static final int version = 2;
+    private static final int headersize = 4 * Integer.BYTES + 5 * Long.BYTES;
+    private static final long mapsize = 1 << 30; // bytes of records per mapped window
+    private static final int chunksize = 1 << 16;
+    private static final int indexinterval = 64;
+    private static final int bitsperkey = 10;
+    private static final int nodata = -1;
+
+    /**
+     * one record of a run
+     */
+    public static class Record<K extends Comparable<? super K>, D> implements Comparable<Record<K, D>> {
+        public final K key;
+        public final D data; // null when the data is not changed
+        public final int delta;
+
+        public Record(K key, D data, int delta) {
+            this.key = key;
+            this.data = data;
+            this.delta = delta;
+        }
+
+        public int compareTo(Record<K, D> other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    private final Path path;
+    private final MappedByteBuffer[] windows; // window i starts at file position i * mapsize
+    private final DAFCodec<K> keycodec;
+    private final DAFCodec<D> datacodec;
+    private final int nRecords;
+    private final long bloomoffset; // also the end of the records
+    private final long minsequence;
+    private final long maxsequence;
+    private final long total;
+    private final BloomFilter bloom;
+    private final List<K> indexkeys;
+    private final long[] indexoffsets;
+
+    private DAFRun(Path path, FileChannel channel, ByteBuffer header, DAFCodec<K> keycodec,
+            DAFCodec<D> datacodec) throws IOException {
+        this.path = path;
+        this.keycodec = keycodec;
+        this.datacodec = datacodec;
+        this.nRecords = header.getInt(2 * Integer.BYTES);
+        int maxrecord = header.getInt(3 * Integer.BYTES);
+        this.bloomoffset = header.getLong(4 * Integer.BYTES);
+        long indexoffset = header.getLong(4 * Integer.BYTES + Long.BYTES);
+        this.minsequence = header.getLong(4 * Integer.BYTES + 2 * Long.BYTES);
+        this.maxsequence = header.getLong(4 * Integer.BYTES + 3 * Long.BYTES);
+        this.total = header.getLong(4 * Integer.BYTES + 4 * Long.BYTES);
+        long length = channel.size();
+        if (nRecords < 0 || maxrecord < 0 || bloomoffset < headersize || indexoffset < bloomoffset
+                || indexoffset > length - Integer.BYTES) {
+            throw new IOException("corrupt run: " + path);
+        }
+        if (mapsize + maxrecord > Integer.MAX_VALUE || indexoffset - bloomoffset > Integer.MAX_VALUE
+                || length - indexoffset > Integer.MAX_VALUE) {
+            throw new IOException("record, filter or index larger than 2GB: " + path);
+        }
+        // the mappings stay valid after the channel is closed
+        this.windows = new MappedByteBuffer[(int) ((bloomoffset + mapsize - 1) / mapsize)];
+        for (int i = 0; i < windows.length; i++) {
+            long start = i * mapsize;
+            long end = Math.min(bloomoffset, start + mapsize + maxrecord);
+            this.windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        }
+        try {
+            this.bloom = BloomFilter.read(channel.map(FileChannel.MapMode.READ_ONLY,
+                    bloomoffset, indexoffset - bloomoffset), 0);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexoffset,
+                    length - indexoffset);
+            int nEntries = index.getInt(0);
+            this.indexkeys = new ArrayList<>(nEntries);
+            this.indexoffsets = new long[nEntries];
+            int position = Integer.BYTES;
+            for (int i = 0; i < nEntries; i++) {
+                int keylength = index.getInt(position);
+                indexkeys.add(keycodec.read(index, position + Integer.BYTES, keylength));
+                position += Integer.BYTES + keylength;
+                indexoffsets[i] = index.getLong(position);
+                position += Long.BYTES;
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("truncated run: " + path, e);
+        }
+    }
+
+    /**
+     * writes the records to a new run and opens it
+     *
+     * @param path the file to write, it is replaced if it exists
+     * @param records the records in accending order of their keys, each key once
+     * @param expected about how many records there are, sizes the filter
+     * @param minSequence the first flush the run covers
+     * @param maxSequence the last flush the run covers
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @return the opened run
+     * @throws IOException the file can not be written
+     * @throws NullPointerException an argument is null
+     */
+    public static <K extends Comparable<? super K>, D> DAFRun<K, D> write(Path path,
+            Iterator<Record<K, D>> records, int expected, long minSequence, long maxSequence,
+            DAFCodec<K> keycodec, DAFCodec<D> datacodec) throws IOException {
+        if (path == null || records == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        Path absolute = path.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer<K, D> writer = new Writer<>(channel, keycodec, datacodec, expected);
+            while (records.hasNext()) {
+                writer.add(records.next());
+            }
+            writer.finish(minSequence, maxSequence);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return open(absolute, keycodec, datacodec);
+    }
+
+    /**
+     * opens a run written by write
+     *
+     * @param path the file to read
+     * @param keycodec turns bytes into keys, the same codec used to write
+     * @param datacodec turns bytes into data, the same codec used to write
+     * @return the opened run
+     * @throws IOException the file can not be read or is not a run
+     * @throws NullPointerException an argument is null
+     */
+    public static <K extends Comparable<? super K>, D> DAFRun<K, D> open(Path path,
+            DAFCodec<K> keycodec, DAFCodec<D> datacodec) throws IOException {
+        if (path == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < headersize) {
+                throw new IOException("not a DAF run: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headersize);
+            if (header.getInt(0) != magic) {
+                throw new IOException("not a DAF run: " + path);
+            }
+            if (header.getInt(Integer.BYTES) != version) {
+                throw new IOException("unsupported run version: " + header.getInt(Integer.BYTES));
+            }
+            return new DAFRun<>(path, channel, header, keycodec, datacodec);
+        }
+    }
+
+    /**
+     * returns the file of the run
+     *
+     * @return the path
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * returns the number of records, one per key
+     *
+     * @return int the number of records
+     */
+    public int nRecords() {
+        return nRecords;
+    }
+
+    /**
+     * returns the first flush the run covers
+     *
+     * @return long the sequence
+     */
+    public long minSequence() {
+        return minsequence;
+    }
+
+    /**
+     * returns the last flush the run covers
+     *
+     * @return long the sequence
+     */
+    public long maxSequence() {
+        return maxsequence;
+    }
+
+    /**
+     * returns the sum of the deltas of the run
+     *
+     * @return long the total change of the count
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * looks for the record of a key. the filter answers most misses without
+     * reading the file, otherwise one block of the sparse index is scanned
+     *
+     * @param key to look for
+     * @return the record, null if the run has none for key
+     * @throws NullPointerException key is null
+     */
+    public Record<K, D> find(K key) {
+        ByteBuffer encoded = ByteBuffer.allocate(keycodec.size(key));
+        keycodec.write(encoded, 0, key);
+        if (!bloom.mightContain(encoded, 0, encoded.capacity())) {
+            return null;
+        }
+        int block = block(key);
+        if (block < 0) {
+            return null;
+        }
+        long position = indexoffsets[block];
+        long end = block + 1 < indexoffsets.length ? indexoffsets[block + 1] : bloomoffset;
+        long[] next = new long[1];
+        while (position < end) {
+            Record<K, D> record = read(position, next);
+            int cmp = record.key.compareTo(key);
+            if (cmp == 0) {
+                return record;
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            position = next[0];
+        }
+        return null;
+    }
+
+    /**
+     * returns the records with keys bigger than lower in accending order,
+     * read lazily from the file
+     *
+     * @param lower the lower bound (exclusive), null for no bound
+     * @return an iterator over the records
+     */
+    public Iterator<Record<K, D>> records(K lower) {
+        int block = lower == null ? -1 : block(lower);
+        long start = block < 0 ? headersize : indexoffsets[block];
+        return new Iterator<Record<K, D>>() {
+            private final long[] next = {start};
+            private Record<K, D> record = advance();
+
+            private Record<K, D> advance() {
+                while (next[0] < bloomoffset) {
+                    Record<K, D> result = read(next[0], next);
+                    if (lower == null || result.key.compareTo(lower) > 0) {
+                        return result;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return record != null;
+            }
+
+            public Record<K, D> next() {
+                if (record == null) {
+                    throw new NoSuchElementException();
+                }
+                Record<K, D> result = record;
+                this.record = advance();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * deletes the file of the run, the run can still be read until it is unreachable
+     *
+     * @throws IOException the file can not be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * returns the last block whose first key is at most key, -1 if key is before all blocks
+     */
+    private int block(K key) {
+        int index = Collections.binarySearch(indexkeys, key);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * decodes the record at position and stores where the next one starts in next[0]
+     */
+    private Record<K, D> read(long offset, long[] next) {
+        // the window a record starts in holds all of it
+        ByteBuffer buffer = windows[(int) (offset / mapsize)];
+        int position = (int) (offset % mapsize);
+        int keylength = buffer.getInt(position);
+        K key = keycodec.read(buffer, position + Integer.BYTES, keylength);
+        position += Integer.BYTES + keylength;
+        int datalength = buffer.getInt(position);
+        position += Integer.BYTES;
+        D data = null;
+        if (datalength != nodata) {
+            data = datacodec.read(buffer, position, datalength);
+            position += datalength;
+        }
+        int delta = buffer.getInt(position);
+        next[0] = offset - offset % mapsize + position + Integer.BYTES;
+        return new Record<>(key, data, delta);
+    }
+
+    /**
+     * encodes records into a buffer that is written out when full and
+     * collects the filter and the sparse index on the way
+     */
+    private static class Writer<K extends Comparable<? super K>, D> {
+        private final FileChannel channel;
+        private final DAFCodec<K> keycodec;
+        private final DAFCodec<D> datacodec;
+        private final BloomFilter bloom;
+        private final List<K> indexkeys = new ArrayList<>();
+        private final List<Long> indexoffsets = new ArrayList<>();
+        private ByteBuffer buffer;
+        private long offset; // file position of the buffer start
+        private int nRecords;
+        private int maxrecord; // bytes of the longest record
+        private long total;
+
+        Writer(FileChannel channel, DAFCodec<K> keycodec, DAFCodec<D> datacodec, int expected) {
+            this.channel = channel;
+            this.keycodec = keycodec;
+            this.datacodec = datacodec;
+            this.bloom = new BloomFilter(Math.max(1, expected), bitsperkey);
+            this.buffer = ByteBuffer.allocateDirect(chunksize);
+            buffer.position(headersize); // the header is filled in at the end
+        }
+
+        void add(Record<K, D> record) throws IOException {
+            int keylength = keycodec.size(record.key);
+            int datalength = record.data == null ? 0 : datacodec.size(record.data);
+            int length = 3 * Integer.BYTES + keylength + datalength;
+            reserve(length);
+            this.maxrecord = Math.max(maxrecord, length);
+            if (nRecords % indexinterval == 0) {
+                indexkeys.add(record.key);
+                indexoffsets.add(offset + buffer.position());
+            }
+            int position = buffer.position();
+            buffer.putInt(position, keylength);
+            keycodec.write(buffer, position + Integer.BYTES, record.key);
+            bloom.add(buffer, position + Integer.BYTES, keylength);
+            position += Integer.BYTES + keylength;
+            if (record.data == null) {
+                buffer.putInt(position, nodata);
+                position += Integer.BYTES;
+            } else {
+                buffer.putInt(position, datalength);
+                datacodec.write(buffer, position + Integer.BYTES, record.data);
+                position += Integer.BYTES + datalength;
+            }
+            buffer.putInt(position, record.delta);
+            buffer.position(position + Integer.BYTES);
+            total += record.delta;
+            nRecords++;
+        }
+
+        /**
+         * writes the filter, the index and the header
+         */
+        void finish(long minsequence, long maxsequence) throws IOException {
+            long bloomoffset = offset + buffer.position();
+            drain();
+            ByteBuffer filter = ByteBuffer.allocate(bloom.size());
+            bloom.write(filter, 0);
+            while (filter.hasRemaining()) {
+                channel.write(filter);
+            }
+            this.offset += filter.capacity();
+            long indexoffset = offset;
+            reserve(Integer.BYTES);
+            buffer.putInt(indexkeys.size());
+            for (int i = 0; i < indexkeys.size(); i++) {
+                K key = indexkeys.get(i);
+                int keylength = keycodec.size(key);
+                reserve(Integer.BYTES + keylength + Long.BYTES);
+                int position = buffer.position();
+                buffer.putInt(position, keylength);
+                keycodec.write(buffer, position + Integer.BYTES, key);
+                buffer.putLong(position + Integer.BYTES + keylength, indexoffsets.get(i));
+                buffer.position(position + Integer.BYTES + keylength + Long.BYTES);
+            }
+            drain();
+            ByteBuffer header = ByteBuffer.allocate(headersize);
+            header.putInt(magic).putInt(version).putInt(nRecords).putInt(maxrecord)
+                    .putLong(bloomoffset).putLong(indexoffset).putLong(minsequence)
+                    .putLong(maxsequence).putLong(total).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        /**
+         * makes room for a record, a record bigger than a chunk gets its own buffer
+         */
+        private void reserve(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            drain();
+            if (buffer.capacity() < length) {
+                this.buffer = ByteBuffer.allocateDirect(length);
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            this.offset += length;
+        }
+    }
+}
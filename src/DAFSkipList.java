@@ -0,0 +1,376 @@
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * lock free DAFIndex on a concurrent skip list. every key has an atomic
+ * duplicate counter, so insert, insertDuplicate and remove are CAS loops on
+ * that counter and only adding or dropping a key touches the skip list.
+ * a counter that reached 0 marks a dead entry, whoever sees it unlinks it
+ * and tries again. iteration is weakly consistent and never blocks writers.
+ */
+public class DAFSkipList<K extends Comparable<? super K>, D> implements DAFIndex<K, D> {
+
+    private ConcurrentSkipListMap<K, DAFEntry<D>> map;
+    private AtomicInteger nElems;
+    private AtomicInteger nUnique; // number of keys whose count is exactly 1
+
+    protected static class DAFEntry<D> {
+        volatile D data;
+        final AtomicInteger count; // duplicate counter, 0 once the entry is dead
+
+        /**
+         * constructor of DAFEntry
+         *
+         * @param data the data of the key
+         * @param nCopy the amount of times to count
+         */
+        public DAFEntry(D data, int nCopy) {
+            this.data = data;
+            this.count = new AtomicInteger(nCopy);
+        }
+    }
+
+    /**
+     * constructor of DAFSkipList
+     *
+     */
+    public DAFSkipList() {
+        this.map = new ConcurrentSkipListMap<>();
+        this.nElems = new AtomicInteger();
+        this.nUnique = new AtomicInteger();
+    }
+
+    /**
+     * returns the number of keys
+     * @return nElems
+     */
+    public int size() {
+        return nElems.get();
+    }
+
+    /**
+     * returns the total number of unique keys
+     *
+     * @return int
+     */
+    public int nUniqueKeys() {
+        return nUnique.get();
+    }
+
+    /**
+     * helper method to keep nUnique right when the count of a key changes
+     *
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    private void recount(int before, int after) {
+        if (before == 1) {
+            nUnique.decrementAndGet();
+        }
+        if (after == 1) {
+            nUnique.incrementAndGet();
+        }
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        while (true) {
+            DAFEntry<D> entry = map.get(key);
+            if (entry == null) {
+                if (map.putIfAbsent(key, new DAFEntry<>(data, nCopy)) == null) {
+                    nElems.addAndGet(nCopy);
+                    recount(0, nCopy);
+                    return true;
+                }
+            } else if (add(key, entry, nCopy)) {
+                return false;
+            }
+            // lost a race with another writer, tries again
+        }
+    }
+
+    /**
+     * inserts the given key nCopy times if it already exists
+     *
+     * @param key the key to insert
+     * @param nCopy the amount of times to count
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insertDuplicate(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        while (true) {
+            DAFEntry<D> entry = map.get(key);
+            if (entry == null) {
+                return false;
+            }
+            if (add(key, entry, nCopy)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * adds nCopy to the counter of a live entry
+     *
+     * @param key the key of the entry
+     * @param entry the entry
+     * @param nCopy the amount to add
+     * @return true if it was added, false if the entry is dead
+     */
+    private boolean add(K key, DAFEntry<D> entry, int nCopy) {
+        while (true) {
+            int count = entry.count.get();
+            if (count == 0) {
+                // helps the remover that killed the entry
+                map.remove(key, entry);
+                return false;
+            }
+            if (entry.count.compareAndSet(count, count + nCopy)) {
+                nElems.addAndGet(nCopy);
+                recount(count, count + nCopy);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        DAFEntry<D> entry = map.get(key);
+        return entry == null ? 0 : entry.count.get();
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        return take(key, nCopy);
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key the key to remove
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return take(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * helper method that takes up to nCopy copies from the counter
+     * and unlinks the entry once it reaches 0
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     */
+    private boolean take(K key, int nCopy) {
+        DAFEntry<D> entry = map.get(key);
+        if (entry == null) {
+            return false;
+        }
+        while (true) {
+            int count = entry.count.get();
+            if (count == 0) {
+                map.remove(key, entry);
+                return false;
+            }
+            int left = count - Math.min(nCopy, count);
+            if (entry.count.compareAndSet(count, left)) {
+                nElems.addAndGet(left - count);
+                recount(count, left);
+                if (left == 0) {
+                    map.remove(key, entry);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        DAFEntry<D> entry = map.get(key);
+        return entry == null || entry.count.get() == 0 ? null : entry.data;
+    }
+
+    /**
+     * replaces the data of the key
+     *
+     * @param key the key to update
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data are null
+     */
+    public boolean update(K key, D newData) {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        DAFEntry<D> entry = map.get(key);
+        if (entry == null || entry.count.get() == 0) {
+            return false;
+        }
+        entry.data = newData;
+        return true;
+    }
+
+    /**
+     * returns the most extreme live key
+     *
+     * @param isMax If isMax is true return the max key; otherwise,return the min.
+     * @return the key, null if empty
+     */
+    public K findExtreme(boolean isMax) {
+        NavigableMap<K, DAFEntry<D>> view = isMax ? map.descendingMap() : map;
+        for (Map.Entry<K, DAFEntry<D>> entry : view.entrySet()) {
+            if (entry.getValue().count.get() > 0) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns a weakly consistent iterator over the keys between
+     * lower (exclusive) and upper (exclusive) in accending order
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     * @return the iterator
+     */
+    public Iterator<K> iterator(K lower, K upper, boolean allowDuplicate) {
+        if (lower != null && upper != null && lower.compareTo(upper) >= 0) {
+            return Collections.emptyIterator(); // the range is empty
+        }
+        ConcurrentNavigableMap<K, DAFEntry<D>> view = map;
+        if (lower != null) {
+            view = view.tailMap(lower, false);
+        }
+        if (upper != null) {
+            view = view.headMap(upper, false);
+        }
+        return new DAFSkipListIterator(view.entrySet().iterator(), allowDuplicate);
+    }
+
+    /**
+     * DAFSkipListIterator
+     * repeats every key once per copy, the count is read when the key is reached
+     */
+    public class DAFSkipListIterator implements Iterator<K> {
+        Iterator<Map.Entry<K, DAFEntry<D>>> entries;
+        boolean allowDuplicate;
+        int parr = 0; // copies of multi that are left to return
+        K multi;
+
+        /**
+         * constructor of DAFSkipListIterator
+         *
+         * @param entries the entries of the skip list to walk
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        public DAFSkipListIterator(Iterator<Map.Entry<K, DAFEntry<D>>> entries,
+                                   boolean allowDuplicate) {
+            this.entries = entries;
+            this.allowDuplicate = allowDuplicate;
+            advance();
+        }
+
+        /**
+         * moves to the next live entry that passes the filter
+         */
+        private void advance() {
+            while (entries.hasNext()) {
+                Map.Entry<K, DAFEntry<D>> entry = entries.next();
+                int count = entry.getValue().count.get();
+                if (count == 1 || (allowDuplicate && count > 1)) {
+                    this.multi = entry.getKey();
+                    this.parr = allowDuplicate ? count : 1;
+                    return;
+                }
+            }
+            this.parr = 0;
+        }
+
+        public boolean hasNext() {
+            return parr > 0;
+        }
+
+        /**
+         * returns the next key
+         *
+         * @return the next key
+         * @throws NoSuchElementException when there is no element left
+         */
+        public K next() {
+            if (parr == 0) {
+                throw new NoSuchElementException();
+            }
+            K key = multi;
+            this.parr--;
+            if (parr == 0) {
+                advance();
+            }
+            return key;
+        }
+    }
+
+}
@@ -1,17 +1,30 @@
 
 import java.util.*;
+import java.util.function.Consumer;
 
 @SuppressWarnings("rawtypes")
 public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
 
     private DAFNode<K, D> root;
     private int nElems;
-    private LinkedList<K> unielems = new LinkedList<>(); //list to keep track of uniqe keys
+    private int nUnique; // number of keys whose count is exactly 1
+    private int nDistinct; // number of nodes
+    // nodes grouped by count, built by the first topK and kept up to date
+    // by recount after that, null until then
+    private TreeMap<Integer, Set<DAFNode<K, D>>> bycount;
+
+    // only counted while instrumented is on
+    private boolean instrumented;
+    private long searches; // calls to getnode
+    private long searchdepth; // nodes visited by those calls
 
     protected class DAFNode<K extends Comparable<? super K>, D> {
         K key;
         D data;
         int count; // duplicate counter
+        int height; // height of the subtree, a leaf has height 1
+        int total; // sum of the counts in the subtree
+        int unique; // number of keys with count 1 in the subtree
         DAFNode<K, D> left, right;
 
         /**
@@ -28,6 +41,9 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             this.key = key;
             this.data = data;
             this.count = 1;
+            this.height = 1;
+            this.total = 1;
+            this.unique = 1;
             this.left = null;
             this.right = null;
         }
@@ -50,6 +66,9 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             this.key = key;
             this.data = data;
             this.count = nCopy;
+            this.height = 1;
+            this.total = nCopy;
+            this.unique = nCopy == 1 ? 1 : 0;
             this.left = null;
             this.right = null;
         }
@@ -74,18 +93,25 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
      */
     private DAFNode getnode(K key) {
         DAFNode temp = root; //sets the root
+        if (instrumented) {
+            this.searches++;
+        }
         while (temp != null) {
             //goes down the tree from the root
-            if (temp.key.compareTo(key) == 0) {
+            if (instrumented) {
+                this.searchdepth++;
+            }
+            int cmp = temp.key.compareTo(key); // compared once per level
+            if (cmp == 0) {
                 //when finds the node
                 return temp;
-            } else if (temp.key.compareTo(key) < 0) {
+            } else if (cmp < 0) {
                 // to go down the right child
                 if (temp.right == null) {
                     return temp;
                 }
                 temp = temp.right;
-            } else if (temp.key.compareTo(key) > 0) {
+            } else {
                 // to go down the left child
                 if (temp.left == null) {
                     return temp;
@@ -96,6 +122,205 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         return temp;
     }
 
+    /**
+     * replaces the content of the tree with keys that are given in strictly
+     * accending order. the tree is built bottom up in linear time and is
+     * perfectly balanced
+     *
+     * @param keys the keys in strictly accending order
+     * @param data the data of each key
+     * @param counts the count of each key
+     * @return the new nodes in accending order
+     * @throws NullPointerException a key or data is null
+     * @throws IllegalArgumentException a count is less than 1
+     */
+    public List<DAFNode<K, D>> build(List<K> keys, List<D> data, int[] counts) {
+        ArrayList<DAFNode<K, D>> nodes = new ArrayList<>(keys.size());
+        Iterator<D> datait = data.iterator();
+        int i = 0;
+        for (K key : keys) {
+            nodes.add(new DAFNode<>(key, datait.next(), counts[i++]));
+        }
+        this.nElems = 0;
+        this.nUnique = 0;
+        this.nDistinct = 0;
+        this.bycount = null; // the old nodes are gone, topK builds it again
+        for (DAFNode<K, D> node : nodes) {
+            this.nElems += node.count;
+            recount(node, 0, node.count);
+        }
+        this.root = build(nodes, 0, nodes.size() - 1);
+        return nodes;
+    }
+
+    /**
+     * helper method that makes the middle node the root of the range
+     *
+     * @param nodes the nodes in accending order
+     * @param lo the first node of the range
+     * @param hi the last node of the range
+     * @return the root of the subtree, null if the range is empty
+     */
+    private DAFNode<K, D> build(List<DAFNode<K, D>> nodes, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        DAFNode<K, D> node = nodes.get(mid);
+        node.left = build(nodes, lo, mid - 1);
+        node.right = build(nodes, mid + 1, hi);
+        update(node);
+        return node;
+    }
+
+    /**
+     * adds keys that are given in strictly accending order. a large batch
+     * is merged with the nodes of the tree in one pass and the tree is
+     * rebuilt balanced, a small one is inserted key by key
+     *
+     * @param keys the keys in strictly accending order
+     * @param data the data of each key, only used for new keys
+     * @param counts the amount of times to count each key
+     * @return the nodes that were created for new keys
+     */
+    public List<DAFNode<K, D>> merge(List<K> keys, List<D> data, int[] counts) {
+        ArrayList<DAFNode<K, D>> added = new ArrayList<>();
+        if (!rebuildworthwhile(keys.size())) {
+            for (int i = 0; i < keys.size(); i++) {
+                DAFNode<K, D> node = insert(keys.get(i), data.get(i), counts[i]);
+                if (node.count == counts[i]) {
+                    // an existing node would have a higher count by now
+                    added.add(node);
+                }
+            }
+            return added;
+        }
+        ArrayList<DAFNode<K, D>> old = inorder();
+        ArrayList<DAFNode<K, D>> merged = new ArrayList<>(old.size() + keys.size());
+        int i = 0;
+        int j = 0;
+        while (i < old.size() || j < keys.size()) {
+            int cmp = i == old.size() ? 1
+                    : j == keys.size() ? -1 : old.get(i).key.compareTo(keys.get(j));
+            if (cmp < 0) {
+                merged.add(old.get(i++));
+                continue;
+            }
+            DAFNode<K, D> node;
+            if (cmp > 0) {
+                node = new DAFNode<>(keys.get(j), data.get(j), counts[j]);
+                recount(node, 0, counts[j]);
+                added.add(node);
+            } else {
+                node = old.get(i++);
+                recount(node, node.count, node.count + counts[j]);
+                node.count += counts[j];
+            }
+            this.nElems += counts[j++];
+            merged.add(node);
+        }
+        this.root = build(merged, 0, merged.size() - 1);
+        return added;
+    }
+
+    /**
+     * removes keys that are given in strictly accending order. a large
+     * batch is taken out of the nodes of the tree in one pass and the tree
+     * is rebuilt balanced, a small one is removed key by key
+     *
+     * @param keys the keys in strictly accending order
+     * @param counts the amount of times to remove each key
+     */
+    public void subtract(List<K> keys, int[] counts) {
+        if (!rebuildworthwhile(keys.size())) {
+            for (int i = 0; i < keys.size(); i++) {
+                remove(keys.get(i), counts[i]);
+            }
+            return;
+        }
+        ArrayList<DAFNode<K, D>> old = inorder();
+        ArrayList<DAFNode<K, D>> kept = new ArrayList<>(old.size());
+        int j = 0;
+        for (DAFNode<K, D> node : old) {
+            while (j < keys.size() && keys.get(j).compareTo(node.key) < 0) {
+                j++; // the key is not in the tree
+            }
+            if (j < keys.size() && keys.get(j).compareTo(node.key) == 0) {
+                int removed = Math.min(counts[j++], node.count);
+                recount(node, node.count, node.count - removed);
+                node.count -= removed;
+                this.nElems -= removed;
+            }
+            if (node.count > 0) {
+                kept.add(node);
+            }
+        }
+        this.root = build(kept, 0, kept.size() - 1);
+    }
+
+    /**
+     * a pass over every node pays off once the batch would cost more
+     * descents than there are nodes in the tree
+     *
+     * @param nKeys the number of keys in the batch
+     * @return true if the tree should be rebuilt
+     */
+    private boolean rebuildworthwhile(int nKeys) {
+        return (long) nKeys * Math.max(height(), 1) >= nDistinct;
+    }
+
+    /**
+     * calls the action for every node in accending order
+     *
+     * @param action what to do with each node
+     */
+    public void forEachNode(Consumer<DAFNode<K, D>> action) {
+        forEachNode(null, null, action);
+    }
+
+    /**
+     * calls the action for every node between lower (exclusive) and upper
+     * (exclusive) in accending order, subtrees outside of the range are skipped
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param action what to do with each node
+     */
+    public void forEachNode(K lower, K upper, Consumer<DAFNode<K, D>> action) {
+        Stack<DAFNode<K, D>> stack = new Stack<>();
+        DAFNode<K, D> temp = root;
+        while (temp != null || !stack.isEmpty()) {
+            while (temp != null) {
+                if (lower != null && temp.key.compareTo(lower) <= 0) {
+                    temp = temp.right; // the node and its left subtree are below the range
+                } else {
+                    stack.push(temp);
+                    temp = temp.left;
+                }
+            }
+            if (stack.isEmpty()) {
+                return;
+            }
+            temp = stack.pop();
+            if (upper != null && temp.key.compareTo(upper) >= 0) {
+                return;
+            }
+            action.accept(temp);
+            temp = temp.right;
+        }
+    }
+
+    /**
+     * returns the nodes of the tree in accending order
+     *
+     * @return the list of nodes
+     */
+    private ArrayList<DAFNode<K, D>> inorder() {
+        ArrayList<DAFNode<K, D>> result = new ArrayList<>();
+        forEachNode(result::add);
+        return result;
+    }
+
     /**
      * returns the number of keys
      * @return nElems
@@ -110,7 +335,102 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
      * @return int
      */
     public int nUniqueKeys() {
-        return unielems.size();
+        return nUnique;
+    }
+
+    /**
+     * returns the number of keys, counting duplicates once
+     *
+     * @return int the number of nodes
+     */
+    public int nDistinctKeys() {
+        return nDistinct;
+    }
+
+    /**
+     * helper method to keep nUnique and the count index right when the
+     * count of a key changes
+     *
+     * @param node the node whose count changes
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    @SuppressWarnings("unchecked")
+    private void recount(DAFNode node, int before, int after) {
+        if (before == 1) {
+            this.nUnique--;
+        }
+        if (after == 1) {
+            this.nUnique++;
+        }
+        if (before == 0 && after > 0) {
+            this.nDistinct++;
+        } else if (before > 0 && after == 0) {
+            this.nDistinct--;
+        }
+        if (bycount != null && before != after) {
+            if (before > 0) {
+                Set<DAFNode<K, D>> bucket = bycount.get(before);
+                bucket.remove(node);
+                if (bucket.isEmpty()) {
+                    bycount.remove(before);
+                }
+            }
+            if (after > 0) {
+                bycount.computeIfAbsent(after, count -> new LinkedHashSet<>()).add(node);
+            }
+        }
+    }
+
+    /**
+     * returns the k nodes with the highest counts, highest first. keys with
+     * the same count are returned in the order they reached that count.
+     * the first call indexes every node by its count, after that the index
+     * is kept up to date and a call only visits the nodes it returns
+     *
+     * @param k the number of nodes
+     * @return the nodes, fewer than k if the tree has fewer keys
+     * @throws IllegalArgumentException k is negative
+     */
+    public List<DAFNode<K, D>> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        ArrayList<DAFNode<K, D>> result = new ArrayList<>();
+        for (Set<DAFNode<K, D>> bucket : countindex().descendingMap().values()) {
+            for (DAFNode<K, D> node : bucket) {
+                if (result.size() == k) {
+                    return result;
+                }
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the node with the lowest count, of those the one that reached
+     * that count first. uses the same index as topK
+     *
+     * @return the node, null if the tree is empty
+     */
+    public DAFNode<K, D> leastFrequent() {
+        Map.Entry<Integer, Set<DAFNode<K, D>>> lowest = countindex().firstEntry();
+        return lowest == null ? null : lowest.getValue().iterator().next();
+    }
+
+    /**
+     * returns the count index, indexing every node the first time
+     *
+     * @return the nodes grouped by count
+     */
+    private TreeMap<Integer, Set<DAFNode<K, D>>> countindex() {
+        if (bycount == null) {
+            this.bycount = new TreeMap<>();
+            forEachNode(node -> bycount.computeIfAbsent(node.count,
+                    count -> new LinkedHashSet<>()).add(node));
+        }
+        return bycount;
     }
 
     /**
@@ -131,29 +451,41 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             throw new IllegalArgumentException();
         }
         DAFNode temp = getnode(key); // returns the node or null if it doesnt exists
-        DAFNode newnode = new DAFNode(key, data, nCopy); //creates a new node
-        if (root == null) { // if tree is empty sets it as root
-            // temp is only null when the root is null
-            this.root = newnode;
-        } else if (temp.key.compareTo(key) == 0) {
-            unielems.remove(key);
+        if (temp != null && temp.key.compareTo(key) == 0) {
             //if the key already exsits it implements the count
+            recount(temp, temp.count, temp.count + nCopy);
             temp.count += nCopy;
             this.nElems += nCopy;
+            refresh(root, key);
             return temp;
-        } else if (temp.key.compareTo(key) < 0) {
-            //parent key is smaller than key
-            temp.right = newnode; // set to right child
-        } else if (temp.key.compareTo(key) > 0) {
-            //parent key is bigger than key
-            temp.left = newnode; // set to left child
-        }
-        if (nCopy == 1) { // if ncpy is 1 adds to unique key list
-            unielems.add(key);
         }
+        DAFNode<K, D> newnode = new DAFNode<>(key, data, nCopy); //creates a new node
+        this.root = insertnode(root, newnode); // adds the node and rebalances the path
+        recount(newnode, 0, nCopy);
         this.nElems += nCopy;
         return newnode;
     }
+
+    /**
+     * helper method that adds a new node under node and rebalances
+     * every subtree on the way back up
+     *
+     * @param node the root of the subtree
+     * @param newnode the node to add, its key is not in the tree
+     * @return the new root of the subtree
+     */
+    private DAFNode<K, D> insertnode(DAFNode<K, D> node, DAFNode<K, D> newnode) {
+        if (node == null) {
+            return newnode;
+        }
+        if (node.key.compareTo(newnode.key) < 0) {
+            node.right = insertnode(node.right, newnode);
+        } else {
+            node.left = insertnode(node.left, newnode);
+        }
+        return balance(node);
+    }
+
     /**
      * inserts the given key to the tree nCopy times
      *
@@ -172,10 +504,12 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             throw new IllegalArgumentException();
         }
         DAFNode temp = getnode(key);
-        if (temp.key.compareTo(key) == 0) {
+        if (temp != null && temp.key.compareTo(key) == 0) {
             //if the key already exsits it implements the count
+            recount(temp, temp.count, temp.count + nCopy);
             temp.count += nCopy;
             this.nElems += nCopy;
+            refresh(root, key);
             return temp;
         }
         //returns null if data is not the same or temp is null
@@ -252,15 +586,14 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             return null;
         } else if (temp.key.compareTo(key) == 0) {
             // checks if the keys are the same
-            temp.count -= nCopy;
-            this.nElems -= nCopy;
-            if (temp.count == 1) { //if count is 1 add to uniqe keys list
-                unielems.add(key);
-            } else if (temp.count <= 0) { // if ncopy is 0 remove the whole node
-                this.nElems -= temp.count;
-                temp.count = 0;
-                unielems.remove(key);
-                removenode((K) temp.key);
+            int removed = Math.min(nCopy, temp.count); // count never goes below 0
+            recount(temp, temp.count, temp.count - removed);
+            temp.count -= removed;
+            this.nElems -= removed;
+            if (temp.count == 0) { // if no copy is left remove the whole node
+                this.root = removenode(root, key);
+            } else {
+                refresh(root, key);
             }
             return temp;
         }
@@ -276,84 +609,237 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
      * @throws NullPointerException key or data are null
      */
     public boolean removenode(K key) {
-        DAFNode<K, D> par = null;
-        DAFNode<K, D> cur = root;
-        while (cur != null) { // Search for node
-            if (cur.key.compareTo(key) == 0) { // Node found
-                if (cur.left == null && cur.right == null) { // Remove leaf
-                    if (par == null) {// Node is root
-                        this.root = null; // empties the tree
-                        return true;
-                    } else if (par.left != null && par.left.key.compareTo(cur.key) == 0) {
-                        // if cur is left child of par node
-                        par.left = null; // par node left is null
-                        return true;
-                    } else { // if cur is right child of par node
-                        par.right = null; // par node left is null
-                        return true;
-                    }
-                } else if (cur.right == null) { // Remove node with only left child
-                    if (par == null){
-                        this.root = cur.left; // Node is root
-                        return true;
-                    } else if (par.left != null && par.left.key.compareTo(cur.key) == 0) {
-                        // if cur is left child of par node
-                        par.left = cur.left; // par node left is null
-                        return true;
-                    } else{ // if cur is right child of par node
-                        par.right = cur.left; // par node left is null
-                        return true;
-                    }
-                } else if (cur.left == null) {    // Remove node with only right child
-                    if (par == null){// Node is root
-                        this.root = cur.right;
-                        return true;
-                    } else if (par.left != null && par.left.key.compareTo(cur.key) == 0){
-                        // if node is the left child
-                        par.left = cur.right;
-                        return true;
-                    } else { // if cur is right child of par node
-                        par.right = cur.right; // par node left is null
-                        return true;
-                    }
-                } else {  // Remove node with two children
-                    // Find successor (leftmost child of right subtree)
-                    DAFNode<K, D> suc = cur.right;
-                    DAFNode<K, D> sucpar = cur;
-                    while (suc.left != null) {
-                        // loops through the leftmost child of right subtree
-                        sucpar = suc;
-                        suc = suc.left;
-                    }
-                    if (sucpar.left != null && sucpar.left.key.compareTo(suc.key) == 0) {
-                        sucpar.left = suc.right;
-                        suc.right = cur.right;
-                    } else {
-                        sucpar.right = null;
-                    }
-                    suc.left = cur.left;
-                    if (par == null) { // Node is root
-                        this.root = suc;
-                        return true;
-                    } else if (par.left != null && par.left.key.compareTo(cur.key) == 0) {
-                        // if node is the left child
-                        par.left = suc;
-                        return true;
-                    } else { // if cur is right child of par node
-                        par.right = suc; // par node left is null
-                        return true;
-                    }
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        DAFNode<K, D> temp = lookup(key);
+        if (temp == null) {
+            return false;// Node not found
+        }
+        // all copies of the key leave the tree
+        recount(temp, temp.count, 0);
+        this.nElems -= temp.count;
+        temp.count = 0;
+        this.root = removenode(root, key);
+        return true;
+    }
 
-                }
-            } else if (cur.key.compareTo(key) < 0) { // Search right
-                par = cur;
-                cur = cur.right;
-            } else {        // Search left
-                par = cur;
-                cur = cur.left;
+    /**
+     * helper method that unlinks the node with the key from the subtree.
+     * the nodes are relinked instead of copying keys so the node instances
+     * kept in the hashtable of FADAF stay valid
+     *
+     * @param node the root of the subtree
+     * @param key the key to remove, it is in the subtree
+     * @return the new root of the subtree
+     */
+    private DAFNode<K, D> removenode(DAFNode<K, D> node, K key) {
+        int cmp = node.key.compareTo(key);
+        if (cmp < 0) { // Search right
+            node.right = removenode(node.right, key);
+            return balance(node);
+        } else if (cmp > 0) { // Search left
+            node.left = removenode(node.left, key);
+            return balance(node);
+        }
+        // Node found
+        if (node.left == null) {
+            return node.right;
+        } else if (node.right == null) {
+            return node.left;
+        }
+        // Remove node with two children
+        // successor (leftmost child of right subtree) takes its place
+        DAFNode<K, D> suc = getmaxmin(node.right, false);
+        suc.right = removemin(node.right);
+        suc.left = node.left;
+        return balance(suc);
+    }
+
+    /**
+     * helper method that unlinks the leftmost node of the subtree
+     *
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private DAFNode<K, D> removemin(DAFNode<K, D> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removemin(node.left);
+        return balance(node);
+    }
+
+    private int height(DAFNode<K, D> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private int total(DAFNode<K, D> node) {
+        return node == null ? 0 : node.total;
+    }
+
+    private int unique(DAFNode<K, D> node) {
+        return node == null ? 0 : node.unique;
+    }
+
+    /**
+     * recomputes the height and subtree sizes of the node from its children
+     *
+     * @param node the node to update
+     */
+    private void update(DAFNode<K, D> node) {
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        node.total = total(node.left) + total(node.right) + node.count;
+        node.unique = unique(node.left) + unique(node.right) + (node.count == 1 ? 1 : 0);
+    }
+
+    /**
+     * helper method that updates the subtree sizes on the path to the key
+     * after the count of its node changed
+     *
+     * @param node the root of the subtree
+     * @param key the key whose count changed
+     */
+    private void refresh(DAFNode<K, D> node, K key) {
+        if (node == null) {
+            return;
+        }
+        int cmp = node.key.compareTo(key);
+        if (cmp < 0) {
+            refresh(node.right, key);
+        } else if (cmp > 0) {
+            refresh(node.left, key);
+        }
+        update(node);
+    }
+
+    /**
+     * returns the number of copies in the tree that are smaller than the key
+     *
+     * @param key the key to rank, it does not have to be in the tree
+     * @param inclusive if true the copies of the key itself are counted too
+     * @return int the number of copies
+     * @throws NullPointerException key is null
+     */
+    public int rank(K key, boolean inclusive) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int result = 0;
+        DAFNode<K, D> temp = root;
+        while (temp != null) {
+            int cmp = temp.key.compareTo(key);
+            if (cmp < 0 || (cmp == 0 && inclusive)) {
+                // the left subtree and the node are all before the key
+                result += total(temp.left) + temp.count;
+                temp = temp.right;
+            } else if (cmp == 0) {
+                return result + total(temp.left);
+            } else {
+                temp = temp.left;
             }
         }
-        return false;// Node not found
+        return result;
+    }
+
+    /**
+     * returns the node that holds the copy at the given position when all
+     * copies are listed in accending order
+     *
+     * @param index the position starting from 0
+     * @return DAFNode<K, D> the node of the copy
+     * @throws IllegalArgumentException index is negative or not less than size
+     */
+    public DAFNode<K, D> select(int index) {
+        if (index < 0 || index >= nElems) {
+            throw new IllegalArgumentException();
+        }
+        DAFNode<K, D> temp = root;
+        while (true) {
+            int leftsize = total(temp.left);
+            if (index < leftsize) {
+                temp = temp.left;
+            } else if (index < leftsize + temp.count) {
+                return temp;
+            } else {
+                // skips the left subtree and the copies of this node
+                index -= leftsize + temp.count;
+                temp = temp.right;
+            }
+        }
+    }
+
+    /**
+     * restores the avl property of the node with at most two rotations,
+     * the children are already balanced
+     *
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private DAFNode<K, D> balance(DAFNode<K, D> node) {
+        update(node);
+        int diff = height(node.left) - height(node.right);
+        if (diff > 1) { // left side is too high
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateleft(node.left);
+            }
+            return rotateright(node);
+        } else if (diff < -1) { // right side is too high
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateright(node.right);
+            }
+            return rotateleft(node);
+        }
+        return node;
+    }
+
+    private DAFNode<K, D> rotateleft(DAFNode<K, D> node) {
+        DAFNode<K, D> child = node.right;
+        node.right = child.left;
+        child.left = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+    private DAFNode<K, D> rotateright(DAFNode<K, D> node) {
+        DAFNode<K, D> child = node.left;
+        node.left = child.right;
+        child.right = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+    /**
+     * returns the height of the tree
+     *
+     * @return int height, 0 if tree is empty
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * turns counting of searches and their depth on or off.
+     * turning it on starts the counts from zero
+     *
+     * @param on true to count
+     */
+    public void setInstrumented(boolean on) {
+        this.instrumented = on;
+        this.searches = 0;
+        this.searchdepth = 0;
+    }
+
+    /**
+     * returns the average number of nodes a search visited
+     * since instrumentation was turned on
+     *
+     * @return double the average depth, 0 if nothing was searched
+     */
+    public double averageSearchDepth() {
+        return searches == 0 ? 0 : (double) searchdepth / searches;
     }
 
     /**
@@ -396,9 +882,10 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
      * DAFTreeIterator
      */
     public class DAFTreeIterator implements Iterator<K> {
-        DAFNode temp = root;
         Stack<DAFNode<K, D>> stack;
-        int parr = 0;
+        boolean allowDuplicate;
+        K lower, upper; // exclusive bounds, null when not bounded
+        int parr = 0; // copies of multi that are left to return
         K multi;
 
         /**
@@ -407,17 +894,85 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
          *
          */
         public DAFTreeIterator() {
+            this(true);
+        }
+
+        /**
+         * A constructor that initializes a DAFTree iterator that iterates
+         * through the keys in the tree in accending order.
+         *
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        public DAFTreeIterator(boolean allowDuplicate) {
+            this(null, null, allowDuplicate);
+        }
+
+        /**
+         * A constructor that initializes a DAFTree iterator that iterates
+         * through the keys between lower (exclusive) and upper (exclusive)
+         * in accending order. it seeks to lower and stops at upper so
+         * only the nodes on that path and inside the range are visited.
+         *
+         * @param lower the lower bound, null for no bound
+         * @param upper the upper bound, null for no bound
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        public DAFTreeIterator(K lower, K upper, boolean allowDuplicate) {
+            this(root, lower, upper, allowDuplicate);
+        }
+
+        /**
+         * iterator over the subtree below start only, used by the spliterator
+         *
+         * @param start the root of the subtree
+         * @param lower the lower bound, null for no bound
+         * @param upper the upper bound, null for no bound
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        DAFTreeIterator(DAFNode<K, D> start, K lower, K upper, boolean allowDuplicate) {
             this.stack = new Stack<>();
-            if (temp == null) {
-                return;
+            this.allowDuplicate = allowDuplicate;
+            this.lower = lower;
+            this.upper = upper;
+            pushleft(start);
+            skip();
+        }
+
+        /**
+         * pushes the node and the left spine below it,
+         * nodes that are not above lower are stepped over to the right
+         *
+         * @param node the node to start from
+         */
+        private void pushleft(DAFNode<K, D> node) {
+            while (node != null) {
+                if (lower != null && node.key.compareTo(lower) <= 0) {
+                    node = node.right;
+                } else {
+                    this.stack.push(node);
+                    node = node.left;
+                }
             }
+        }
 
-            this.stack.push(temp);
-            while (temp.left != null) {
-                temp = temp.left;
-                this.stack.push(temp);
+        /**
+         * empties the stack once the next node reaches upper and when
+         * duplicates are not allowed pops nodes until the top of the
+         * stack has a count of 1, the count is read from the node itself
+         */
+        private void skip() {
+            while (!stack.isEmpty()) {
+                if (upper != null && stack.peek().key.compareTo(upper) >= 0) {
+                    // every node left is past the range
+                    this.stack.clear();
+                } else if (!allowDuplicate && stack.peek().count != 1) {
+                    pushleft(stack.pop().right);
+                } else {
+                    return;
+                }
             }
         }
+
         /**
          * A method that checks if the iterator has more elements to return.
          * This method returns true if there are more elements, and false otherwise.
@@ -431,36 +986,178 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
          * returns the next element in stack
          *
          * @return the next key on the stack
+         * @throws NoSuchElementException when there is no element left
          */
         public K next() {
-
             if (parr > 0) {
                 this.parr--;
-              //  //this.temp = stack.peek();
                 return multi;
             }
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
 
-            this.temp = this.stack.pop();
+            DAFNode<K, D> temp = this.stack.pop();
             if (temp.count > 1) {
                 this.parr = temp.count - 1;
-                this.multi = (K) temp.key;
+                this.multi = temp.key;
             }
-            if (temp == null) {
-                throw new NoSuchElementException();
+            pushleft(temp.right);
+            skip();
+            return temp.key;
+        }
+    }
+    /**
+     * DAFTreeSpliterator
+     * covers an optional head node followed by a whole subtree. splitting
+     * hands the head and the left subtree of the subtree root to the new
+     * spliterator and keeps the subtree root as the new head, so every
+     * split is O(1) and the sizes come from the subtree counts.
+     */
+    public class DAFTreeSpliterator implements Spliterator<K> {
+        DAFNode<K, D> head; // emitted before the subtree, always inside the range
+        DAFNode<K, D> subtree;
+        boolean allowDuplicate;
+        K lower, upper; // exclusive bounds, null when not bounded
+        int headleft = -1; // copies of head left to return, -1 before the traversal starts
+        DAFTreeIterator treeit;
+
+        /**
+         * A constructor that initializes a spliterator over the keys between
+         * lower (exclusive) and upper (exclusive) in accending order.
+         *
+         * @param lower the lower bound, null for no bound
+         * @param upper the upper bound, null for no bound
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        public DAFTreeSpliterator(K lower, K upper, boolean allowDuplicate) {
+            this(null, root, lower, upper, allowDuplicate);
+        }
+
+        private DAFTreeSpliterator(DAFNode<K, D> head, DAFNode<K, D> subtree,
+                                   K lower, K upper, boolean allowDuplicate) {
+            this.head = head;
+            this.subtree = subtree;
+            this.lower = lower;
+            this.upper = upper;
+            this.allowDuplicate = allowDuplicate;
+        }
+
+        /**
+         * returns the next key to the action
+         *
+         * @param action what to do with the key
+         * @return true if there was a key left
+         */
+        public boolean tryAdvance(Consumer<? super K> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (headleft == -1) {
+                // the traversal starts, splitting is not possible anymore
+                this.headleft = copies(head);
+                this.treeit = new DAFTreeIterator(subtree, lower, upper, allowDuplicate);
+            }
+            if (headleft > 0) {
+                this.headleft--;
+                action.accept(head.key);
+                return true;
+            }
+            if (treeit.hasNext()) {
+                action.accept(treeit.next());
+                return true;
             }
+            return false;
+        }
 
-            K key = (K) temp.key;
-            if (!(temp.right == null)) {
-                this.stack.push(temp.right);
-                temp = temp.right;
-                while (!(temp.left == null)) {
-                    temp = temp.left;
-                    this.stack.push(temp);
+        /**
+         * splits off the keys before the subtree root
+         *
+         * @return the spliterator with the smaller keys, null if it can not split
+         */
+        public Spliterator<K> trySplit() {
+            if (headleft != -1) {
+                return null;
+            }
+            // the subtree roots that are out of range are stepped over
+            while (subtree != null) {
+                if (lower != null && subtree.key.compareTo(lower) <= 0) {
+                    this.subtree = subtree.right;
+                } else if (upper != null && subtree.key.compareTo(upper) >= 0) {
+                    this.subtree = subtree.left;
+                } else {
+                    break;
                 }
             }
-            return key;
+            if (subtree == null || (head == null && subtree.left == null)) {
+                return null;
+            }
+            DAFTreeSpliterator prefix = new DAFTreeSpliterator(head, subtree.left,
+                    lower, upper, allowDuplicate);
+            this.head = subtree;
+            this.subtree = subtree.right;
+            return prefix;
+        }
+
+        /**
+         * returns the number of keys left, exact when there are no bounds
+         *
+         * @return long the number of keys
+         */
+        public long estimateSize() {
+            if (headleft != -1) {
+                // the stack of the traversal does not keep the counts
+                return Long.MAX_VALUE;
+            }
+            return copies(head) + (allowDuplicate ? total(subtree) : unique(subtree));
+        }
+
+        public int characteristics() {
+            int result = ORDERED | SORTED | NONNULL;
+            if (!allowDuplicate) {
+                result |= DISTINCT;
+            }
+            if (lower == null && upper == null && headleft == -1) {
+                result |= SIZED | SUBSIZED;
+            }
+            return result;
+        }
+
+        /**
+         * the keys are in their natural order
+         *
+         * @return null
+         */
+        public Comparator<? super K> getComparator() {
+            return null;
+        }
+
+        /**
+         * helper method that returns how many times the node is returned
+         *
+         * @param node the node, can be null
+         * @return int the number of copies
+         */
+        private int copies(DAFNode<K, D> node) {
+            if (node == null) {
+                return 0;
+            }
+            return allowDuplicate ? node.count : (node.count == 1 ? 1 : 0);
         }
     }
+
+    /**
+     * A method that returns a new DAFTree spliterator instance over
+     * the keys between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     */
+    public Spliterator<K> spliterator(K lower, K upper, boolean allowDuplicate) {
+        return new DAFTreeSpliterator(lower, upper, allowDuplicate);
+    }
+
     /**
      * A method that returns a new DAFTree iterator instance.
      *
@@ -469,4 +1166,25 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         return new DAFTreeIterator();
     }
 
+    /**
+     * A method that returns a new DAFTree iterator instance.
+     *
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     */
+    public Iterator<K> iterator(boolean allowDuplicate) {
+        return new DAFTreeIterator(allowDuplicate);
+    }
+
+    /**
+     * A method that returns a new DAFTree iterator instance over
+     * the keys between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     */
+    public Iterator<K> iterator(K lower, K upper, boolean allowDuplicate) {
+        return new DAFTreeIterator(lower, upper, allowDuplicate);
+    }
+
 }
@@ -1,11 +1,32 @@
 import java.util.*;
+import java.util.function.ToLongBiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @SuppressWarnings("rawtypes")
 public class FADAF<K extends Comparable<? super K>, D> {
 
+    private static final int minimumcapacity = 10;
+    private static final int entryoverhead = 80; // bytes of a DAFNode and its hashtable slots
+
     private HashTable<K, DAFTree.DAFNode> htable;
     private DAFTree<K, D> dtree;
+    private DAFIndex<K, D> backend; // used in place of htable and dtree, null by default
+
+    // latencies of insert, lookup and remove, null while metrics are off
+    private FADAFMetrics.Histogram insertlatency;
+    private FADAFMetrics.Histogram lookuplatency;
+    private FADAFMetrics.Histogram removelatency;
 
+    // the budget of the bounded mode, the keys with the lowest count are
+    // evicted when it is exceeded. 0 and null mean no limit
+    private int maxkeys;
+    private long maxbytes;
+    private ToLongBiFunction<? super K, ? super D> weigher;
+    private long bytes; // estimated bytes of the stored keys, kept while weigher is set
+    private int distinct; // keys stored in a backend, kept while there is a limit
+    private long evictedkeys;
+    private long evictedcopies;
 
     /**
      * A constructor that initializes a FADAF structure
@@ -19,12 +40,297 @@ public class FADAF<K extends Comparable<? super K>, D> {
         this.dtree = new DAFTree<>();
     }
 
+    /**
+     * A constructor that loads a FADAF structure in one pass. keys that are
+     * already sorted are used as they are, otherwise they are sorted first
+     * and the counts of equal keys are added up (the first data is kept).
+     * the tree is built bottom up and the hashtable is sized up front, so
+     * nothing is rebalanced or rehashed while loading
+     *
+     * @param keys the keys to load
+     * @param data the data of each key
+     * @param counts the count of each key
+     * @throws NullPointerException a key or data is null
+     * @throws IllegalArgumentException the sizes differ or a count is less than 1
+     */
+    @SuppressWarnings("unchecked")
+    public FADAF(List<K> keys, List<D> data, int[] counts) {
+        Batch<K, D> batch = collapse(keys, data, counts);
+        this.htable = new HashTable<>(minimumcapacity);
+        this.htable.ensureCapacity(batch.keys.size());
+        this.dtree = new DAFTree<>();
+        for (DAFTree.DAFNode node : dtree.build(batch.keys, batch.data, batch.counts)) {
+            htable.insert((K) node.key, node);
+        }
+    }
+
+    /**
+     * keys in strictly accending order with their data and counts
+     */
+    private static class Batch<K, D> {
+        List<K> keys;
+        List<D> data; // null when the batch has no data
+        int[] counts;
+
+        Batch(List<K> keys, List<D> data, int[] counts) {
+            this.keys = keys;
+            this.data = data;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * helper method that checks the input and sorts it by key when it is
+     * not strictly accending yet. the counts of equal keys are added up
+     * and the first data is kept
+     *
+     * @param keys the keys
+     * @param data the data of each key, null if there is none
+     * @param counts the count of each key
+     * @return the sorted batch
+     * @throws NullPointerException a key or data is null
+     * @throws IllegalArgumentException the sizes differ or a count is less than 1
+     */
+    private static <K extends Comparable<? super K>, D> Batch<K, D> collapse(
+            List<K> keys, List<D> data, int[] counts) {
+        if ((data != null && keys.size() != data.size()) || keys.size() != counts.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int count : counts) {
+            if (count < 1) {
+                throw new IllegalArgumentException();
+            }
+        }
+        if (data != null && data.contains(null)) {
+            throw new NullPointerException();
+        }
+        if (strictlysorted(keys)) {
+            // copies into array lists so the keys can be read by position
+            return new Batch<>(new ArrayList<>(keys), data == null ? null : new ArrayList<>(data),
+                    counts);
+        }
+        // sorts the positions by key, equal keys keep their input order
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        ArrayList<K> keylist = new ArrayList<>(keys);
+        ArrayList<D> datalist = data == null ? null : new ArrayList<>(data);
+        Arrays.sort(order, (a, b) -> keylist.get(a).compareTo(keylist.get(b)));
+        ArrayList<K> sortedkeys = new ArrayList<>(order.length);
+        ArrayList<D> sorteddata = data == null ? null : new ArrayList<>(order.length);
+        int[] sortedcounts = new int[order.length];
+        int n = 0;
+        for (int i : order) {
+            if (n > 0 && sortedkeys.get(n - 1).compareTo(keylist.get(i)) == 0) {
+                sortedcounts[n - 1] += counts[i];
+            } else {
+                sortedkeys.add(keylist.get(i));
+                if (sorteddata != null) {
+                    sorteddata.add(datalist.get(i));
+                }
+                sortedcounts[n++] = counts[i];
+            }
+        }
+        return new Batch<>(sortedkeys, sorteddata, Arrays.copyOf(sortedcounts, n));
+    }
+
+    /**
+     * checks if every key is smaller than the next one
+     *
+     * @param keys the keys to check
+     * @return true if the keys are strictly accending
+     * @throws NullPointerException a key is null
+     */
+    private static <K extends Comparable<? super K>> boolean strictlysorted(List<K> keys) {
+        K prev = null;
+        for (K key : keys) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            if (prev != null && prev.compareTo(key) >= 0) {
+                return false;
+            }
+            prev = key;
+        }
+        return true;
+    }
+
+    /**
+     * what a batch did to the keys
+     */
+    public static class BatchReport {
+        public final int newKeys; // keys that were not stored before
+        public final int existingKeys; // keys that were already stored
+        public final int missingKeys; // keys to remove that were not stored
+        public final int droppedKeys; // keys that lost their last copy
+
+        public BatchReport(int newKeys, int existingKeys, int missingKeys, int droppedKeys) {
+            this.newKeys = newKeys;
+            this.existingKeys = existingKeys;
+            this.missingKeys = missingKeys;
+            this.droppedKeys = droppedKeys;
+        }
+
+        @Override
+        public String toString() {
+            return "new=" + newKeys + " existing=" + existingKeys
+                    + " missing=" + missingKeys + " dropped=" + droppedKeys;
+        }
+    }
+
+    /**
+     * inserts a batch of keys. equal keys in the batch are added up first,
+     * the batch is sorted and merged into the tree in one pass and the
+     * hashtable checks its size once for the whole batch
+     *
+     * @param keys the keys to insert
+     * @param data the data of each key, only kept for new keys
+     * @param nCopy the amount of times to count each key
+     * @return the report with the number of new and existing keys
+     * @throws NullPointerException a key or data is null
+     * @throws IllegalArgumentException the sizes differ or a count is less than 1
+     */
+    @SuppressWarnings("unchecked")
+    public BatchReport insertBatch(List<K> keys, List<D> data, int[] nCopy) {
+        Batch<K, D> batch = collapse(keys, data, nCopy);
+        int newkeys = 0;
+        if (backend != null) {
+            for (int i = 0; i < batch.keys.size(); i++) {
+                if (backendinsert(batch.keys.get(i), batch.data.get(i), batch.counts[i])) {
+                    newkeys++;
+                }
+            }
+            return new BatchReport(newkeys, batch.keys.size() - newkeys, 0, 0);
+        }
+        for (K key : batch.keys) {
+            if (htable.lookup(key) == null) {
+                newkeys++;
+            }
+        }
+        htable.ensureCapacity(htable.size() + newkeys);
+        for (DAFTree.DAFNode node : dtree.merge(batch.keys, batch.data, batch.counts)) {
+            // only the new nodes are returned, the hashtable keeps the old ones
+            htable.insert((K) node.key, node);
+            account(node, 1);
+        }
+        evict();
+        return new BatchReport(newkeys, batch.keys.size() - newkeys, 0, 0);
+    }
+
+    /**
+     * removes a batch of keys. equal keys in the batch are added up first,
+     * the batch is sorted and taken out of the tree in one pass
+     *
+     * @param keys the keys to remove
+     * @param nCopy the amount of times to remove each key
+     * @return the report with the number of found, missing and dropped keys
+     * @throws NullPointerException a key is null
+     * @throws IllegalArgumentException the sizes differ or a count is less than 1
+     */
+    public BatchReport removeBatch(List<K> keys, int[] nCopy) {
+        Batch<K, D> batch = collapse(keys, null, nCopy);
+        int missing = 0;
+        int dropped = 0;
+        for (int i = 0; i < batch.keys.size(); i++) {
+            K key = batch.keys.get(i);
+            int count = lookupkey(key); // not recorded as a lookup
+            if (count == 0) {
+                missing++;
+            } else if (count <= batch.counts[i]) {
+                dropped++;
+                if (backend == null) {
+                    account(htable.lookup(key), -1);
+                    htable.delete(key);
+                }
+            }
+            if (backend != null) {
+                backendremove(key, batch.counts[i]);
+            }
+        }
+        if (backend == null) {
+            dtree.subtract(batch.keys, batch.counts);
+        }
+        return new BatchReport(0, batch.keys.size() - missing, missing, dropped);
+    }
+
+    /**
+     * adds every key of other to this FADAF, the counts of keys that both
+     * hold are added up and this keeps its data for them. the keys of other
+     * are read in order, merged with the tree in one pass and the hashtable
+     * checks its size once, so it takes linear time instead of one insert per key.
+     * other is not changed
+     *
+     * @param other the FADAF to merge into this one
+     * @return the report with the number of new and existing keys
+     * @throws NullPointerException other is null
+     */
+    @SuppressWarnings("unchecked")
+    public BatchReport merge(FADAF<K, ? extends D> other) {
+        if (other == null) {
+            throw new NullPointerException();
+        }
+        ArrayList<K> keys = new ArrayList<>();
+        ArrayList<D> data = new ArrayList<>();
+        int[][] counts = {new int[minimumcapacity]};
+        other.forEachEntry((key, value, count) -> {
+            if (keys.size() == counts[0].length) {
+                counts[0] = Arrays.copyOf(counts[0], counts[0].length * 2);
+            }
+            counts[0][keys.size()] = count;
+            keys.add(key);
+            data.add(value);
+        });
+        int[] nCopy = Arrays.copyOf(counts[0], keys.size());
+        int newkeys = 0;
+        if (backend != null) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (backendinsert(keys.get(i), data.get(i), nCopy[i])) {
+                    newkeys++;
+                }
+            }
+            return new BatchReport(newkeys, keys.size() - newkeys, 0, 0);
+        }
+        for (K key : keys) {
+            if (htable.lookup(key) == null) {
+                newkeys++;
+            }
+        }
+        htable.ensureCapacity(htable.size() + newkeys);
+        for (DAFTree.DAFNode node : dtree.merge(keys, data, nCopy)) {
+            htable.insert((K) node.key, node);
+            account(node, 1);
+        }
+        evict();
+        return new BatchReport(newkeys, keys.size() - newkeys, 0, 0);
+    }
+
+    /**
+     * A constructor that initializes a FADAF structure on top of
+     * another ordered index, like a DAFSkipList for concurrent use.
+     * rank, select, percentile and countInRange use the subtree counts of
+     * the backend and the bounded mode its least frequent key, so they work
+     * on a DAFBTree but not on a DAFSkipList.
+     *
+     * @param backend the index that stores the keys
+     * @throws NullPointerException backend is null
+     */
+    public FADAF(DAFIndex<K, D> backend) {
+        if (backend == null) {
+            throw new NullPointerException();
+        }
+        this.backend = backend;
+    }
+
     /**
      *  returns the total number of unique keys stored in the FADAF
      *
      * @return int total number of unique keys
      */
     public int size() {
+        if (backend != null) {
+            return backend.size();
+        }
         return dtree.size();
     }
 
@@ -34,6 +340,9 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return int dtree.nUniqueKeys()
      */
     public int nUniqueKeys() {
+        if (backend != null) {
+            return backend.nUniqueKeys();
+        }
         return dtree.nUniqueKeys();
     }
 
@@ -54,7 +363,28 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if (nCopy < 1) {
             throw new IllegalArgumentException();
         }
-        return htable.insert(key, dtree.insert(key, data, nCopy));
+        if (insertlatency == null) {
+            return insertkey(key, data, nCopy);
+        }
+        long start = System.nanoTime();
+        boolean result = insertkey(key, data, nCopy);
+        insertlatency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    private boolean insertkey(K key, D data, int nCopy) {
+        if (backend != null) {
+            return backendinsert(key, data, nCopy);
+        }
+        DAFTree.DAFNode node = dtree.insert(key, data, nCopy);
+        if (!htable.insert(key, node)) {
+            return false;
+        }
+        if (maxkeys > 0 || weigher != null) {
+            account(node, 1);
+            evict();
+        }
+        return true;
     }
 
     /**
@@ -69,6 +399,19 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if (key == null) {
             throw new NullPointerException();
         }
+        if (lookuplatency == null) {
+            return lookupkey(key);
+        }
+        long start = System.nanoTime();
+        int result = lookupkey(key);
+        lookuplatency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    private int lookupkey(K key) {
+        if (backend != null) {
+            return backend.lookup(key);
+        }
         try{
             return htable.lookup(key).count;
         } catch (NullPointerException e) {
@@ -91,6 +434,19 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if (nCopy < 1) {
             throw new IllegalArgumentException();
         }
+        if (removelatency == null) {
+            return removekey(key, nCopy);
+        }
+        long start = System.nanoTime();
+        boolean result = removekey(key, nCopy);
+        removelatency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    private boolean removekey(K key, int nCopy) {
+        if (backend != null) {
+            return backendremove(key, nCopy);
+        }
         if (dtree.remove(key, nCopy) == null) {
             // removes the key ncopy times
             return false;
@@ -100,12 +456,257 @@ public class FADAF<K extends Comparable<? super K>, D> {
         // its connected to the hashtable.
 
         //htable.lookup(key).count -= nCopy;
-        if (htable.lookup(key).count <= 0) {
+        DAFTree.DAFNode node = htable.lookup(key);
+        if (node.count <= 0) {
+            account(node, -1);
             return htable.delete(key);
         }
         return true;//(htable.delete(key) && dtree.remove(key, nCopy).key.equals(key));
     }
 
+    /**
+     * starts recording latencies, rehashes and search depths, from zero.
+     * while metrics are off none of this is counted
+     */
+    public void enableMetrics() {
+        this.insertlatency = new FADAFMetrics.Histogram();
+        this.lookuplatency = new FADAFMetrics.Histogram();
+        this.removelatency = new FADAFMetrics.Histogram();
+        if (backend == null) {
+            htable.setInstrumented(true);
+            dtree.setInstrumented(true);
+        }
+    }
+
+    /**
+     * stops recording, the counts collected so far are dropped
+     */
+    public void disableMetrics() {
+        this.insertlatency = null;
+        this.lookuplatency = null;
+        this.removelatency = null;
+        if (backend == null) {
+            htable.setInstrumented(false);
+            dtree.setInstrumented(false);
+        }
+    }
+
+    /**
+     * returns the metrics of the FADAF. the hashtable and tree shape are read
+     * now, which walks the hashtable once, the counts are the ones recorded
+     * since enableMetrics and are empty while metrics are off
+     *
+     * @return FADAFMetrics the metrics
+     */
+    public FADAFMetrics metrics() {
+        FADAFMetrics.Histogram empty = new FADAFMetrics.Histogram();
+        FADAFMetrics.Histogram inserts = insertlatency == null ? empty : insertlatency.copy();
+        FADAFMetrics.Histogram lookups = lookuplatency == null ? empty : lookuplatency.copy();
+        FADAFMetrics.Histogram removes = removelatency == null ? empty : removelatency.copy();
+        if (backend != null) {
+            // the backend has no hashtable or tree to look at
+            int[] distinct = {0};
+            forEachEntry((key, data, count) -> distinct[0]++);
+            return new FADAFMetrics(size(), distinct[0], nUniqueKeys(), -1, -1, new int[1],
+                    -1, -1, -1, -1, inserts, lookups, removes);
+        }
+        return new FADAFMetrics(size(), htable.size(), nUniqueKeys(), htable.loadFactor(),
+                htable.capacity(), htable.probeLengths(), htable.rehashCount(),
+                htable.rehashNanos(), dtree.height(), dtree.averageSearchDepth(),
+                inserts, lookups, removes);
+    }
+
+    /**
+     * limits the number of stored keys (duplicates count once). when an
+     * insert goes over the limit the keys with the lowest count are evicted,
+     * of those the one that reached its count first. a backend has to find
+     * its least frequent key, DAFBTree evicts the smallest key of the lowest count
+     *
+     * @param maxKeys the most keys to keep, 0 for no limit
+     * @throws IllegalArgumentException maxKeys is negative
+     * @throws UnsupportedOperationException the backend keeps no count order
+     */
+    public void setMaxKeys(int maxKeys) {
+        if (maxKeys < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (backend != null && maxKeys > 0) {
+            backend.leastFrequent(); // throws when the backend can not evict
+        }
+        this.maxkeys = maxKeys;
+        if (backend != null) {
+            // the backend does not count its keys without duplicates
+            int[] keys = {0};
+            entries(null, null, (key, data, count) -> keys[0]++);
+            this.distinct = keys[0];
+        }
+        evict();
+    }
+
+    /**
+     * limits the estimated memory of the stored keys. each key is weighed
+     * once with its data, plus a fixed amount for its node and hashtable
+     * slots. when the total goes over the limit the keys with the lowest
+     * count are evicted like with setMaxKeys
+     *
+     * @param maxBytes the most bytes to keep
+     * @param weigher returns the bytes of a key and its data
+     * @throws IllegalArgumentException maxBytes is less than 1
+     * @throws NullPointerException weigher is null
+     * @throws UnsupportedOperationException the backend keeps no count order
+     */
+    public void setMaxBytes(long maxBytes, ToLongBiFunction<? super K, ? super D> weigher) {
+        if (weigher == null) {
+            throw new NullPointerException();
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (backend != null) {
+            backend.leastFrequent(); // throws when the backend can not evict
+        }
+        this.maxbytes = maxBytes;
+        this.weigher = weigher;
+        this.bytes = 0;
+        if (backend == null) {
+            dtree.forEachNode(node -> account(node, 1));
+        } else {
+            this.distinct = 0;
+            entries(null, null, (key, data, count) -> {
+                this.distinct++;
+                account(key, data, 1);
+            });
+        }
+        evict();
+    }
+
+    /**
+     * how many keys the bounded mode evicted
+     */
+    public static class EvictionStats {
+        public final long evictedKeys; // keys that were evicted
+        public final long evictedCopies; // copies those keys had together
+        public final int keys; // keys stored now
+        public final long bytes; // estimated bytes stored now, -1 without a byte limit
+
+        public EvictionStats(long evictedKeys, long evictedCopies, int keys, long bytes) {
+            this.evictedKeys = evictedKeys;
+            this.evictedCopies = evictedCopies;
+            this.keys = keys;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "evicted=" + evictedKeys + " copies=" + evictedCopies
+                    + " keys=" + keys + " bytes=" + bytes;
+        }
+    }
+
+    /**
+     * returns what the bounded mode evicted so far
+     *
+     * @return EvictionStats the counts
+     */
+    public EvictionStats evictionStats() {
+        int keys = backend == null ? htable.size() : maxkeys > 0 || weigher != null ? distinct : -1;
+        return new EvictionStats(evictedkeys, evictedcopies, keys, weigher == null ? -1 : bytes);
+    }
+
+    /**
+     * adds or takes away the weight of a node when a byte limit is set
+     *
+     * @param node the node that is stored or dropped
+     * @param sign 1 when it is stored, -1 when it is dropped
+     */
+    @SuppressWarnings("unchecked")
+    private void account(DAFTree.DAFNode node, int sign) {
+        account((K) node.key, (D) node.data, sign);
+    }
+
+    private void account(K key, D data, int sign) {
+        if (weigher != null) {
+            this.bytes += sign * (weigher.applyAsLong(key, data) + entryoverhead);
+        }
+    }
+
+    /**
+     * evicts the least frequent keys until the budget holds again.
+     * each eviction is O(log n) through the count index of the tree
+     */
+    @SuppressWarnings("unchecked")
+    private void evict() {
+        if (backend != null) {
+            evictbackend();
+            return;
+        }
+        while ((maxkeys > 0 && htable.size() > maxkeys) || (weigher != null && bytes > maxbytes)) {
+            DAFTree.DAFNode node = dtree.leastFrequent();
+            if (node == null) {
+                return;
+            }
+            this.evictedkeys++;
+            this.evictedcopies += node.count;
+            account(node, -1);
+            htable.delete((K) node.key);
+            dtree.removenode((K) node.key);
+        }
+    }
+
+    /**
+     * evict for a backend, the backend finds its least frequent key
+     * in O(log n) like the count index of the tree
+     */
+    private void evictbackend() {
+        while ((maxkeys > 0 && distinct > maxkeys) || (weigher != null && bytes > maxbytes)) {
+            K key = backend.leastFrequent();
+            if (key == null) {
+                return;
+            }
+            this.evictedkeys++;
+            this.evictedcopies += backend.lookup(key);
+            backendremove(key, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * inserts into the backend and keeps the budget of the bounded mode
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     */
+    private boolean backendinsert(K key, D data, int nCopy) {
+        if (!backend.insert(key, data, nCopy)) {
+            return false;
+        }
+        if (maxkeys > 0 || weigher != null) {
+            this.distinct++;
+            account(key, data, 1);
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * removes from the backend and keeps the budget of the bounded mode
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove, Integer.MAX_VALUE for every copy
+     * @return true if the key was found
+     */
+    private boolean backendremove(K key, int nCopy) {
+        if (maxkeys > 0 || weigher != null) {
+            int count = backend.lookup(key);
+            if (count > 0 && count <= nCopy) {
+                this.distinct--;
+                account(key, backend.getData(key), -1);
+            }
+        }
+        return nCopy == Integer.MAX_VALUE ? backend.removeAll(key) : backend.remove(key, nCopy);
+    }
+
     /**
      * rovmoves the given key from both the tree and hashtable
      *
@@ -116,10 +717,111 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if (key == null) {
             throw new NullPointerException();
         }
+        if (backend != null) {
+            return backendremove(key, Integer.MAX_VALUE);
+        }
+        DAFTree.DAFNode node = htable.lookup(key);
+        if (node != null) {
+            account(node, -1);
+        }
         return (htable.delete(key) && dtree.removenode(key));
 
     }
 
+    /**
+     * returns the data associated with the key
+     *
+     * @param key to look for
+     * @return D the data
+     * @return null if key is not present
+     * @throws NullPointerException key is null
+     */
+    @SuppressWarnings("unchecked")
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (backend != null) {
+            return backend.getData(key);
+        }
+        DAFTree.DAFNode node = htable.lookup(key);
+        return node == null ? null : (D) node.data;
+    }
+
+    /**
+     * is called for every stored key in accending order
+     */
+    public interface EntryVisitor<K, D> {
+        /**
+         * visits one key
+         *
+         * @param key the key
+         * @param data the data of the key
+         * @param count the count of the key
+         */
+        void visit(K key, D data, int count);
+    }
+
+    /**
+     * calls the visitor once for every stored key in accending order
+     *
+     * @param visitor what to do with each key, its data and its count
+     * @throws NullPointerException visitor is null
+     */
+    public void forEachEntry(EntryVisitor<? super K, ? super D> visitor) {
+        if (visitor == null) {
+            throw new NullPointerException();
+        }
+        entries(null, null, visitor);
+    }
+
+    /**
+     * calls the visitor once for every stored key between lower (exclusive)
+     * and upper (exclusive) in accending order
+     *
+     * @param lower the lower parameter for keys to be visited
+     * @param upper the upper parameter for keys to be visited
+     * @param visitor what to do with each key, its data and its count
+     * @throws NullPointerException lower, upper or visitor is null
+     */
+    public void forEachEntryInRange(K lower, K upper, EntryVisitor<? super K, ? super D> visitor) {
+        if (lower == null || upper == null || visitor == null) {
+            throw new NullPointerException();
+        }
+        entries(lower, upper, visitor);
+    }
+
+    /**
+     * helper method of forEachEntry and forEachEntryInRange
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param visitor what to do with each key, its data and its count
+     */
+    private void entries(K lower, K upper, EntryVisitor<? super K, ? super D> visitor) {
+        if (backend == null) {
+            dtree.forEachNode(lower, upper, node -> visitor.visit(node.key, node.data, node.count));
+            return;
+        }
+        // the backend repeats every key once per copy, each run is one key
+        Iterator<K> it = backend.iterator(lower, upper, true);
+        K key = it.hasNext() ? it.next() : null;
+        while (key != null) {
+            int count = 1;
+            K next = null;
+            while (it.hasNext()) {
+                next = it.next();
+                if (next.compareTo(key) != 0) {
+                    break;
+                }
+                count++;
+                next = null;
+            }
+            visitor.visit(key, backend.getData(key), count);
+            key = next;
+        }
+    }
+
     /**
      * A method that updates the data associated with the key to newData.
      *
@@ -130,6 +832,28 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if (key == null || newData == null) {
             throw new NullPointerException();
         }
+        if (backend != null) {
+            D old = weigher == null ? null : backend.getData(key);
+            if (!backend.update(key, newData)) {
+                return false;
+            }
+            if (old != null) {
+                // the weight of the key changes with its data
+                account(key, old, -1);
+                account(key, newData, 1);
+                evict();
+            }
+            return true;
+        }
+        DAFTree.DAFNode node = weigher == null ? null : htable.lookup(key);
+        if (node != null) {
+            // the weight of the key changes with its data
+            account(node, -1);
+            htable.update(key, dtree.updateData(key, newData));
+            account(node, 1);
+            evict();
+            return true;
+        }
         try{
             return htable.update(key, dtree.updateData(key, newData));
         } catch (NullPointerException e ) {
@@ -146,16 +870,10 @@ public class FADAF<K extends Comparable<? super K>, D> {
     public List<K> getAllKeys(boolean allowDuplicate) {
         // loops thrugh the itterator to get all the keys.
         LinkedList<K> result = new LinkedList<>();
-        Iterator<K> treeit = dtree.iterator();
+        // the iterator reads the counts from the tree nodes
+        Iterator<K> treeit = keyiterator(null, null, allowDuplicate);
         while (treeit.hasNext()){
-            K temp = treeit.next();
-            if (!allowDuplicate) {
-                if (lookup(temp) == 1) {
-                    result.add(temp);
-                }
-            } else {
-                result.add(temp);
-            }
+            result.add(treeit.next());
         }
         return result;
     }
@@ -167,24 +885,254 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @param lower the lower parameter for keys to be returned
      * @param upper the upper parameter for keys to be returned
      * @return a linkedlist of all the keys
+     * @throws NullPointerException lower or upper is null
      */
     public List<K> getUniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
         LinkedList<K> result = new LinkedList<>();
-        Iterator<K> treeit = dtree.iterator();
+        // the iterator only visits the part of the tree inside the range
+        Iterator<K> treeit = keyiterator(lower, upper, false);
         while (treeit.hasNext()){
-            K temp = treeit.next();
-            if (lookup(temp) == 1 && temp.compareTo(lower) > 0 && temp.compareTo(upper) < 0) {
-                result.add(temp);
+            result.add(treeit.next());
+        }
+        return result;
+    }
+
+    /**
+     * helper method that returns the iterator of the tree or of the backend
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if Duplicates are allowed
+     * @return the iterator
+     */
+    private Iterator<K> keyiterator(K lower, K upper, boolean allowDuplicate) {
+        if (backend != null) {
+            return backend.iterator(lower, upper, allowDuplicate);
+        }
+        return dtree.iterator(lower, upper, allowDuplicate);
+    }
+
+    /**
+     * helper method that returns the splittable spliterator of the tree,
+     * or a plain one over the iterator of the backend
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if Duplicates are allowed
+     * @return the spliterator
+     */
+    private Spliterator<K> keyspliterator(K lower, K upper, boolean allowDuplicate) {
+        if (backend != null) {
+            return Spliterators.spliteratorUnknownSize(backend.iterator(lower, upper, allowDuplicate),
+                    Spliterator.ORDERED | Spliterator.SORTED | Spliterator.NONNULL);
+        }
+        return dtree.spliterator(lower, upper, allowDuplicate);
+    }
+
+    /**
+     * returns a view of the keys in accending order that is read lazily
+     * from the tree, nothing is copied
+     *
+     * @param allowDuplicate if Duplicates are allowed
+     * @return an iterable over the keys
+     */
+    public Iterable<K> allKeys(boolean allowDuplicate) {
+        return () -> keyiterator(null, null, allowDuplicate);
+    }
+
+    /**
+     * returns a stream of the keys in accending order that is read lazily
+     * from the tree. call parallel() on it to split the work on subtrees
+     *
+     * @param allowDuplicate if Duplicates are allowed
+     * @return a stream of the keys
+     */
+    public Stream<K> allKeysStream(boolean allowDuplicate) {
+        return StreamSupport.stream(keyspliterator(null, null, allowDuplicate), false);
+    }
+
+    /**
+     * returns a view of all unique keys between lower (exclusive) and
+     * upper (exclusive) that is read lazily from the tree
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return an iterable over the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public Iterable<K> uniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        return () -> keyiterator(lower, upper, false);
+    }
+
+    /**
+     * returns a view of all keys, with duplicates, between lower (exclusive)
+     * and upper (exclusive) in accending order that is read lazily from the tree
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return an iterable over the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public Iterable<K> keysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        return () -> keyiterator(lower, upper, true);
+    }
+
+    /**
+     * returns a stream of all unique keys between lower (exclusive) and
+     * upper (exclusive) that is read lazily from the tree
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return a stream of the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public Stream<K> uniqueKeysInRangeStream(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        return StreamSupport.stream(keyspliterator(lower, upper, false), false);
+    }
+
+    /**
+     * returns the number of entries (including duplicates) that are smaller than key
+     *
+     * @param key the key to rank, it does not have to be stored
+     * @return int the number of entries before key
+     * @throws NullPointerException key is null
+     * @throws UnsupportedOperationException the backend keeps no subtree counts
+     */
+    public int rank(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (backend != null) {
+            return backend.rank(key, false);
+        }
+        return dtree.rank(key, false);
+    }
+
+    /**
+     * returns the key at the given position when all entries
+     * (including duplicates) are listed in accending order
+     *
+     * @param index the position starting from 0
+     * @return the key at that position
+     * @throws IllegalArgumentException index is negative or not less than size
+     * @throws UnsupportedOperationException the backend keeps no subtree counts
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IllegalArgumentException();
+        }
+        if (backend != null) {
+            return backend.select(index);
+        }
+        return dtree.select(index).key;
+    }
+
+    /**
+     * returns the key at the given percentile of all entries (including
+     * duplicates), using the nearest rank. percentile(99) is the p99 key
+     *
+     * @param p the percentile between 0 and 100
+     * @return the key at that percentile
+     * @return null if empty
+     * @throws IllegalArgumentException p is not between 0 and 100
+     * @throws UnsupportedOperationException the backend keeps no subtree counts
+     */
+    public K percentile(double p) {
+        if (!(p >= 0 && p <= 100)) {
+            throw new IllegalArgumentException();
+        }
+        if (size() == 0) {
+            return null;
+        }
+        int index = (int) Math.ceil(p / 100 * size()) - 1;
+        return select(Math.max(index, 0));
+    }
+
+    /**
+     * returns the number of entries (including duplicates)
+     * between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower parameter for keys to be counted
+     * @param upper the upper parameter for keys to be counted
+     * @return int the number of entries
+     * @throws NullPointerException lower or upper is null
+     * @throws UnsupportedOperationException the backend keeps no subtree counts
+     */
+    public int countInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        if (lower.compareTo(upper) >= 0) {
+            return 0;
+        }
+        if (backend != null) {
+            return backend.rank(upper, false) - backend.rank(lower, true);
+        }
+        return dtree.rank(upper, false) - dtree.rank(lower, true);
+    }
+
+    /**
+     * returns the k keys with the highest counts, highest first.
+     * the tree keeps an index by count so only the returned keys are
+     * visited, other backends are scanned once with a heap of k keys
+     *
+     * @param k the number of keys
+     * @return the keys, fewer than k if fewer keys are stored
+     * @throws IllegalArgumentException k is negative
+     */
+    public List<K> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        ArrayList<K> result = new ArrayList<>();
+        if (backend == null) {
+            for (DAFTree<K, D>.DAFNode<K, D> node : dtree.topK(k)) {
+                result.add(node.key);
             }
+            return result;
+        }
+        if (k == 0) {
+            return result;
         }
+        // the smallest of the best k so far is on top and is replaced first
+        PriorityQueue<Map.Entry<K, Integer>> heap = new PriorityQueue<>(k,
+                (a, b) -> Integer.compare(a.getValue(), b.getValue()));
+        forEachEntry((key, data, count) -> {
+            if (heap.size() < k) {
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(key, count));
+            } else if (heap.peek().getValue() < count) {
+                heap.poll();
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(key, count));
+            }
+        });
+        while (!heap.isEmpty()) {
+            result.add(heap.poll().getKey());
+        }
+        Collections.reverse(result);
         return result;
     }
+
     /**
      * returns the minimum key
      * @return the minimum key
      * @return null if empty
      */
     public K getMinKey() {
+        if (backend != null) {
+            return backend.findExtreme(false);
+        }
         try {
             //uses DAFtree to get the key
             return dtree.findExtreme(false).key;
@@ -198,6 +1146,9 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return null if empty
      */
     public K getMaxKey() {
+        if (backend != null) {
+            return backend.findExtreme(true);
+        }
         try{
             //uses DAFtree to get the key
             return dtree.findExtreme(true).key;
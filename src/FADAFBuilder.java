@@ -0,0 +1,105 @@
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * builds a FADAF from a large input on several cores. the input is split in
+ * halves until a part has at most partitionSize keys, every part is loaded
+ * with the bulk load constructor on its own thread and the parts are
+ * combined pairwise with FADAF.merge on the way back up. as with the bulk
+ * load constructor the counts of equal keys are added up and the first data is kept.
+ */
+public class FADAFBuilder {
+    private static final int minimumpartition = 1 << 14;
+
+    private FADAFBuilder() {
+    }
+
+    /**
+     * builds a FADAF on the common fork join pool, with one part per thread
+     * of the pool so the keys go through as few merges as possible
+     *
+     * @param keys the keys to load
+     * @param data the data of each key
+     * @param counts the count of each key
+     * @return FADAF with every key of the input
+     * @throws NullPointerException an argument, a key or data is null
+     * @throws IllegalArgumentException the sizes differ or a count is less than 1
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K, D> build(List<K> keys,
+            List<D> data, int[] counts) {
+        if (keys == null) {
+            throw new NullPointerException();
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int parts = pool.getParallelism();
+        int partitionsize = Math.max(minimumpartition, (keys.size() + parts - 1) / parts);
+        return build(keys, data, counts, partitionsize, pool);
+    }
+
+    /**
+     * builds a FADAF on the given pool
+     *
+     * @param keys the keys to load
+     * @param data the data of each key
+     * @param counts the count of each key
+     * @param partitionSize the most keys one thread loads before merging
+     * @param pool the pool that runs the parts
+     * @return FADAF with every key of the input
+     * @throws NullPointerException an argument, a key or data is null
+     * @throws IllegalArgumentException the sizes differ, a count is less than 1
+     * or partitionSize is less than 1
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K, D> build(List<K> keys,
+            List<D> data, int[] counts, int partitionSize, ForkJoinPool pool) {
+        if (keys == null || data == null || counts == null || pool == null) {
+            throw new NullPointerException();
+        }
+        if (partitionSize < 1 || keys.size() != data.size() || keys.size() != counts.length) {
+            throw new IllegalArgumentException();
+        }
+        // the parts are read by position
+        List<K> keylist = keys instanceof RandomAccess ? keys : new ArrayList<>(keys);
+        List<D> datalist = data instanceof RandomAccess ? data : new ArrayList<>(data);
+        return pool.invoke(new Part<>(keylist, datalist, counts, 0, keys.size(), partitionSize));
+    }
+
+    /**
+     * loads the keys from lo (inclusive) to hi (exclusive)
+     */
+    private static class Part<K extends Comparable<? super K>, D> extends RecursiveTask<FADAF<K, D>> {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+
+        private final List<K> keys;
+        private final List<D> data;
+        private final int[] counts;
+        private final int lo;
+        private final int hi;
+        private final int partitionsize;
+
+        Part(List<K> keys, List<D> data, int[] counts, int lo, int hi, int partitionsize) {
+            this.keys = keys;
+            this.data = data;
+            this.counts = counts;
+            this.lo = lo;
+            this.hi = hi;
+            this.partitionsize = partitionsize;
+        }
+
+        @Override
+        protected FADAF<K, D> compute() {
+            if (hi - lo <= partitionsize) {
+                return new FADAF<>(keys.subList(lo, hi), data.subList(lo, hi),
+                        Arrays.copyOfRange(counts, lo, hi));
+            }
+            int mid = (lo + hi) >>> 1;
+            Part<K, D> right = new Part<>(keys, data, counts, mid, hi, partitionsize);
+            right.fork();
+            FADAF<K, D> left = new Part<>(keys, data, counts, lo, mid, partitionsize).compute();
+            // the left part comes first in the input so it keeps its data
+            left.merge(right.join());
+            return left;
+        }
+    }
+}
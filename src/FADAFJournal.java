@@ -0,0 +1,478 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * write-ahead journal for a FADAF. insert, remove, removeAll and update are
+ * appended to the journal file as small binary records before they are applied,
+ * so the FADAF can be rebuilt after a crash from the last snapshot and the journal.
+ *
+ * records are collected in memory and written with one fsync per group (group
+ * commit): a group ends when it holds groupbytes bytes or when it is older than
+ * groupmillis. an operation is only durable once its group is synced, call sync
+ * to wait for it. checkpoint writes a snapshot and empties the journal.
+ *
+ * a record is: payload length, crc32 of the payload, payload. the payload is
+ * sequence, operation, key length, key and then data and/or count depending on
+ * the operation. a record that is cut off or fails its crc ends the journal,
+ * it is dropped on open together with everything after it.
+ *
+ * the journal is synchronized, the FADAF it returns must only be read,
+ * changes that do not go through the journal are lost on recovery.
+ */
+public class FADAFJournal<K extends Comparable<? super K>, D> implements AutoCloseable {
+    private static final int magic = 0x46414a4c; // "FAJL"
+    private static final int version = 1;
+    private static final int headersize = 2 * Integer.BYTES;
+    private static final int recordheader = 2 * Integer.BYTES; // length and crc
+    private static final int defaultcapacity = 16;
+
+    private static final byte opinsert = 1;
+    private static final byte opremove = 2;
+    private static final byte opremoveall = 3;
+    private static final byte opupdate = 4;
+
+    private final FADAF<K, D> fadaf;
+    private final Path snapshotpath;
+    private final FileChannel channel;
+    private final DAFCodec<K> keycodec;
+    private final DAFCodec<D> datacodec;
+    private final int groupbytes;
+    private final long groupnanos;
+    private final ScheduledExecutorService flusher; // null when groups are only ended by size
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer pending; // records of the current group
+    private long groupstart; // when the first record of the group was added
+    private long sequence; // last record added
+    private long syncedsequence; // last record on disk
+    private long syncedposition; // end of the last group on disk
+    private IOException failure; // from a failed sync, reported by every later call
+    private boolean closed;
+
+    /**
+     * opens the journal, creating it if needed, and recovers the FADAF from
+     * the snapshot (if it exists) and the records in the journal
+     *
+     * @param snapshot the snapshot file used by checkpoint, does not have to exist
+     * @param journal the journal file, does not have to exist
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @param groupbytes the size after which a group is synced
+     * @param groupmillis the age after which a group is synced, 0 to only sync by size
+     * @return the opened journal
+     * @throws IOException a file can not be read or written
+     * @throws NullPointerException an argument is null
+     * @throws IllegalArgumentException groupbytes is less than 1 or groupmillis is negative
+     */
+    public static <K extends Comparable<? super K>, D> FADAFJournal<K, D> open(Path snapshot,
+            Path journal, DAFCodec<K> keycodec, DAFCodec<D> datacodec, int groupbytes,
+            long groupmillis) throws IOException {
+        if (snapshot == null || journal == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        if (groupbytes < 1 || groupmillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        FADAF<K, D> fadaf;
+        long base = 0;
+        if (Files.exists(snapshot)) {
+            fadaf = FADAFSnapshot.read(snapshot, keycodec, datacodec);
+            base = FADAFSnapshot.sequence(snapshot);
+        } else {
+            fadaf = new FADAF<>(defaultcapacity);
+        }
+        FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FADAFJournal<K, D> result = new FADAFJournal<>(fadaf, snapshot, channel,
+                    keycodec, datacodec, groupbytes, groupmillis);
+            result.recover(base);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private FADAFJournal(FADAF<K, D> fadaf, Path snapshotpath, FileChannel channel,
+            DAFCodec<K> keycodec, DAFCodec<D> datacodec, int groupbytes, long groupmillis) {
+        this.fadaf = fadaf;
+        this.snapshotpath = snapshotpath;
+        this.channel = channel;
+        this.keycodec = keycodec;
+        this.datacodec = datacodec;
+        this.groupbytes = groupbytes;
+        this.groupnanos = TimeUnit.MILLISECONDS.toNanos(groupmillis);
+        this.pending = ByteBuffer.allocate(Math.max(groupbytes, 64));
+        if (groupmillis > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "FADAFJournal flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // checks twice per period so no group waits much longer than groupmillis
+            long period = Math.max(1, groupnanos / 2);
+            flusher.scheduleAtFixedRate(this::expire, period, period, TimeUnit.NANOSECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * replays the records after base and cuts off a damaged tail
+     *
+     * @param base the last record that is already in the snapshot
+     */
+    private void recover(long base) throws IOException {
+        long length = channel.size();
+        if (length < headersize) {
+            // new journal, or one that was cut off while its header was written
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(headersize);
+            header.putInt(magic).putInt(version).flip();
+            writefully(header, 0);
+            channel.force(true);
+            channel.position(headersize);
+            this.sequence = base;
+            this.syncedsequence = base;
+            this.syncedposition = headersize;
+            return;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("journal larger than 2GB, checkpoint more often");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (buffer.getInt(0) != magic) {
+            throw new IOException("not a FADAF journal");
+        }
+        if (buffer.getInt(Integer.BYTES) != version) {
+            throw new IOException("unsupported journal version: " + buffer.getInt(Integer.BYTES));
+        }
+        long last = base;
+        int position = headersize;
+        while (position + recordheader <= length) {
+            int size = buffer.getInt(position);
+            if (size < Long.BYTES + 1 || size > length - position - recordheader) {
+                break; // cut off while it was written
+            }
+            byte[] payload = new byte[size];
+            buffer.position(position + recordheader);
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, size);
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                break; // damaged, nothing after it can be trusted
+            }
+            long recordsequence = ByteBuffer.wrap(payload).getLong(0);
+            if (recordsequence > base) {
+                apply(ByteBuffer.wrap(payload));
+            }
+            last = Math.max(last, recordsequence);
+            position += recordheader + size;
+        }
+        if (position < length) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        this.sequence = last;
+        this.syncedsequence = last;
+        this.syncedposition = position;
+    }
+
+    /**
+     * applies one payload to the FADAF
+     */
+    private void apply(ByteBuffer payload) {
+        int position = Long.BYTES;
+        byte op = payload.get(position);
+        position++;
+        int keylength = payload.getInt(position);
+        K key = keycodec.read(payload, position + Integer.BYTES, keylength);
+        position += Integer.BYTES + keylength;
+        if (op == opinsert || op == opupdate) {
+            int datalength = payload.getInt(position);
+            D data = datacodec.read(payload, position + Integer.BYTES, datalength);
+            position += Integer.BYTES + datalength;
+            if (op == opinsert) {
+                fadaf.insert(key, data, payload.getInt(position));
+            } else {
+                fadaf.update(key, data);
+            }
+        } else if (op == opremove) {
+            fadaf.remove(key, payload.getInt(position));
+        } else if (op == opremoveall) {
+            fadaf.removeAll(key);
+        }
+    }
+
+    /**
+     * returns the FADAF kept by this journal, it must only be read
+     *
+     * @return the FADAF
+     */
+    public FADAF<K, D> fadaf() {
+        return fadaf;
+    }
+
+    /**
+     * journals and applies FADAF.insert
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws IOException the journal can not be written
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public synchronized boolean insert(K key, D data, int nCopy) throws IOException {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        append(opinsert, key, data, nCopy);
+        return fadaf.insert(key, data, nCopy);
+    }
+
+    /**
+     * journals and applies FADAF.remove
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IOException the journal can not be written
+     * @throws NullPointerException key is null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public synchronized boolean remove(K key, int nCopy) throws IOException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (fadaf.lookup(key) == 0) {
+            return false; // nothing would change, nothing to journal
+        }
+        append(opremove, key, null, nCopy);
+        return fadaf.remove(key, nCopy);
+    }
+
+    /**
+     * journals and applies FADAF.removeAll
+     *
+     * @param key the key to remove
+     * @return true if the key was found
+     * @throws IOException the journal can not be written
+     * @throws NullPointerException key is null
+     */
+    public synchronized boolean removeAll(K key) throws IOException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (fadaf.lookup(key) == 0) {
+            return false;
+        }
+        append(opremoveall, key, null, 0);
+        return fadaf.removeAll(key);
+    }
+
+    /**
+     * journals and applies FADAF.update
+     *
+     * @param key the key to update
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws IOException the journal can not be written
+     * @throws NullPointerException key or data is null
+     */
+    public synchronized boolean update(K key, D newData) throws IOException {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        if (fadaf.lookup(key) == 0) {
+            return false;
+        }
+        append(opupdate, key, newData, 0);
+        return fadaf.update(key, newData);
+    }
+
+    /**
+     * adds a record to the current group and syncs the group once it is full
+     */
+    private void append(byte op, K key, D data, int count) throws IOException {
+        if (closed) {
+            throw new IOException("journal is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        int keylength = keycodec.size(key);
+        int datalength = data == null ? 0 : datacodec.size(data);
+        int size = Long.BYTES + 1 + Integer.BYTES + keylength;
+        if (data != null) {
+            size += Integer.BYTES + datalength;
+        }
+        if (op == opinsert || op == opremove) {
+            size += Integer.BYTES;
+        }
+        if (pending.remaining() < recordheader + size) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(pending.capacity() * 2, pending.position() + recordheader + size));
+            pending.flip();
+            bigger.put(pending);
+            this.pending = bigger;
+        }
+        if (pending.position() == 0) {
+            this.groupstart = System.nanoTime();
+        }
+        int start = pending.position();
+        int position = start + recordheader;
+        pending.putLong(position, sequence + 1);
+        pending.put(position + Long.BYTES, op);
+        position += Long.BYTES + 1;
+        pending.putInt(position, keylength);
+        keycodec.write(pending, position + Integer.BYTES, key);
+        position += Integer.BYTES + keylength;
+        if (data != null) {
+            pending.putInt(position, datalength);
+            datacodec.write(pending, position + Integer.BYTES, data);
+            position += Integer.BYTES + datalength;
+        }
+        if (op == opinsert || op == opremove) {
+            pending.putInt(position, count);
+        }
+        crc.reset();
+        crc.update(pending.array(), pending.arrayOffset() + start + recordheader, size);
+        pending.putInt(start, size);
+        pending.putInt(start + Integer.BYTES, (int) crc.getValue());
+        pending.position(start + recordheader + size);
+        this.sequence++;
+        if (pending.position() >= groupbytes) {
+            flush();
+        }
+    }
+
+    /**
+     * writes and syncs the current group. when that fails the group is
+     * dropped and cut off the file again, so a record of an operation that
+     * failed for the caller is never replayed, and the journal stops taking
+     * records since the FADAF is now ahead of the disk
+     */
+    private void flush() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        try {
+            pending.flip();
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            this.failure = e;
+            try {
+                channel.truncate(syncedposition);
+                channel.position(syncedposition);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            pending.clear();
+        }
+        this.syncedsequence = sequence;
+        this.syncedposition = channel.position();
+    }
+
+    /**
+     * called by the flusher, syncs the group once it is old enough
+     */
+    private synchronized void expire() {
+        if (closed || failure != null || pending.position() == 0
+                || System.nanoTime() - groupstart < groupnanos) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            // kept in failure, the next call reports it
+        }
+    }
+
+    /**
+     * syncs every record added so far, after it returns they survive a crash
+     *
+     * @throws IOException the journal can not be written
+     */
+    public synchronized void sync() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        flush();
+    }
+
+    /**
+     * returns the sequence of the last record that is on disk
+     *
+     * @return long the synced sequence
+     */
+    public synchronized long syncedSequence() {
+        return syncedsequence;
+    }
+
+    /**
+     * writes a snapshot of the FADAF and empties the journal.
+     * if it stops half way the snapshot remembers the last record it
+     * contains, so recovery skips those records in the journal
+     *
+     * @throws IOException the snapshot or the journal can not be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        sync();
+        FADAFSnapshot.write(fadaf, snapshotpath, keycodec, datacodec, sequence);
+        channel.truncate(headersize);
+        channel.position(headersize);
+        channel.force(true);
+        this.syncedposition = headersize;
+    }
+
+    /**
+     * syncs the last group and closes the journal
+     *
+     * @throws IOException the journal can not be written
+     */
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                sync();
+            } finally {
+                this.closed = true;
+                channel.close();
+            }
+        }
+    }
+
+    private void writefully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * what a FADAF looked like when FADAF.metrics() was called.
+ * the shape of the hashtable and the tree are read at that moment,
+ * rehash counts, search depth and latencies are counted since
+ * FADAF.enableMetrics() and are empty while metrics are off.
+ * values that the backend can not report are -1.
+ * toText() exports everything in the prometheus text format.
+ */
+public class FADAFMetrics {
+    public final int size; // keys including duplicates
+    public final int distinctKeys; // keys without duplicates
+    public final int uniqueKeys; // keys with a count of exactly 1
+    public final double loadFactor;
+    public final int capacity;
+    public final int[] probeLengths; // index d holds the keys found after d probes
+    public final int rehashCount;
+    public final long rehashNanos;
+    public final int treeHeight;
+    public final double averageSearchDepth;
+    public final Histogram insertLatency;
+    public final Histogram lookupLatency;
+    public final Histogram removeLatency;
+
+    public FADAFMetrics(int size, int distinctKeys, int uniqueKeys, double loadFactor,
+            int capacity, int[] probeLengths, int rehashCount, long rehashNanos,
+            int treeHeight, double averageSearchDepth, Histogram insertLatency,
+            Histogram lookupLatency, Histogram removeLatency) {
+        this.size = size;
+        this.distinctKeys = distinctKeys;
+        this.uniqueKeys = uniqueKeys;
+        this.loadFactor = loadFactor;
+        this.capacity = capacity;
+        this.probeLengths = probeLengths;
+        this.rehashCount = rehashCount;
+        this.rehashNanos = rehashNanos;
+        this.treeHeight = treeHeight;
+        this.averageSearchDepth = averageSearchDepth;
+        this.insertLatency = insertLatency;
+        this.lookupLatency = lookupLatency;
+        this.removeLatency = removeLatency;
+    }
+
+    /**
+     * returns the longest probe length
+     *
+     * @return int the longest probe, 0 if the hashtable is empty
+     */
+    public int maxProbeLength() {
+        for (int length = probeLengths.length - 1; length > 0; length--) {
+            if (probeLengths[length] > 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * returns the average probe length of a successful lookup
+     *
+     * @return double the mean, 0 if the hashtable is empty
+     */
+    public double meanProbeLength() {
+        long keys = 0;
+        long probes = 0;
+        for (int length = 1; length < probeLengths.length; length++) {
+            keys += probeLengths[length];
+            probes += (long) length * probeLengths[length];
+        }
+        return keys == 0 ? 0 : (double) probes / keys;
+    }
+
+    /**
+     * exports the metrics in the prometheus text format, one value per line
+     *
+     * @return String the metrics
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "fadaf_size", size);
+        gauge(out, "fadaf_distinct_keys", distinctKeys);
+        gauge(out, "fadaf_unique_keys", uniqueKeys);
+        gauge(out, "fadaf_hashtable_load_factor", loadFactor);
+        gauge(out, "fadaf_hashtable_capacity", capacity);
+        out.append("# TYPE fadaf_hashtable_probe_length histogram\n");
+        long keys = 0;
+        long probes = 0;
+        for (int length = 1; length < probeLengths.length; length++) {
+            keys += probeLengths[length];
+            probes += (long) length * probeLengths[length];
+            out.append("fadaf_hashtable_probe_length_bucket{le=\"").append(length)
+                    .append("\"} ").append(keys).append('\n');
+        }
+        out.append("fadaf_hashtable_probe_length_bucket{le=\"+Inf\"} ").append(keys).append('\n');
+        out.append("fadaf_hashtable_probe_length_sum ").append(probes).append('\n');
+        out.append("fadaf_hashtable_probe_length_count ").append(keys).append('\n');
+        gauge(out, "fadaf_hashtable_rehash_total", rehashCount);
+        gauge(out, "fadaf_hashtable_rehash_nanos_total", rehashNanos);
+        gauge(out, "fadaf_tree_height", treeHeight);
+        gauge(out, "fadaf_tree_average_search_depth", averageSearchDepth);
+        insertLatency.toText(out, "fadaf_insert_latency_nanos");
+        lookupLatency.toText(out, "fadaf_lookup_latency_nanos");
+        removeLatency.toText(out, "fadaf_remove_latency_nanos");
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, double value) {
+        out.append(name).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.4f", value));
+        }
+        out.append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+
+    /**
+     * latency histogram with one bucket per power of two nanoseconds,
+     * so recording is a few instructions and the memory is fixed.
+     * percentiles are the upper bound of their bucket, at most 2x too high
+     */
+    public static class Histogram {
+        private static final int nbuckets = 64;
+
+        private final long[] buckets; // bucket b counts latencies below 2^b ns
+        private long count;
+        private long sum;
+        private long max;
+
+        public Histogram() {
+            this.buckets = new long[nbuckets];
+        }
+
+        private Histogram(Histogram other) {
+            this.buckets = Arrays.copyOf(other.buckets, nbuckets);
+            this.count = other.count;
+            this.sum = other.sum;
+            this.max = other.max;
+        }
+
+        /**
+         * adds one latency
+         *
+         * @param nanos the latency in nanoseconds
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0; // the clock went back
+            }
+            buckets[Math.min(nbuckets - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos))]++;
+            this.count++;
+            this.sum += nanos;
+            this.max = Math.max(max, nanos);
+        }
+
+        /**
+         * returns a copy that does not change when more latencies are recorded
+         *
+         * @return Histogram the copy
+         */
+        public Histogram copy() {
+            return new Histogram(this);
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * returns the mean latency
+         *
+         * @return double nanoseconds, 0 if nothing was recorded
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * returns the latency that p percent of the operations did not exceed
+         *
+         * @param p the percentile between 0 and 100
+         * @return long nanoseconds, the upper bound of the bucket, 0 if nothing was recorded
+         * @throws IllegalArgumentException p is not between 0 and 100
+         */
+        public long percentile(double p) {
+            if (!(p >= 0 && p <= 100)) {
+                throw new IllegalArgumentException();
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int b = 0; b < nbuckets; b++) {
+                seen += buckets[b];
+                if (seen >= rank) {
+                    return Math.min(max, upper(b));
+                }
+            }
+            return 0;
+        }
+
+        private static long upper(int bucket) {
+            return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        void toText(StringBuilder out, String name) {
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            long seen = 0;
+            int last = nbuckets - 1;
+            while (last > 0 && buckets[last] == 0) {
+                last--;
+            }
+            for (int b = 0; b <= last; b++) {
+                seen += buckets[b];
+                out.append(name).append("_bucket{le=\"").append(upper(b)).append("\"} ")
+                        .append(seen).append('\n');
+            }
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+            out.append(name).append("_sum ").append(sum).append('\n');
+            out.append(name).append("_count ").append(count).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + Math.round(mean()) + "ns p50=" + percentile(50)
+                    + "ns p99=" + percentile(99) + "ns max=" + max + "ns";
+        }
+    }
+}
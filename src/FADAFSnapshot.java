@@ -0,0 +1,246 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * saves a FADAF to a binary file and loads it back.
+ * the file starts with a header (magic, version, number of keys, sequence) followed
+ * by one record per key in accending order:
+ * key length, key bytes, data length, data bytes, count.
+ * a snapshot is written to a temporary file that replaces the target only
+ * when it is complete, so a crash never leaves half a snapshot behind.
+ * read maps the file into memory and rebuilds the FADAF in one pass
+ * with the bulk load constructor, since the keys are already sorted.
+ * the sequence is the last journal record the snapshot includes, see FADAFJournal.
+ */
+public class FADAFSnapshot {
+    private static final int magic = 0x46414446; // "FADF"
+    private static final int version = 2;
+    private static final int headersize = 3 * Integer.BYTES + Long.BYTES;
+    private static final int v1headersize = 3 * Integer.BYTES; // version 1 had no sequence
+    private static final int chunksize = 1 << 16;
+
+    private FADAFSnapshot() {
+    }
+
+    /**
+     * writes every key of the FADAF with its data and count to the file
+     *
+     * @param fadaf the FADAF to save
+     * @param path the file to write, it is replaced if it exists
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @throws IOException the file can not be written
+     * @throws NullPointerException an argument is null
+     */
+    public static <K extends Comparable<? super K>, D> void write(FADAF<K, D> fadaf,
+            Path path, DAFCodec<K> keycodec, DAFCodec<D> datacodec) throws IOException {
+        write(fadaf, path, keycodec, datacodec, 0);
+    }
+
+    /**
+     * writes every key of the FADAF with its data and count to the file
+     *
+     * @param fadaf the FADAF to save
+     * @param path the file to write, it is replaced if it exists
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @param sequence the last journal record included in the FADAF
+     * @throws IOException the file can not be written
+     * @throws NullPointerException an argument is null
+     */
+    public static <K extends Comparable<? super K>, D> void write(FADAF<K, D> fadaf,
+            Path path, DAFCodec<K> keycodec, DAFCodec<D> datacodec, long sequence)
+            throws IOException {
+        if (fadaf == null || path == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        Path absolute = path.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer<K, D> writer = new Writer<>(channel, keycodec, datacodec);
+            fadaf.forEachEntry(writer);
+            writer.flush();
+            // the number of keys is only known once they are all written
+            ByteBuffer header = ByteBuffer.allocate(headersize);
+            header.putInt(magic).putInt(version).putInt(writer.nKeys).putLong(sequence).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * loads a FADAF from a file written by write
+     *
+     * @param path the file to read
+     * @param keycodec turns bytes into keys, the same codec used to write
+     * @param datacodec turns bytes into data, the same codec used to write
+     * @return FADAF with the keys, data and counts of the snapshot
+     * @throws IOException the file can not be read or is not a snapshot
+     * @throws NullPointerException an argument is null
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K, D> read(Path path,
+            DAFCodec<K> keycodec, DAFCodec<D> datacodec) throws IOException {
+        if (path == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = map(channel, path);
+            int nKeys = buffer.getInt(2 * Integer.BYTES);
+            if (nKeys < 0) {
+                throw new IOException("corrupt snapshot: " + path);
+            }
+            List<K> keys = new ArrayList<>(nKeys);
+            List<D> data = new ArrayList<>(nKeys);
+            int[] counts = new int[nKeys];
+            int position = buffer.getInt(Integer.BYTES) == 1 ? v1headersize : headersize;
+            try {
+                for (int i = 0; i < nKeys; i++) {
+                    int keylength = buffer.getInt(position);
+                    keys.add(keycodec.read(buffer, position + Integer.BYTES, keylength));
+                    position += Integer.BYTES + keylength;
+                    int datalength = buffer.getInt(position);
+                    data.add(datacodec.read(buffer, position + Integer.BYTES, datalength));
+                    position += Integer.BYTES + datalength;
+                    counts[i] = buffer.getInt(position);
+                    position += Integer.BYTES;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("truncated snapshot: " + path, e);
+            }
+            try {
+                return new FADAF<>(keys, data, counts);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt snapshot: " + path, e);
+            }
+        }
+    }
+
+    /**
+     * returns the last journal record included in a snapshot
+     *
+     * @param path the snapshot file
+     * @return long the sequence, 0 for snapshots written without one
+     * @throws IOException the file can not be read or is not a snapshot
+     * @throws NullPointerException path is null
+     */
+    public static long sequence(Path path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = map(channel, path);
+            return buffer.getInt(Integer.BYTES) == 1 ? 0 : buffer.getLong(v1headersize);
+        }
+    }
+
+    /**
+     * maps the whole file and checks its header
+     */
+    private static MappedByteBuffer map(FileChannel channel, Path path) throws IOException {
+        long length = channel.size();
+        if (length < v1headersize) {
+            throw new IOException("not a FADAF snapshot: " + path);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("snapshot larger than 2GB: " + path);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (buffer.getInt(0) != magic) {
+            throw new IOException("not a FADAF snapshot: " + path);
+        }
+        int found = buffer.getInt(Integer.BYTES);
+        if (found != 1 && found != version) {
+            throw new IOException("unsupported snapshot version: " + found);
+        }
+        if (found == version && length < headersize) {
+            throw new IOException("truncated snapshot: " + path);
+        }
+        return buffer;
+    }
+
+    /**
+     * encodes the visited keys into a buffer that is written out when full
+     */
+    private static class Writer<K, D> implements FADAF.EntryVisitor<K, D> {
+        private final FileChannel channel;
+        private final DAFCodec<K> keycodec;
+        private final DAFCodec<D> datacodec;
+        private ByteBuffer buffer;
+        private int nKeys;
+        private IOException failure;
+
+        Writer(FileChannel channel, DAFCodec<K> keycodec, DAFCodec<D> datacodec) {
+            this.channel = channel;
+            this.keycodec = keycodec;
+            this.datacodec = datacodec;
+            this.buffer = ByteBuffer.allocateDirect(chunksize);
+            buffer.position(headersize); // the header is filled in at the end
+        }
+
+        public void visit(K key, D data, int count) {
+            if (failure != null) {
+                return;
+            }
+            int keylength = keycodec.size(key);
+            int datalength = datacodec.size(data);
+            try {
+                reserve(3 * Integer.BYTES + keylength + datalength);
+            } catch (IOException e) {
+                this.failure = e;
+                return;
+            }
+            int position = buffer.position();
+            buffer.putInt(position, keylength);
+            keycodec.write(buffer, position + Integer.BYTES, key);
+            position += Integer.BYTES + keylength;
+            buffer.putInt(position, datalength);
+            datacodec.write(buffer, position + Integer.BYTES, data);
+            position += Integer.BYTES + datalength;
+            buffer.putInt(position, count);
+            buffer.position(position + Integer.BYTES);
+            nKeys++;
+        }
+
+        /**
+         * makes room for a record, a record bigger than a chunk gets its own buffer
+         */
+        private void reserve(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            drain();
+            if (buffer.capacity() < length) {
+                this.buffer = ByteBuffer.allocateDirect(length);
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void flush() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            drain();
+        }
+    }
+}
@@ -1,38 +1,32 @@
 
 import java.util.*;
+import java.util.concurrent.locks.StampedLock;
 
 @SuppressWarnings("rawtypes")
 public class HashTable<K, D> {
     private final int minimumthreshold = 10;
-    private final int getterresultsize = 2;
     private final int doublesize = 2;
     private final double lfactormax = 0.66667;
+    private final int migratestep = 8; // slots moved per write while rehashing
 
-    protected class TableEntry<K, D> {
-        private K key;
-        private D data;
-
-        public TableEntry(K key, D data) {
-            this.key = key;
-            this.data = data;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if ((obj == null) || !(obj instanceof TableEntry))
-                return false;
-            return key.equals(((TableEntry<?, ?>) obj).key);
-        }
-
-        @Override
-        public int hashCode() {
-            return key.hashCode();
-        }
-    }
-
-    private LinkedList<TableEntry<K, D>>[] table;
+    // open addressing with robin hood displacement, entries are stored in
+    // flat parallel arrays and a slot is empty when its key is null
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes; // cached hash of every key so probes skip equals()
     private int nElems;
 
+    // the smaller table that is being moved into the new one, null when no
+    // rehash is in progress. every slot before oldcursor is already empty
+    private Object[] oldkeys;
+    private Object[] oldvalues;
+    private int[] oldhashes;
+    private int oldcursor;
+
+    // only counted while instrumented is on
+    private boolean instrumented;
+    private int rehashes;
+    private long rehashnanos; // time spent allocating and moving entries
 
     /**
      * constructor of HashTable
@@ -40,20 +34,21 @@ public class HashTable<K, D> {
      * @param capacity
      * @throws IllegalArgumentException when capacity less then minimumthreshold
      */
-    @SuppressWarnings("unchecked")
     public HashTable(int capacity) {
         if (capacity < minimumthreshold) {
             // checks for the minimum of capacity
             throw new IllegalArgumentException();
         }
-        this.table = new LinkedList[capacity];
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+        this.hashes = new int[capacity];
     }
 
     /**
      * inserts items into HashTable, it only inserts if key doesnt already exists.
-     * (in hashtable multiple keys can be hashed to one list.
+     * (collisions are resolved by probing the next slots of the table)
      *
-     * @param key used to get the hash code and the right table
+     * @param key used to get the hash code and the right slot
      * @param data the data to be inserted with that hashcode
      * @return true if key is new and inserted to hashtable, false if key already exists
      * @throws NullPointerException throws exception when value is null
@@ -63,34 +58,26 @@ public class HashTable<K, D> {
             //throws exception when value is null
             throw new NullPointerException();
         }
+        migrate();
         if (loadfactor() > lfactormax) {
             //checks the load factor then rehash
             rehash();
         }
-
-        int[] result = getter(key, data);
-        TableEntry temp = new TableEntry<>(key, data);
-
-        if (!(table[result[0]] instanceof LinkedList)) {
-            // result[1] is -1 when LinkedList doesnt exists or its empty or key doesnt exists
-            //its only empty when initialed before adding
-            // if there is no linkedlist initialized
-            this.table[result[0]] = new LinkedList<>();
-        }
-
-        if (lookup(key) == null) {
-            // lookup returns null if key is not found
-            table[result[0]].add(temp); //add temp to the linkedlist
-            this.nElems++; // implements number of elements
-            return true;
+        int hash = hashValue(key);
+        if (getter(keys, hashes, key, hash) != -1
+                || (oldkeys != null && getter(oldkeys, oldhashes, key, hash) != -1)) {
+            // key already exists
+            return false;
         }
-        return false;
-
+        place(keys, values, hashes, key, data, hash);
+        this.nElems++; // implements number of elements
+        return true;
     }
+
     /**
      * updates the data of key into newdata
      *
-     * @param key used to get the hash code and the right table
+     * @param key used to get the hash code and the right slot
      * @param newData the data to be inserted with that hashcode
      * @throws NullPointerException throws exception when value is null
      */
@@ -99,14 +86,23 @@ public class HashTable<K, D> {
             //throws exception when value is null
             throw new NullPointerException();
         }
-        int[] result = getter(key, newData);
-        if (result[1] == -1) {
-            //if key is not found
-            return false;
+        migrate();
+        int hash = hashValue(key);
+        int index = getter(keys, hashes, key, hash);
+        if (index != -1) {
+            values[index] = newData;
+            return true;
         }
-        TableEntry temp = new TableEntry<>(key, newData);
-        table[result[0]].set(result[1], temp);
-        return true;
+        if (oldkeys != null) {
+            // the key can still be in the table that is being moved
+            index = getter(oldkeys, oldhashes, key, hash);
+            if (index != -1) {
+                oldvalues[index] = newData;
+                return true;
+            }
+        }
+        //if key is not found
+        return false;
     }
 
     private double loadfactor() {
@@ -114,32 +110,161 @@ public class HashTable<K, D> {
     }
 
     /**
-     * updates the data of key into newdata
+     * returns the load factor, the number of keys per slot
      *
-     * @param key used to get the hash code and the right table
-     * @param newData the data to be inserted with that hashcode
-     * @throws NullPointerException throws exception when value is null
+     * @return double size divided by capacity
      */
-    private int[] getter(K key, D newData) {
-        int hkey = hashValue(key); // hash key
-        int[] result = new int[getterresultsize]; // creates a result with hashkey and index
-        result[0] = hkey; //sets hash key as index 0 of result
-        TableEntry temp = new TableEntry<>(key, newData); // temp node to find
-        result[1] = -1; //index is -1 if index is empty or doesnt exists
-        //its empty when in insert i initials it before adding to it
-        if (table[result[0]] instanceof LinkedList) {
-            // loops through the linked if exists
-            for (int i = 0; i < table[hkey].size(); i++) {
-                //loops through the getter to find the temp node
-                if (table[hkey].get(i).equals(temp)) {
-                    result[1] = i;
-                    break;
+    public double loadFactor() {
+        return loadfactor();
+    }
+
+    /**
+     * turns counting of rehashes and the time spent in them on or off.
+     * turning it on starts the counts from zero
+     *
+     * @param on true to count
+     */
+    public void setInstrumented(boolean on) {
+        this.instrumented = on;
+        this.rehashes = 0;
+        this.rehashnanos = 0;
+    }
+
+    /**
+     * returns the number of rehashes since instrumentation was turned on
+     *
+     * @return int the number of times the table grew
+     */
+    public int rehashCount() {
+        return rehashes;
+    }
+
+    /**
+     * returns the time spent rehashing since instrumentation was turned on,
+     * including the incremental moves done by later writes
+     *
+     * @return long nanoseconds
+     */
+    public long rehashNanos() {
+        return rehashnanos;
+    }
+
+    /**
+     * returns how far the keys are from their home slot, the open addressing
+     * version of chain lengths. probe lengths are counted from 1, so a key in
+     * its home slot has probe length 1
+     *
+     * @return int[] at index d the number of keys found after d probes,
+     * index 0 is always 0
+     */
+    public int[] probeLengths() {
+        int[] result = new int[1];
+        result = probelengths(keys, hashes, result);
+        if (oldkeys != null) {
+            result = probelengths(oldkeys, oldhashes, result);
+        }
+        return result;
+    }
+
+    private int[] probelengths(Object[] ks, int[] hs, int[] result) {
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != null) {
+                int length = probedistance(hs, i) + 1;
+                if (length >= result.length) {
+                    result = Arrays.copyOf(result, length + 1);
                 }
+                result[length]++;
             }
         }
-        // if linkedlist doesn't exists
         return result;
     }
+
+    /**
+     * finds the slot that holds the key
+     * the probe stops early once it passes an entry that is closer to its
+     * own home slot than the key would be (robin hood invariant)
+     *
+     * @param ks the keys of the table to search
+     * @param hs the hashes of the table to search
+     * @param key the key to look for
+     * @param hash the hash value of the key
+     * @return int the index of the slot or -1 if key is not in the table
+     */
+    private int getter(Object[] ks, int[] hs, K key, int hash) {
+        int index = hash % ks.length; // home slot of the key
+        for (int dist = 0; ks[index] != null; dist++) {
+            if (probedistance(hs, index) < dist) {
+                // key would have been placed before this entry
+                return -1;
+            }
+            if (hs[index] == hash && ks[index].equals(key)) {
+                return index;
+            }
+            index = nextslot(ks, index);
+        }
+        return -1; // reached an empty slot
+    }
+
+    /**
+     * places a key that is not in the table yet
+     * the entry that is further from its home slot keeps the slot and
+     * the other one continues probing
+     *
+     * @param ks the keys of the table
+     * @param vs the values of the table
+     * @param hs the hashes of the table
+     * @param key the key to place
+     * @param data the data of the key
+     * @param hash the hash value of the key
+     */
+    private void place(Object[] ks, Object[] vs, int[] hs, Object key, Object data, int hash) {
+        int index = hash % ks.length;
+        int dist = 0;
+        while (ks[index] != null) {
+            int resident = probedistance(hs, index);
+            if (resident < dist) {
+                // swaps the new entry with the richer resident entry
+                Object tempkey = ks[index];
+                Object tempdata = vs[index];
+                int temphash = hs[index];
+                ks[index] = key;
+                vs[index] = data;
+                hs[index] = hash;
+                key = tempkey;
+                data = tempdata;
+                hash = temphash;
+                dist = resident;
+            }
+            index = nextslot(ks, index);
+            dist++;
+        }
+        ks[index] = key;
+        vs[index] = data;
+        hs[index] = hash;
+    }
+
+    /**
+     * empties a slot and shifts the following entries back so no
+     * tombstone is needed
+     *
+     * @param ks the keys of the table
+     * @param vs the values of the table
+     * @param hs the hashes of the table
+     * @param index the slot to empty
+     */
+    private void removeslot(Object[] ks, Object[] vs, int[] hs, int index) {
+        int next = nextslot(ks, index);
+        while (ks[next] != null && probedistance(hs, next) > 0) {
+            ks[index] = ks[next];
+            vs[index] = vs[next];
+            hs[index] = hs[next];
+            index = next;
+            next = nextslot(ks, next);
+        }
+        ks[index] = null;
+        vs[index] = null;
+    }
+
     /**
      * deletes the node or the given key
      *
@@ -152,12 +277,19 @@ public class HashTable<K, D> {
             //throws exception when value is null
             throw new NullPointerException();
         }
-        int[] result = getter(key, null);
-        if (result[1] == -1) {
+        migrate();
+        int hash = hashValue(key);
+        int index = getter(keys, hashes, key, hash);
+        if (index != -1) {
+            removeslot(keys, values, hashes, index);
+        } else if (oldkeys != null
+                && (index = getter(oldkeys, oldhashes, key, hash)) != -1) {
+            // the key was not moved to the new table yet
+            removeslot(oldkeys, oldvalues, oldhashes, index);
+        } else {
             //if key is not found
             return false;
         }
-        table[result[0]].remove(result[1]);
         this.nElems--;
         return true;
     }
@@ -170,24 +302,87 @@ public class HashTable<K, D> {
      * @return null if data not found
      * @throws NullPointerException when value is null
      */
+    @SuppressWarnings("unchecked")
     public D lookup(K key) {
         if (key == null) {
             //throws exception when value is null
             throw new NullPointerException();
         }
-        int[] result = getter(key, null); //get the hashnum and index of key
-        if (result[1] == -1) {
-            //if index doesnt exists return null
-            return null;
+        int hash = hashValue(key);
+        int index = getter(keys, hashes, key, hash); //get the slot of key
+        if (index != -1) {
+            return (D) values[index];
+        }
+        if (oldkeys != null) {
+            // lookups do not move entries, they only read the old table
+            index = getter(oldkeys, oldhashes, key, hash);
+            if (index != -1) {
+                return (D) oldvalues[index];
+            }
+        }
+        //if slot doesnt exists return null
+        return null;
+    }
+
+    /**
+     * lookup for a reader that holds an optimistic stamp of the lock that
+     * guards the table instead of the lock itself, used by ConcurrentFADAF.
+     * the stamp is validated after the arrays are read and before a stored
+     * key is compared or a value is returned, and the probe never runs past
+     * the length of the table, so a writer that moves entries meanwhile can
+     * only make it return a wrong result. the caller validates the stamp
+     * once more and throws that result away
+     *
+     * @param key to look for
+     * @param lock the lock that guards the table
+     * @param stamp the stamp from tryOptimisticRead
+     * @return D the data, null if not found or the stamp is no longer valid
+     */
+    @SuppressWarnings("unchecked")
+    D lookup(K key, StampedLock lock, long stamp) {
+        Object[] ks = keys;
+        Object[] vs = values;
+        int[] hs = hashes;
+        Object[] oldks = oldkeys;
+        Object[] oldvs = oldvalues;
+        int[] oldhs = oldhashes;
+        if (!lock.validate(stamp)) {
+            return null; // the arrays may not belong to one table
+        }
+        int hash = hashValue(key);
+        Object result = probe(ks, vs, hs, key, hash, lock, stamp);
+        if (result == null && oldks != null) {
+            result = probe(oldks, oldvs, oldhs, key, hash, lock, stamp);
         }
-        try {
-            return (D) table[result[0]].get(result[1]).data;
-            // return the data at that index and hash num
-        } catch (NullPointerException e) {
-            // return null if no data found
-            return null;
+        return (D) result;
+    }
+
+    /**
+     * the probe of getter for an optimistic reader, it gives up once the
+     * stamp is invalid
+     */
+    private Object probe(Object[] ks, Object[] vs, int[] hs, K key, int hash,
+            StampedLock lock, long stamp) {
+        int index = hash % ks.length;
+        for (int dist = 0; dist < ks.length; dist++) {
+            Object k = ks[index];
+            if (k == null || probedistance(hs, index) < dist) {
+                return null;
+            }
+            if (hs[index] == hash) {
+                if (!lock.validate(stamp)) {
+                    return null; // k may be a slot a writer is moving
+                }
+                if (k.equals(key)) {
+                    Object v = vs[index];
+                    return lock.validate(stamp) ? v : null;
+                }
+            }
+            index = nextslot(ks, index);
         }
+        return null;
     }
+
     /**
      * returns the size
      * @return int size nelems instance
@@ -200,38 +395,168 @@ public class HashTable<K, D> {
     /**
      * returns the capacity
      *
-     * @return int capacity (table.length)
+     * @return int capacity (number of slots)
      */
     public int capacity() {
-        return table.length;
+        return keys.length;
+    }
+
+    /**
+     * grows the table once so that nElems keys fit under the load factor,
+     * inserting up to that many keys afterwards does not rehash
+     *
+     * @param nElems the number of keys the table should hold
+     */
+    public void ensureCapacity(int nElems) {
+        int newcapacity = capacity();
+        while (nElems > lfactormax * newcapacity) {
+            newcapacity *= doublesize;
+        }
+        if (newcapacity == capacity()) {
+            return;
+        }
+        long start = instrumented ? System.nanoTime() : 0;
+        finishrehash();
+        Object[] oldk = keys;
+        Object[] oldv = values;
+        int[] oldh = hashes;
+        this.keys = new Object[newcapacity];
+        this.values = new Object[newcapacity];
+        this.hashes = new int[newcapacity];
+        for (int i = 0; i < oldk.length; i++) {
+            if (oldk[i] != null) {
+                place(keys, values, hashes, oldk[i], oldv[i], oldh[i]);
+            }
+        }
+        if (instrumented) {
+            this.rehashes++;
+            this.rehashnanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * returns how far the current rehash has moved the old table
+     *
+     * @return double between 0 and 1, 1 when no rehash is in progress
+     */
+    public double rehashProgress() {
+        if (oldkeys == null) {
+            return 1.0;
+        }
+        return (double) oldcursor / oldkeys.length;
     }
 
     /**
-     * calculates the hashvalue
+     * calculates the hashvalue. the bits are mixed first since nearby
+     * hashCodes, like those of sequential Integer keys, would otherwise
+     * land in one long run of neighbouring slots
      *
      * @param key
+     * @return int non negative hash of the key
      */
     private int hashValue(K key) {
-        return Math.abs(key.hashCode() % capacity());
+        return (int) (mix(key.hashCode()) >>> 33);
+    }
+
+    /**
+     * spreads the bits of a hash over 64 bits (the murmur3 finalizer).
+     * the table takes the high bits, the sharded and striped structures
+     * the low ones and the sketches all of them
+     *
+     * @param hash the hash to mix, usually a hashCode
+     * @return long the mixed hash
+     */
+    static long mix(long hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
+
+    /**
+     * how far the entry in the slot is from its home slot
+     *
+     * @param hs the hashes of the table
+     * @param index the slot of the entry
+     * @return int the probe distance
+     */
+    private int probedistance(int[] hs, int index) {
+        int home = hs[index] % hs.length;
+        return index >= home ? index - home : index + hs.length - home;
+    }
+
+    private int nextslot(Object[] ks, int index) {
+        return index + 1 == ks.length ? 0 : index + 1;
+    }
+
     /**
      * helper function to rehash
+     * only allocates the bigger table, the entries are moved a few slots at
+     * a time by migrate() so no single insert pays for the whole copy
      */
-    @SuppressWarnings("unchecked")
     private void rehash() {
-        HashTable<K, D> temp = new HashTable(capacity() * doublesize);
-        for (int i = 0; i < capacity(); i++) {
-            // for every list in table
-            if (table[i] instanceof LinkedList) { //checks if linkedlist exists
-                for (int j = 0; j < table[i].size(); j++) {
-                    // for every element in linkedlist
-                    TableEntry tempn = table[i].get(j);
-                    temp.insert((K) tempn.key, (D) tempn.data);
-                }
-            }
+        long start = instrumented ? System.nanoTime() : 0;
+        if (oldkeys != null) {
+            // the previous rehash has to be done before starting a new one
+            finishrehash();
+        }
+        this.oldkeys = keys;
+        this.oldvalues = values;
+        this.oldhashes = hashes;
+        this.oldcursor = 0;
+        this.keys = new Object[oldkeys.length * doublesize];
+        this.values = new Object[keys.length];
+        this.hashes = new int[keys.length];
+        if (instrumented) {
+            this.rehashes++;
+            this.rehashnanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * moves up to migratestep slots of the old table into the new table
+     */
+    private void migrate() {
+        if (oldkeys == null) {
+            return;
+        }
+        long start = instrumented ? System.nanoTime() : 0;
+        for (int step = 0; step < migratestep && oldkeys != null; step++) {
+            migrateslot();
+        }
+        if (instrumented) {
+            this.rehashnanos += System.nanoTime() - start;
+        }
+    }
 
+    private void finishrehash() {
+        while (oldkeys != null) {
+            migrateslot();
+        }
+    }
+
+    /**
+     * moves the entry at the cursor, or steps over the slot if it is empty.
+     * removing the entry can shift the next one back into the cursor slot
+     */
+    private void migrateslot() {
+        if (oldkeys[oldcursor] == null) {
+            this.oldcursor++;
+        } else {
+            place(keys, values, hashes, oldkeys[oldcursor], oldvalues[oldcursor],
+                    oldhashes[oldcursor]);
+            removeslot(oldkeys, oldvalues, oldhashes, oldcursor);
+        }
+        if (oldcursor == oldkeys.length) {
+            // every slot was moved
+            this.oldkeys = null;
+            this.oldvalues = null;
+            this.oldhashes = null;
+            this.oldcursor = 0;
         }
-        this.table = temp.table;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+
+/**
+ * HyperLogLog, estimates the number of distinct keys with 2^precision one byte
+ * registers. each key sets the register picked by the first precision bits of
+ * its hash to the highest number of leading zeros seen in the other bits.
+ * the standard error of the estimate is 1.04 / sqrt(2^precision), so
+ * precision 14 (16KB) is within about 0.8%. small counts are close to exact.
+ * keys can not be taken out again.
+ */
+public class HyperLogLog {
+    private static final int minimumprecision = 4;
+    private static final int maximumprecision = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * constructor of HyperLogLog
+     *
+     * @param precision log2 of the number of registers, between 4 and 18
+     * @throws IllegalArgumentException precision is out of range
+     */
+    public HyperLogLog(int precision) {
+        if (precision < minimumprecision || precision > maximumprecision) {
+            throw new IllegalArgumentException();
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * adds a key
+     *
+     * @param key the key
+     * @throws NullPointerException key is null
+     */
+    public void add(Object key) {
+        long hash = HashTable.mix(key.hashCode());
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        // the rest of the bits with a stop bit so the count is at most 64 - precision + 1
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * returns the estimated number of distinct keys added. it uses the
+     * improved estimator of Ertl (2017), which works on the histogram of the
+     * registers and needs no switch to linear counting, so it has no bias
+     * where the raw estimate and linear counting would take over from each other
+     *
+     * @return long the estimate
+     */
+    public long estimate() {
+        int m = registers.length;
+        int q = Long.SIZE - precision; // the highest rank is q + 1
+        int[] histogram = new int[q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * the correction for the empty registers, x + sum of x^(2^k) * 2^(k-1)
+     */
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    /**
+     * the correction for the registers at the highest rank
+     */
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /**
+     * returns the expected relative error of estimate
+     *
+     * @return double the standard error
+     */
+    public double standardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * returns the memory taken by the registers
+     *
+     * @return long the number of bytes
+     */
+    public long bytes() {
+        return registers.length;
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.*;
+
+/**
+ * FADAF specialized for int keys. keys are kept in a primitive array indexed
+ * by node number next to the counts and child links of PrimitiveFADAF, so
+ * insert, lookup and remove do not box the key or allocate unless the
+ * arrays have to grow.
+ */
+public class IntFADAF<D> extends PrimitiveFADAF<D> {
+    private int[] keys;
+
+    /**
+     * A constructor that initializes an IntFADAF structure
+     *
+     * @param capacity the initial capacity for the keys
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     */
+    public IntFADAF(int capacity) {
+        super(capacity);
+        this.keys = new int[capacity + 1];
+    }
+
+    @Override
+    long key(int node) {
+        return keys[node];
+    }
+
+    @Override
+    void setkey(int node, long key) {
+        this.keys[node] = (int) key;
+    }
+
+    @Override
+    void growkeys(int length) {
+        this.keys = Arrays.copyOf(keys, length);
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param data the data for the key, only kept for a new key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException data is null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(int key, D data, int nCopy) {
+        return insertkey(key, data, nCopy);
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     */
+    public int lookup(int key) {
+        return lookupkey(key);
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     */
+    public boolean remove(int key, int nCopy) {
+        return removekey(key, nCopy);
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     */
+    public boolean removeAll(int key) {
+        return removekey(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A method that updates the data associated with the key to newData.
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException data is null
+     */
+    public boolean update(int key, D newData) {
+        return updatekey(key, newData);
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     */
+    public D getData(int key) {
+        return datakey(key);
+    }
+
+    /**
+     * returns the minimum key
+     *
+     * @return the minimum key
+     * @throws NoSuchElementException if empty
+     */
+    public int getMinKey() {
+        return keys[extreme(false)];
+    }
+
+    /**
+     * returns the maximum key
+     *
+     * @return the maximum key
+     * @throws NoSuchElementException if empty
+     */
+    public int getMaxKey() {
+        return keys[extreme(true)];
+    }
+
+    /**
+     * returns the keys in accending order
+     *
+     * @param allowDuplicate if Duplicates are allowed
+     * @return an array of the keys
+     */
+    public int[] getAllKeys(boolean allowDuplicate) {
+        return tokeys(collect(0, 0, false, allowDuplicate));
+    }
+
+    /**
+     * returns all unique keys between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return an array of the keys in accending order
+     */
+    public int[] getUniqueKeysInRange(int lower, int upper) {
+        return tokeys(collect(lower, upper, true, false));
+    }
+
+    /**
+     * replaces the node numbers by their keys, in place
+     *
+     * @param nodes the node numbers from collect
+     * @return the same array holding the keys
+     */
+    private int[] tokeys(int[] nodes) {
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = keys[nodes[i]];
+        }
+        return nodes;
+    }
+}
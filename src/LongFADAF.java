@@ -0,0 +1,160 @@
+import java.util.*;
+
+/**
+ * FADAF specialized for long keys. keys are kept in a primitive array indexed
+ * by node number next to the counts and child links of PrimitiveFADAF, so
+ * insert, lookup and remove do not box the key or allocate unless the
+ * arrays have to grow.
+ */
+public class LongFADAF<D> extends PrimitiveFADAF<D> {
+    private long[] keys;
+
+    /**
+     * A constructor that initializes a LongFADAF structure
+     *
+     * @param capacity the initial capacity for the keys
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     */
+    public LongFADAF(int capacity) {
+        super(capacity);
+        this.keys = new long[capacity + 1];
+    }
+
+    @Override
+    long key(int node) {
+        return keys[node];
+    }
+
+    @Override
+    void setkey(int node, long key) {
+        this.keys[node] = key;
+    }
+
+    @Override
+    void growkeys(int length) {
+        this.keys = Arrays.copyOf(keys, length);
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param data the data for the key, only kept for a new key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException data is null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(long key, D data, int nCopy) {
+        return insertkey(key, data, nCopy);
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     */
+    public int lookup(long key) {
+        return lookupkey(key);
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     */
+    public boolean remove(long key, int nCopy) {
+        return removekey(key, nCopy);
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     */
+    public boolean removeAll(long key) {
+        return removekey(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A method that updates the data associated with the key to newData.
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException data is null
+     */
+    public boolean update(long key, D newData) {
+        return updatekey(key, newData);
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     */
+    public D getData(long key) {
+        return datakey(key);
+    }
+
+    /**
+     * returns the minimum key
+     *
+     * @return the minimum key
+     * @throws NoSuchElementException if empty
+     */
+    public long getMinKey() {
+        return keys[extreme(false)];
+    }
+
+    /**
+     * returns the maximum key
+     *
+     * @return the maximum key
+     * @throws NoSuchElementException if empty
+     */
+    public long getMaxKey() {
+        return keys[extreme(true)];
+    }
+
+    /**
+     * returns the keys in accending order
+     *
+     * @param allowDuplicate if Duplicates are allowed
+     * @return an array of the keys
+     */
+    public long[] getAllKeys(boolean allowDuplicate) {
+        return tokeys(collect(0, 0, false, allowDuplicate));
+    }
+
+    /**
+     * returns all unique keys between lower (exclusive) and upper (exclusive).
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return an array of the keys in accending order
+     */
+    public long[] getUniqueKeysInRange(long lower, long upper) {
+        return tokeys(collect(lower, upper, true, false));
+    }
+
+    /**
+     * returns the keys of the nodes
+     *
+     * @param nodes the node numbers from collect
+     * @return the keys in the same order
+     */
+    private long[] tokeys(int[] nodes) {
+        long[] result = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = keys[nodes[i]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+
+import java.util.*;
+
+/**
+ * merges iterators that each return keys in accending order into one
+ * iterator in accending order (k-way merge). equal keys from different
+ * iterators are all returned, the ones of the earlier iterator first.
+ * every next costs O(log k) for k iterators.
+ */
+public class MergeIterator<K extends Comparable<? super K>> implements Iterator<K> {
+
+    /**
+     * the next key of one of the iterators
+     */
+    private static class Head<K> {
+        K key;
+        final Iterator<K> it;
+        final int source; // position of the iterator, breaks ties
+
+        Head(K key, Iterator<K> it, int source) {
+            this.key = key;
+            this.it = it;
+            this.source = source;
+        }
+    }
+
+    private final PriorityQueue<Head<K>> heads;
+
+    /**
+     * constructor of MergeIterator
+     *
+     * @param iterators the iterators to merge, each in accending order
+     * @throws NullPointerException an iterator is null
+     */
+    public MergeIterator(List<? extends Iterator<K>> iterators) {
+        this.heads = new PriorityQueue<>(Math.max(1, iterators.size()), (a, b) -> {
+            int cmp = a.key.compareTo(b.key);
+            return cmp != 0 ? cmp : Integer.compare(a.source, b.source);
+        });
+        for (int i = 0; i < iterators.size(); i++) {
+            Iterator<K> it = iterators.get(i);
+            if (it.hasNext()) {
+                heads.add(new Head<>(it.next(), it, i));
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    public K next() {
+        Head<K> head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        K result = head.key;
+        if (head.it.hasNext()) {
+            head.key = head.it.next();
+            heads.add(head);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,783 @@
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * DAFIndex that keeps its tree nodes, hash slots and encoded keys and data
+ * in direct byte buffers outside of the java heap, so the garbage
+ * collector only sees a few buffer objects no matter how many keys are
+ * stored. keys and data are turned into bytes by the given codecs and are
+ * decoded again when they are compared or returned.
+ *
+ * a node is a fixed size record in the node arena, node 0 stands for null.
+ * keys and data bytes are appended to the blob arena, which is compacted
+ * once more than half of it belongs to removed keys. all arenas are split
+ * into segments of direct buffers, so they are not bound to the 2GB of a
+ * single buffer and growing them adds a segment instead of copying everything.
+ */
+public class OffHeapDAFIndex<K extends Comparable<? super K>, D> implements DAFIndex<K, D> {
+    private static final int minimumthreshold = 10;
+    private static final int doublesize = 2;
+    private static final double lfactormax = 0.66667;
+    private static final int averageblob = 16; // bytes reserved per key for the blob arena
+    private static final int segmentbits = 16; // a node or slot segment holds 1 << segmentbits records
+    private static final int segmentrecords = 1 << segmentbits;
+    private static final int segmentmask = segmentrecords - 1;
+    private static final int blobsegment = 1 << 24; // bytes of a blob segment
+
+    // byte offsets of the fields of a node record, a blob address is the
+    // segment in the upper and the offset in the lower half of a long
+    private static final int keyoff = 0;
+    private static final int dataoff = 8;
+    private static final int keylen = 16;
+    private static final int datalen = 20;
+    private static final int count = 24;
+    private static final int left = 28;
+    private static final int right = 32;
+    private static final int height = 36;
+    private static final int hash = 40;
+    private static final int nodesize = 44;
+
+    private DAFCodec<K> keycodec;
+    private DAFCodec<D> datacodec;
+
+    private Records nodes;
+    private ByteBuffer[] blobs;
+    private int nblobs; // segments of blobs in use, keys are appended to the last one
+    private Records slots; // linear probing hash index of node numbers, 0 is empty
+    private int nslots;
+    private int blobend; // first free byte of the last blob segment
+    private long blobused; // bytes of the blob arena handed out so far
+    private long garbage; // bytes of the blob arena that belong to nothing
+    private int root;
+    private int nextnode = 1; // first node number that was never used
+    private int freenode; // head of the free list chained through left, 0 if empty
+    private int nKeys;
+    private int nElems;
+    private int nUnique; // number of keys whose count is exactly 1
+
+    /**
+     * constructor of OffHeapDAFIndex
+     *
+     * @param capacity the number of keys to reserve space for
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     * @throws NullPointerException a codec is null
+     */
+    public OffHeapDAFIndex(int capacity, DAFCodec<K> keycodec, DAFCodec<D> datacodec) {
+        if (capacity < minimumthreshold) {
+            throw new IllegalArgumentException();
+        }
+        if (keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        this.keycodec = keycodec;
+        this.datacodec = datacodec;
+        this.nodes = new Records((long) capacity + 1, nodesize);
+        this.blobs = new ByteBuffer[] {
+            ByteBuffer.allocateDirect((int) Math.min((long) capacity * averageblob, blobsegment))};
+        this.nblobs = 1;
+        this.nslots = Integer.highestOneBit(capacity - 1) << 1; // power of two for masking
+        this.slots = new Records(nslots, Integer.BYTES);
+    }
+
+    private int get(int node, int field) {
+        return nodes.getInt(node, field);
+    }
+
+    private void set(int node, int field, int value) {
+        nodes.putInt(node, field, value);
+    }
+
+    private int slot(int i) {
+        return slots.getInt(i, 0);
+    }
+
+    private void setslot(int i, int node) {
+        slots.putInt(i, 0, node);
+    }
+
+    private static int segment(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private K key(int node) {
+        long address = nodes.getLong(node, keyoff);
+        return keycodec.read(blobs[segment(address)], offset(address), get(node, keylen));
+    }
+
+    private D data(int node) {
+        long address = nodes.getLong(node, dataoff);
+        return datacodec.read(blobs[segment(address)], offset(address), get(node, datalen));
+    }
+
+    /**
+     * returns the number of keys
+     * @return nElems
+     */
+    public int size() {
+        return nElems;
+    }
+
+    /**
+     * returns the total number of unique keys
+     *
+     * @return int
+     */
+    public int nUniqueKeys() {
+        return nUnique;
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int h = hashValue(key);
+        int i = findslot(key, h);
+        if (i != -1) {
+            int node = slot(i);
+            recount(get(node, count), get(node, count) + nCopy);
+            set(node, count, get(node, count) + nCopy);
+            this.nElems += nCopy;
+            return false;
+        }
+        if (nKeys + 1 > lfactormax * nslots) {
+            rehash();
+        }
+        int node = newnode(key, data, nCopy, h);
+        this.root = insertnode(root, node, key);
+        addslot(node);
+        this.nKeys++;
+        recount(0, nCopy);
+        this.nElems += nCopy;
+        return true;
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int i = findslot(key, hashValue(key));
+        return i == -1 ? 0 : get(slot(i), count);
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int i = findslot(key, hashValue(key));
+        return i == -1 ? null : data(slot(i));
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int i = findslot(key, hashValue(key));
+        if (i == -1) {
+            return false;
+        }
+        int node = slot(i);
+        int before = get(node, count);
+        int after = before - Math.min(nCopy, before);
+        recount(before, after);
+        set(node, count, after);
+        this.nElems -= before - after;
+        if (after == 0) {
+            // if no copy is left the key leaves the tree and the hash index
+            deleteslot(i);
+            this.root = removenode(root, key);
+            freenode(node);
+            this.nKeys--;
+        }
+        return true;
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key the key to remove
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        return remove(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * replaces the data of the key, the bytes are rewritten in place
+     * when the new data is not longer than the old one
+     *
+     * @param key the key to update
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data are null
+     */
+    public boolean update(K key, D newData) {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        int i = findslot(key, hashValue(key));
+        if (i == -1) {
+            return false;
+        }
+        int node = slot(i);
+        int length = datacodec.size(newData);
+        if (length <= get(node, datalen)) {
+            this.garbage += get(node, datalen) - length;
+            long address = nodes.getLong(node, dataoff);
+            datacodec.write(blobs[segment(address)], offset(address), newData);
+        } else {
+            long address = allocblob(length);
+            this.garbage += get(node, datalen); // the old bytes are left behind
+            datacodec.write(blobs[segment(address)], offset(address), newData);
+            nodes.putLong(node, dataoff, address);
+        }
+        set(node, datalen, length);
+        return true;
+    }
+
+    /**
+     * returns the most extreme key
+     *
+     * @param isMax If isMax is true return the max key; otherwise,return the min.
+     * @return the key, null if empty
+     */
+    public K findExtreme(boolean isMax) {
+        if (root == 0) {
+            return null;
+        }
+        int node = root;
+        int side = isMax ? right : left;
+        while (get(node, side) != 0) {
+            node = get(node, side);
+        }
+        return key(node);
+    }
+
+    /**
+     * returns an iterator over the keys between lower (exclusive) and
+     * upper (exclusive) in accending order, keys are decoded as they are reached
+     *
+     * @param lower the lower bound, null for no bound
+     * @param upper the upper bound, null for no bound
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     * @return the iterator
+     */
+    public Iterator<K> iterator(K lower, K upper, boolean allowDuplicate) {
+        return new OffHeapIterator(lower, upper, allowDuplicate);
+    }
+
+    /**
+     * OffHeapIterator
+     * in order walk that keeps node numbers on an int stack
+     */
+    public class OffHeapIterator implements Iterator<K> {
+        int[] stack;
+        int top;
+        K lower, upper;
+        boolean allowDuplicate;
+        int parr = 0; // copies of multi that are left to return
+        K multi;
+
+        /**
+         * constructor of OffHeapIterator
+         *
+         * @param lower the lower bound, null for no bound
+         * @param upper the upper bound, null for no bound
+         * @param allowDuplicate if false only the keys with count 1 are returned
+         */
+        public OffHeapIterator(K lower, K upper, boolean allowDuplicate) {
+            this.stack = new int[get(root, height) + 1];
+            this.lower = lower;
+            this.upper = upper;
+            this.allowDuplicate = allowDuplicate;
+            pushleft(root);
+            advance();
+        }
+
+        private void pushleft(int node) {
+            while (node != 0) {
+                if (lower != null && key(node).compareTo(lower) <= 0) {
+                    node = get(node, right);
+                } else {
+                    this.stack[top++] = node;
+                    node = get(node, left);
+                }
+            }
+        }
+
+        /**
+         * moves to the next node inside the range that passes the filter
+         */
+        private void advance() {
+            while (top > 0) {
+                int node = stack[--top];
+                K key = key(node);
+                if (upper != null && key.compareTo(upper) >= 0) {
+                    this.top = 0;
+                    break;
+                }
+                pushleft(get(node, right));
+                int c = get(node, count);
+                if (c == 1 || (allowDuplicate && c > 1)) {
+                    this.multi = key;
+                    this.parr = allowDuplicate ? c : 1;
+                    return;
+                }
+            }
+            this.parr = 0;
+        }
+
+        public boolean hasNext() {
+            return parr > 0;
+        }
+
+        /**
+         * returns the next key
+         *
+         * @return the next key
+         * @throws NoSuchElementException when there is no element left
+         */
+        public K next() {
+            if (parr == 0) {
+                throw new NoSuchElementException();
+            }
+            K key = multi;
+            this.parr--;
+            if (parr == 0) {
+                advance();
+            }
+            return key;
+        }
+    }
+
+    /**
+     * helper method to keep nUnique right when the count of a key changes
+     *
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    private void recount(int before, int after) {
+        if (before == 1) {
+            this.nUnique--;
+        }
+        if (after == 1) {
+            this.nUnique++;
+        }
+    }
+
+    private int hashValue(K key) {
+        return (int) (HashTable.mix(key.hashCode()) >>> 32);
+    }
+
+    /**
+     * finds the slot that holds the key, keys are only decoded when the
+     * stored hash matches
+     *
+     * @param key the key to look for
+     * @param h the hash value of the key
+     * @return int the index of the slot or -1 if key is not in the index
+     */
+    private int findslot(K key, int h) {
+        int mask = nslots - 1;
+        for (int i = h & mask; slot(i) != 0; i = (i + 1) & mask) {
+            int node = slot(i);
+            if (get(node, hash) == h && key(node).equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addslot(int node) {
+        int mask = nslots - 1;
+        int i = get(node, hash) & mask;
+        while (slot(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        setslot(i, node);
+    }
+
+    /**
+     * empties the slot and moves back the following entries that
+     * would not be found anymore because of the gap
+     *
+     * @param i the slot to empty
+     */
+    private void deleteslot(int i) {
+        int mask = nslots - 1;
+        for (int j = (i + 1) & mask; slot(j) != 0; j = (j + 1) & mask) {
+            int home = get(slot(j), hash) & mask;
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                setslot(i, slot(j));
+                i = j;
+            }
+        }
+        setslot(i, 0);
+    }
+
+    /**
+     * doubles the hash index
+     */
+    private void rehash() {
+        Records old = slots;
+        int oldslots = nslots;
+        this.nslots = oldslots * doublesize;
+        this.slots = new Records(nslots, Integer.BYTES);
+        for (int i = 0; i < oldslots; i++) {
+            int node = old.getInt(i, 0);
+            if (node != 0) {
+                addslot(node);
+            }
+        }
+    }
+
+    /**
+     * takes a node number from the free list or the end of the node arena
+     * and writes the key and data bytes to the blob arena
+     *
+     * @param key the key of the node
+     * @param d the data of the node
+     * @param nCopy the count of the node
+     * @param h the hash value of the key
+     * @return int the node number
+     */
+    private int newnode(K key, D d, int nCopy, int h) {
+        int klength = keycodec.size(key);
+        int dlength = datacodec.size(d);
+        // key and data share one blob so both are in the same segment
+        long address = allocblob(klength + dlength);
+        ByteBuffer buffer = blobs[segment(address)];
+        keycodec.write(buffer, offset(address), key);
+        datacodec.write(buffer, offset(address) + klength, d);
+        int node;
+        if (freenode != 0) {
+            node = freenode;
+            this.freenode = get(node, left);
+        } else {
+            nodes.ensure((long) nextnode + 1);
+            node = nextnode++;
+        }
+        nodes.putLong(node, keyoff, address);
+        set(node, keylen, klength);
+        nodes.putLong(node, dataoff, address + klength);
+        set(node, datalen, dlength);
+        set(node, count, nCopy);
+        set(node, left, 0);
+        set(node, right, 0);
+        set(node, height, 1);
+        set(node, hash, h);
+        return node;
+    }
+
+    private void freenode(int node) {
+        this.garbage += get(node, keylen) + get(node, datalen);
+        set(node, left, freenode);
+        this.freenode = node;
+    }
+
+    /**
+     * reserves length bytes at the end of the blob arena, compacting it
+     * first when the last segment is full and most of the arena is garbage
+     *
+     * @param length the number of bytes
+     * @return long the address of the reserved bytes
+     */
+    private long allocblob(int length) {
+        if ((long) blobend + length > blobs[nblobs - 1].capacity() && garbage > blobused / 2) {
+            compact();
+        }
+        return reserve(length);
+    }
+
+    /**
+     * reserves length bytes at the end of the last blob segment, a blob never
+     * spans two segments so the codecs can read it from one buffer
+     *
+     * @param length the number of bytes
+     * @return long the address of the reserved bytes
+     */
+    private long reserve(int length) {
+        ByteBuffer last = blobs[nblobs - 1];
+        if ((long) blobend + length > last.capacity()) {
+            long capacity = last.capacity();
+            while (capacity < (long) blobend + length && capacity < blobsegment) {
+                capacity *= doublesize;
+            }
+            if (nblobs == 1 && (long) blobend + length <= Math.min(capacity, blobsegment)) {
+                // the first segment doubles until it is full size, its addresses stay the same
+                this.blobs[0] = grow(last, (int) Math.min(capacity, blobsegment));
+            } else {
+                // the rest of the last segment is skipped
+                this.garbage += last.capacity() - blobend;
+                this.blobused += last.capacity() - blobend;
+                if (nblobs == blobs.length) {
+                    this.blobs = Arrays.copyOf(blobs, nblobs * doublesize);
+                }
+                this.blobs[nblobs++] = ByteBuffer.allocateDirect(Math.max(blobsegment, length));
+                this.blobend = 0;
+            }
+        }
+        long address = (long) (nblobs - 1) << 32 | blobend;
+        this.blobend += length;
+        this.blobused += length;
+        return address;
+    }
+
+    /**
+     * copies the bytes of the live nodes into a fresh blob arena
+     */
+    private void compact() {
+        ByteBuffer[] old = blobs;
+        this.blobs = new ByteBuffer[] {
+            ByteBuffer.allocateDirect((int) Math.max(Math.min(blobused - garbage, blobsegment), averageblob))};
+        this.nblobs = 1;
+        this.blobend = 0;
+        this.blobused = 0;
+        this.garbage = 0;
+        for (int i = 0; i < nslots; i++) {
+            int node = slot(i);
+            if (node != 0) {
+                // key and data are copied separately, update may have moved the data
+                moveblob(old, node, keyoff, keylen);
+                moveblob(old, node, dataoff, datalen);
+            }
+        }
+    }
+
+    private void moveblob(ByteBuffer[] old, int node, int addressfield, int lenfield) {
+        long from = nodes.getLong(node, addressfield);
+        int length = get(node, lenfield);
+        long to = reserve(length);
+        ByteBuffer source = old[segment(from)].duplicate();
+        source.limit(offset(from) + length);
+        source.position(offset(from));
+        ByteBuffer target = blobs[segment(to)].duplicate();
+        target.position(offset(to));
+        target.put(source);
+        nodes.putLong(node, addressfield, to);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        bigger.put(source);
+        bigger.clear();
+        return bigger;
+    }
+
+    /**
+     * helper method that adds a new node under node and rebalances
+     *
+     * @param node the root of the subtree
+     * @param newnode the node to add
+     * @param key the key of the new node, it is not in the tree
+     * @return the new root of the subtree
+     */
+    private int insertnode(int node, int newnode, K key) {
+        if (node == 0) {
+            return newnode;
+        }
+        if (key(node).compareTo(key) < 0) {
+            set(node, right, insertnode(get(node, right), newnode, key));
+        } else {
+            set(node, left, insertnode(get(node, left), newnode, key));
+        }
+        return balance(node);
+    }
+
+    /**
+     * helper method that unlinks the node with the key from the subtree
+     *
+     * @param node the root of the subtree
+     * @param key the key to remove, it is in the subtree
+     * @return the new root of the subtree
+     */
+    private int removenode(int node, K key) {
+        int cmp = key(node).compareTo(key);
+        if (cmp < 0) {
+            set(node, right, removenode(get(node, right), key));
+            return balance(node);
+        } else if (cmp > 0) {
+            set(node, left, removenode(get(node, left), key));
+            return balance(node);
+        }
+        if (get(node, left) == 0) {
+            return get(node, right);
+        } else if (get(node, right) == 0) {
+            return get(node, left);
+        }
+        // successor (leftmost node of right subtree) takes its place
+        int suc = get(node, right);
+        while (get(suc, left) != 0) {
+            suc = get(suc, left);
+        }
+        set(suc, right, removemin(get(node, right)));
+        set(suc, left, get(node, left));
+        return balance(suc);
+    }
+
+    private int removemin(int node) {
+        if (get(node, left) == 0) {
+            return get(node, right);
+        }
+        set(node, left, removemin(get(node, left)));
+        return balance(node);
+    }
+
+    private void update(int node) {
+        set(node, height, Math.max(get(get(node, left), height), get(get(node, right), height)) + 1);
+    }
+
+    /**
+     * restores the avl property of the node with at most two rotations
+     *
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private int balance(int node) {
+        update(node);
+        int l = get(node, left);
+        int r = get(node, right);
+        int diff = get(l, height) - get(r, height);
+        if (diff > 1) {
+            if (get(get(l, left), height) < get(get(l, right), height)) {
+                set(node, left, rotateleft(l));
+            }
+            return rotateright(node);
+        } else if (diff < -1) {
+            if (get(get(r, right), height) < get(get(r, left), height)) {
+                set(node, right, rotateright(r));
+            }
+            return rotateleft(node);
+        }
+        return node;
+    }
+
+    private int rotateleft(int node) {
+        int child = get(node, right);
+        set(node, right, get(child, left));
+        set(child, left, node);
+        update(node);
+        update(child);
+        return child;
+    }
+
+    private int rotateright(int node) {
+        int child = get(node, left);
+        set(node, left, get(child, right));
+        set(child, right, node);
+        update(node);
+        update(child);
+        return child;
+    }
+
+    /**
+     * fixed size records in direct buffers of segmentrecords records each.
+     * a record never spans two buffers and growing only adds a buffer, just
+     * the first one starts smaller and doubles until it is full size
+     */
+    private static final class Records {
+        private final int stride;
+        private ByteBuffer[] segments;
+        private long capacity; // number of records there is space for
+
+        Records(long capacity, int stride) {
+            this.stride = stride;
+            this.capacity = Math.min(capacity, segmentrecords);
+            this.segments = new ByteBuffer[] {ByteBuffer.allocateDirect((int) this.capacity * stride)};
+            ensure(capacity);
+        }
+
+        int getInt(int record, int field) {
+            return segments[record >>> segmentbits].getInt((record & segmentmask) * stride + field);
+        }
+
+        void putInt(int record, int field, int value) {
+            segments[record >>> segmentbits].putInt((record & segmentmask) * stride + field, value);
+        }
+
+        long getLong(int record, int field) {
+            return segments[record >>> segmentbits].getLong((record & segmentmask) * stride + field);
+        }
+
+        void putLong(int record, int field, long value) {
+            segments[record >>> segmentbits].putLong((record & segmentmask) * stride + field, value);
+        }
+
+        /**
+         * makes room for the records 0 to records (exclusive)
+         *
+         * @param records the number of records needed
+         */
+        void ensure(long records) {
+            if (records <= capacity) {
+                return;
+            }
+            if (segments.length == 1 && capacity < segmentrecords) {
+                long size = capacity;
+                while (size < records && size < segmentrecords) {
+                    size *= doublesize;
+                }
+                this.capacity = Math.min(size, segmentrecords);
+                this.segments[0] = grow(segments[0], (int) capacity * stride);
+            }
+            if (capacity < records) {
+                int n = segments.length;
+                int more = (int) ((records - capacity + segmentmask) >>> segmentbits);
+                this.segments = Arrays.copyOf(segments, n + more);
+                for (int i = n; i < n + more; i++) {
+                    this.segments[i] = ByteBuffer.allocateDirect(segmentrecords * stride);
+                }
+                this.capacity += (long) more * segmentrecords;
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+import java.util.*;
+
+/**
+ * the part of IntFADAF and LongFADAF that does not depend on the key type.
+ * counts and child links are kept in primitive arrays indexed by node number
+ * and the hash index maps a key to its node number. the subclass keeps the
+ * keys in a primitive array of its own type and hands them to this class
+ * widened to long, which holds every int and long key exactly and keeps
+ * their order, so no key is boxed.
+ */
+abstract class PrimitiveFADAF<D> {
+    private static final int minimumthreshold = 10;
+    private static final int doublesize = 2;
+    private static final double lfactormax = 0.66667;
+    private static final int rangecapacity = 16; // first size of a range result, it doubles
+
+    // avl tree stored by node number, node 0 stands for null
+    // freed nodes are chained through left so their numbers are reused
+    private int[] counts;
+    private int[] left;
+    private int[] right;
+    private int[] heights;
+    private Object[] data;
+    private int root;
+    private int nextnode = 1; // first node number that was never used
+    private int freenode; // head of the free list, 0 if empty
+
+    // linear probing hash index from key to node number, 0 is an empty slot
+    private int[] slots;
+    private int nKeys; // number of distinct keys
+    private int nElems;
+    private int nUnique; // number of keys whose count is exactly 1
+
+    /**
+     * A constructor that initializes the nodes and the hash index, the
+     * subclass makes its key array capacity + 1 long
+     *
+     * @param capacity the initial capacity for the keys
+     * @throws IllegalArgumentException when capacity less then minimumthreshold
+     */
+    PrimitiveFADAF(int capacity) {
+        if (capacity < minimumthreshold) {
+            throw new IllegalArgumentException();
+        }
+        this.counts = new int[capacity + 1];
+        this.left = new int[capacity + 1];
+        this.right = new int[capacity + 1];
+        this.heights = new int[capacity + 1];
+        this.data = new Object[capacity + 1];
+        int nslots = Integer.highestOneBit(capacity - 1) << 1; // power of two for masking
+        this.slots = new int[nslots];
+    }
+
+    /**
+     * returns the key of the node
+     *
+     * @param node the node number
+     * @return long the key widened to long
+     */
+    abstract long key(int node);
+
+    /**
+     * stores the key of the node, it fits the key type of the subclass
+     *
+     * @param node the node number
+     * @param key the key widened to long
+     */
+    abstract void setkey(int node, long key);
+
+    /**
+     * grows the key array to length
+     *
+     * @param length the new length
+     */
+    abstract void growkeys(int length);
+
+    /**
+     *  returns the total number of keys stored, including duplicates
+     *
+     * @return int total number of keys
+     */
+    public int size() {
+        return nElems;
+    }
+
+    /**
+     * returns the total number of unique keys stored.
+     *
+     * @return int number of keys with count 1
+     */
+    public int nUniqueKeys() {
+        return nUnique;
+    }
+
+    /**
+     * inserts key nCopy times
+     *
+     * @param key the key to insert
+     * @param d the data for the key, only kept for a new key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException data is null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    final boolean insertkey(long key, D d, int nCopy) {
+        if (d == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int slot = findslot(key);
+        if (slot != -1) {
+            //if the key already exsits it implements the count
+            int node = slots[slot];
+            recount(counts[node], counts[node] + nCopy);
+            this.counts[node] += nCopy;
+            this.nElems += nCopy;
+            return false;
+        }
+        if (nKeys + 1 > lfactormax * slots.length) {
+            rehash();
+        }
+        int node = newnode(key, d, nCopy);
+        this.root = insertnode(root, node);
+        addslot(node);
+        this.nKeys++;
+        recount(0, nCopy);
+        this.nElems += nCopy;
+        return true;
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key, 0 if key is not present
+     */
+    final int lookupkey(long key) {
+        int slot = findslot(key);
+        return slot == -1 ? 0 : counts[slots[slot]];
+    }
+
+    /**
+     * removes the key nCopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove, Integer.MAX_VALUE for every copy
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     */
+    final boolean removekey(long key, int nCopy) {
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int slot = findslot(key);
+        if (slot == -1) {
+            return false;
+        }
+        int node = slots[slot];
+        int removed = Math.min(nCopy, counts[node]); // count never goes below 0
+        recount(counts[node], counts[node] - removed);
+        this.counts[node] -= removed;
+        this.nElems -= removed;
+        if (counts[node] == 0) {
+            // if no copy is left the key leaves the tree and the hash index
+            deleteslot(slot);
+            this.root = removenode(root, key);
+            freenode(node);
+            this.nKeys--;
+        }
+        return true;
+    }
+
+    /**
+     * updates the data associated with the key to newData
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException data is null
+     */
+    final boolean updatekey(long key, D newData) {
+        if (newData == null) {
+            throw new NullPointerException();
+        }
+        int slot = findslot(key);
+        if (slot == -1) {
+            return false;
+        }
+        this.data[slots[slot]] = newData;
+        return true;
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data, null if key is not present
+     */
+    @SuppressWarnings("unchecked")
+    final D datakey(long key) {
+        int slot = findslot(key);
+        return slot == -1 ? null : (D) data[slots[slot]];
+    }
+
+    /**
+     * returns the node of the minimum or the maximum key
+     *
+     * @param max true for the maximum key
+     * @return int the node number
+     * @throws NoSuchElementException if empty
+     */
+    final int extreme(boolean max) {
+        if (root == 0) {
+            throw new NoSuchElementException();
+        }
+        int[] child = max ? right : left;
+        int node = root;
+        while (child[node] != 0) {
+            node = child[node];
+        }
+        return node;
+    }
+
+    /**
+     * helper method that walks the tree in order, seeking to lower and
+     * stopping at upper when bounded
+     *
+     * @param lower the lower bound (exclusive)
+     * @param upper the upper bound (exclusive)
+     * @param bounded if false the bounds are ignored
+     * @param allowDuplicate if false only the keys with count 1 are returned
+     * @return an array of the node numbers, a node is repeated once for each copy
+     */
+    final int[] collect(long lower, long upper, boolean bounded, boolean allowDuplicate) {
+        // a range is usually a small part of the keys, so its result starts
+        // small and grows instead of being sized for every key
+        int[] result = new int[bounded ? Math.min(rangecapacity, nUnique)
+                : allowDuplicate ? nElems : nUnique];
+        int n = 0;
+        int[] stack = new int[heights[root] + 1];
+        int top = 0;
+        int node = root;
+        while (node != 0 || top > 0) {
+            while (node != 0) {
+                if (bounded && key(node) <= lower) {
+                    node = right[node];
+                } else {
+                    stack[top++] = node;
+                    node = left[node];
+                }
+            }
+            if (top == 0) {
+                break;
+            }
+            node = stack[--top];
+            if (bounded && key(node) >= upper) {
+                break;
+            }
+            if (allowDuplicate) {
+                for (int i = 0; i < counts[node]; i++) {
+                    result[n++] = node;
+                }
+            } else if (counts[node] == 1) {
+                if (n == result.length) {
+                    // at most nUnique keys can be returned
+                    result = Arrays.copyOf(result, Math.min(Math.max(1, n * doublesize), nUnique));
+                }
+                result[n++] = node;
+            }
+            node = right[node];
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * helper method to keep nUnique right when the count of a key changes
+     *
+     * @param before the count before the change, 0 for a new key
+     * @param after the count after the change, 0 for a removed key
+     */
+    private void recount(int before, int after) {
+        if (before == 1) {
+            this.nUnique--;
+        }
+        if (after == 1) {
+            this.nUnique++;
+        }
+    }
+
+    /**
+     * mixes the bits of the key so nearby keys spread over the slots
+     *
+     * @param key the key
+     * @return int the hash value
+     */
+    private static int hashValue(long key) {
+        return (int) (HashTable.mix(key) >>> 32);
+    }
+
+    /**
+     * finds the slot that holds the key
+     *
+     * @param key the key to look for
+     * @return int the index of the slot or -1 if key is not in the index
+     */
+    private int findslot(long key) {
+        int mask = slots.length - 1;
+        for (int i = hashValue(key) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (key(slots[i]) == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addslot(int node) {
+        int mask = slots.length - 1;
+        int i = hashValue(key(node)) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.slots[i] = node;
+    }
+
+    /**
+     * empties the slot and moves back the following entries that
+     * would not be found anymore because of the gap
+     *
+     * @param i the slot to empty
+     */
+    private void deleteslot(int i) {
+        int mask = slots.length - 1;
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = hashValue(key(slots[j])) & mask;
+            // the entry at j can fill the gap if its home is not between the gap and j
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                this.slots[i] = slots[j];
+                i = j;
+            }
+        }
+        this.slots[i] = 0;
+    }
+
+    /**
+     * doubles the hash index
+     */
+    private void rehash() {
+        int[] old = slots;
+        this.slots = new int[old.length * doublesize];
+        for (int node : old) {
+            if (node != 0) {
+                addslot(node);
+            }
+        }
+    }
+
+    /**
+     * takes a node number from the free list or the end of the arrays
+     *
+     * @param key the key of the node
+     * @param d the data of the node
+     * @param nCopy the count of the node
+     * @return int the node number
+     */
+    private int newnode(long key, D d, int nCopy) {
+        int node;
+        if (freenode != 0) {
+            node = freenode;
+            this.freenode = left[node];
+        } else {
+            if (nextnode == counts.length) {
+                grownodes();
+            }
+            node = nextnode++;
+        }
+        setkey(node, key);
+        this.counts[node] = nCopy;
+        this.left[node] = 0;
+        this.right[node] = 0;
+        this.heights[node] = 1;
+        this.data[node] = d;
+        return node;
+    }
+
+    private void freenode(int node) {
+        this.data[node] = null;
+        this.left[node] = freenode;
+        this.freenode = node;
+    }
+
+    private void grownodes() {
+        int length = counts.length * doublesize;
+        growkeys(length);
+        this.counts = Arrays.copyOf(counts, length);
+        this.left = Arrays.copyOf(left, length);
+        this.right = Arrays.copyOf(right, length);
+        this.heights = Arrays.copyOf(heights, length);
+        this.data = Arrays.copyOf(data, length);
+    }
+
+    /**
+     * helper method that adds a new node under node and rebalances
+     *
+     * @param node the root of the subtree
+     * @param newnode the node to add, its key is not in the tree
+     * @return the new root of the subtree
+     */
+    private int insertnode(int node, int newnode) {
+        if (node == 0) {
+            return newnode;
+        }
+        if (key(node) < key(newnode)) {
+            this.right[node] = insertnode(right[node], newnode);
+        } else {
+            this.left[node] = insertnode(left[node], newnode);
+        }
+        return balance(node);
+    }
+
+    /**
+     * helper method that unlinks the node with the key from the subtree
+     *
+     * @param node the root of the subtree
+     * @param key the key to remove, it is in the subtree
+     * @return the new root of the subtree
+     */
+    private int removenode(int node, long key) {
+        if (key(node) < key) {
+            this.right[node] = removenode(right[node], key);
+            return balance(node);
+        } else if (key(node) > key) {
+            this.left[node] = removenode(left[node], key);
+            return balance(node);
+        }
+        if (left[node] == 0) {
+            return right[node];
+        } else if (right[node] == 0) {
+            return left[node];
+        }
+        // successor (leftmost node of right subtree) takes its place
+        int suc = right[node];
+        while (left[suc] != 0) {
+            suc = left[suc];
+        }
+        this.right[suc] = removemin(right[node]);
+        this.left[suc] = left[node];
+        return balance(suc);
+    }
+
+    private int removemin(int node) {
+        if (left[node] == 0) {
+            return right[node];
+        }
+        this.left[node] = removemin(left[node]);
+        return balance(node);
+    }
+
+    private void update(int node) {
+        this.heights[node] = Math.max(heights[left[node]], heights[right[node]]) + 1;
+    }
+
+    /**
+     * restores the avl property of the node with at most two rotations
+     *
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private int balance(int node) {
+        update(node);
+        int diff = heights[left[node]] - heights[right[node]];
+        if (diff > 1) {
+            if (heights[left[left[node]]] < heights[right[left[node]]]) {
+                this.left[node] = rotateleft(left[node]);
+            }
+            return rotateright(node);
+        } else if (diff < -1) {
+            if (heights[right[right[node]]] < heights[left[right[node]]]) {
+                this.right[node] = rotateright(right[node]);
+            }
+            return rotateleft(node);
+        }
+        return node;
+    }
+
+    private int rotateleft(int node) {
+        int child = right[node];
+        this.right[node] = left[child];
+        this.left[child] = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+    private int rotateright(int node) {
+        int child = left[node];
+        this.left[node] = right[child];
+        this.right[child] = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+}
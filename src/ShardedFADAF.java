@@ -0,0 +1,319 @@
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FADAF split into a fixed number of shards for use from many threads.
+ * every key belongs to the shard picked by its hash, so insert, lookup,
+ * remove and update only lock that shard and threads working on different
+ * shards do not wait for each other. the shards hold disjoint keys, so a
+ * key that is unique in its shard is unique overall and size and
+ * nUniqueKeys are sums. getAllKeys and getUniqueKeysInRange merge the
+ * sorted keys of the shards with a MergeIterator while every shard is
+ * locked, getMinKey and getMaxKey compare the ends of the shards.
+ */
+public class ShardedFADAF<K extends Comparable<? super K>, D> {
+    private static final int minimumcapacity = 10; // the smallest capacity a FADAF takes
+
+    private final FADAF<K, D>[] shards;
+    private final ReentrantLock[] locks;
+
+    /**
+     * A constructor that initializes a ShardedFADAF
+     *
+     * @param nShards the number of shards, fixed from now on
+     * @param capacity the initial capacity of all hashtables together, every
+     * shard gets at least the minimum capacity of a FADAF
+     * @throws IllegalArgumentException nShards is less than 1
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedFADAF(int nShards, int capacity) {
+        if (nShards < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.shards = new FADAF[nShards];
+        this.locks = new ReentrantLock[nShards];
+        for (int i = 0; i < nShards; i++) {
+            this.shards[i] = new FADAF<>(Math.max(minimumcapacity, capacity / nShards));
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * returns the number of shards
+     *
+     * @return int the number of shards
+     */
+    public int nShards() {
+        return shards.length;
+    }
+
+    /**
+     * returns the shard of the key. the hash is mixed first since the
+     * hashCode of Integer keys is the key itself
+     */
+    private int shard(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return (int) ((HashTable.mix(key.hashCode()) >>> 1) % shards.length);
+    }
+
+    /**
+     * returns the total number of keys stored, including duplicates
+     *
+     * @return int total number of keys
+     */
+    public int size() {
+        int result = 0;
+        for (int i = 0; i < shards.length; i++) {
+            locks[i].lock();
+            try {
+                result += shards[i].size();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the number of keys that are stored exactly once
+     *
+     * @return int number of unique keys
+     */
+    public int nUniqueKeys() {
+        int result = 0;
+        for (int i = 0; i < shards.length; i++) {
+            locks[i].lock();
+            try {
+                result += shards[i].nUniqueKeys();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * inserts key into its shard
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].insert(key, data, nCopy);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key
+     * @return int 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].lookup(key);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * removes the key ncopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].remove(key, nCopy);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].removeAll(key);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * updates the data of the key
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data is null
+     */
+    public boolean update(K key, D newData) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].update(key, newData);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * returns the data of the key
+     *
+     * @param key to look for
+     * @return D the data
+     * @return null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public D getData(K key) {
+        int i = shard(key);
+        locks[i].lock();
+        try {
+            return shards[i].getData(key);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * returns the keys in accending order
+     *
+     * @param allowDuplicate if Duplicates are allowed, otherwise only
+     * the keys that are stored once are returned
+     * @return a linkedlist of the keys
+     */
+    public List<K> getAllKeys(boolean allowDuplicate) {
+        lockall();
+        try {
+            ArrayList<Iterator<K>> iterators = new ArrayList<>(shards.length);
+            for (FADAF<K, D> shard : shards) {
+                iterators.add(shard.allKeys(allowDuplicate).iterator());
+            }
+            return drain(new MergeIterator<>(iterators));
+        } finally {
+            unlockall();
+        }
+    }
+
+    /**
+     * returns the keys between lower (exclusive) and upper (exclusive)
+     * that are stored once
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return a linkedlist of the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public List<K> getUniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        lockall();
+        try {
+            ArrayList<Iterator<K>> iterators = new ArrayList<>(shards.length);
+            for (FADAF<K, D> shard : shards) {
+                iterators.add(shard.uniqueKeysInRange(lower, upper).iterator());
+            }
+            return drain(new MergeIterator<>(iterators));
+        } finally {
+            unlockall();
+        }
+    }
+
+    /**
+     * returns the minimum key
+     *
+     * @return the minimum key
+     * @return null if empty
+     */
+    public K getMinKey() {
+        K result = null;
+        for (int i = 0; i < shards.length; i++) {
+            locks[i].lock();
+            try {
+                K key = shards[i].getMinKey();
+                if (key != null && (result == null || key.compareTo(result) < 0)) {
+                    result = key;
+                }
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the maximum key
+     *
+     * @return the maximum key
+     * @return null if empty
+     */
+    public K getMaxKey() {
+        K result = null;
+        for (int i = 0; i < shards.length; i++) {
+            locks[i].lock();
+            try {
+                K key = shards[i].getMaxKey();
+                if (key != null && (result == null || key.compareTo(result) > 0)) {
+                    result = key;
+                }
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * locks every shard, always in the same order so two callers can not deadlock
+     */
+    private void lockall() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockall() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    private static <K> List<K> drain(Iterator<K> it) {
+        LinkedList<K> result = new LinkedList<>();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,702 @@
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * FADAF that keeps most of its keys on disk, for more keys than fit in the heap,
+ * in the way of a log structured merge tree. changes go to a memtable, a small
+ * FADAF that holds for each key the change of its count (the delta) and its new
+ * data. when the memtable holds memtableKeys keys it is flushed to an immutable
+ * DAFRun in the directory and a new one is started. the runs are merged in
+ * tiers by size: going from the newest run to older ones, a run joins the
+ * stretch while it holds no more records than the stretch so far, and once a
+ * stretch has compactruns runs a background thread merges it into one, adding
+ * up the deltas of a key. a run is only rewritten once the newer runs have
+ * caught up with its size, so each rewrite at least doubles it and a key is
+ * rewritten about log2(keys / memtableKeys) times, not on every compaction.
+ * the keys whose count reached 0 are dropped when the oldest run takes part.
+ *
+ * lookup adds up the deltas of the memtable and the runs, most runs answer a
+ * miss from their BloomFilter and a hit reads one block of their sparse index.
+ * removes first look the count up so a delta never takes more than is stored.
+ * range queries, nUniqueKeys and getAllKeys merge the memtable and the runs
+ * in one pass with a MergeIterator.
+ *
+ * the memtable is only written by flush and close, keys changed after the last
+ * flush are lost in a crash. combine it with a FADAFJournal when they must not be.
+ * the methods are synchronized, compaction runs next to them and only holds
+ * the lock to swap the merged run in. a background compaction that fails
+ * leaves the runs as they were and is tried again after the next flush.
+ */
+public class TieredFADAF<K extends Comparable<? super K>, D> implements AutoCloseable {
+    private static final int defaultcapacity = 16;
+    private static final int compactruns = 4;
+
+    /**
+     * the change the memtable makes to a key
+     */
+    private static class Delta<D> {
+        D data; // null when only the count changed
+        int delta;
+    }
+
+    private final Path directory;
+    private final DAFCodec<K> keycodec;
+    private final DAFCodec<D> datacodec;
+    private final int memtablekeys;
+    private final ExecutorService compactor;
+
+    private FADAF<K, Delta<D>> memtable;
+    private List<DAFRun<K, D>> runs; // oldest first, replaced as a whole when it changes
+    private long nextsequence; // sequence of the next flush
+    private long total; // number of keys, including duplicates
+    private Future<?> compaction; // the last compaction that was started
+    private IOException compactionfailure; // of the last background compaction, null once one succeeds
+    private boolean closed;
+
+    /**
+     * opens the runs in the directory, creating it if needed
+     *
+     * @param directory the directory of the runs
+     * @param keycodec turns keys into bytes
+     * @param datacodec turns data into bytes
+     * @param memtableKeys the number of keys after which the memtable is flushed
+     * @return the opened TieredFADAF
+     * @throws IOException a run can not be read
+     * @throws NullPointerException an argument is null
+     * @throws IllegalArgumentException memtableKeys is less than 1
+     */
+    public static <K extends Comparable<? super K>, D> TieredFADAF<K, D> open(Path directory,
+            DAFCodec<K> keycodec, DAFCodec<D> datacodec, int memtableKeys) throws IOException {
+        if (directory == null || keycodec == null || datacodec == null) {
+            throw new NullPointerException();
+        }
+        if (memtableKeys < 1) {
+            throw new IllegalArgumentException();
+        }
+        Files.createDirectories(directory);
+        List<DAFRun<K, D>> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "run-*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(file); // left behind by a crash while it was written
+                } else {
+                    found.add(DAFRun.open(file, keycodec, datacodec));
+                }
+            }
+        }
+        // a crash during compaction can leave runs that are already in the merged run
+        List<DAFRun<K, D>> live = new ArrayList<>();
+        for (DAFRun<K, D> run : found) {
+            boolean merged = false;
+            for (DAFRun<K, D> other : found) {
+                if (other != run && other.minSequence() <= run.minSequence()
+                        && run.maxSequence() <= other.maxSequence()
+                        && (other.minSequence() != run.minSequence()
+                        || other.maxSequence() != run.maxSequence())) {
+                    merged = true;
+                }
+            }
+            if (merged) {
+                run.delete();
+            } else {
+                live.add(run);
+            }
+        }
+        live.sort(Comparator.comparingLong(DAFRun::maxSequence));
+        return new TieredFADAF<>(directory, keycodec, datacodec, memtableKeys, live);
+    }
+
+    private TieredFADAF(Path directory, DAFCodec<K> keycodec, DAFCodec<D> datacodec,
+            int memtablekeys, List<DAFRun<K, D>> runs) {
+        this.directory = directory;
+        this.keycodec = keycodec;
+        this.datacodec = datacodec;
+        this.memtablekeys = memtablekeys;
+        this.memtable = new FADAF<>(defaultcapacity);
+        this.runs = Collections.unmodifiableList(runs);
+        for (DAFRun<K, D> run : runs) {
+            this.total += run.total();
+            this.nextsequence = Math.max(nextsequence, run.maxSequence());
+        }
+        this.nextsequence++;
+        this.compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "TieredFADAF compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * returns the total number of keys, including duplicates
+     *
+     * @return long total number of keys
+     */
+    public synchronized long size() {
+        return total;
+    }
+
+    /**
+     * returns the number of keys that are stored exactly once,
+     * this merges every run
+     *
+     * @return int number of unique keys
+     */
+    public synchronized int nUniqueKeys() {
+        int[] result = {0};
+        merged(null, null, (key, count) -> {
+            if (count == 1) {
+                result[0]++;
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * returns the number of runs on disk
+     *
+     * @return int the number of runs
+     */
+    public synchronized int nRuns() {
+        return runs.size();
+    }
+
+    /**
+     * inserts key into the memtable
+     *
+     * @param key the key to insert
+     * @param data the data for the key, only kept if key is new
+     * @param nCopy the amount of times to count
+     * @return true if key is new, false if key already exists
+     * @throws IOException the memtable can not be flushed
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public synchronized boolean insert(K key, D data, int nCopy) throws IOException {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        check();
+        boolean isnew = lookup(key) == 0;
+        Delta<D> delta = delta(key);
+        delta.delta += nCopy;
+        if (isnew) {
+            delta.data = data;
+        }
+        this.total += nCopy;
+        flushfull();
+        return isnew;
+    }
+
+    /**
+     * returns the count of the key
+     *
+     * @param key to look for
+     * @return int the count of key
+     * @return int 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public synchronized int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int result = 0;
+        Delta<D> delta = memtable.getData(key);
+        if (delta != null) {
+            result += delta.delta;
+        }
+        for (DAFRun<K, D> run : runs) {
+            DAFRun.Record<K, D> record = run.find(key);
+            if (record != null) {
+                result += record.delta;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * removes the key ncopy times
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IOException the memtable can not be flushed
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public synchronized boolean remove(K key, int nCopy) throws IOException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        check();
+        int count = lookup(key);
+        if (count == 0) {
+            return false;
+        }
+        int removed = Math.min(count, nCopy);
+        delta(key).delta -= removed;
+        this.total -= removed;
+        flushfull();
+        return true;
+    }
+
+    /**
+     * removes every copy of the key
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     * @throws IOException the memtable can not be flushed
+     * @throws NullPointerException key is null
+     */
+    public synchronized boolean removeAll(K key) throws IOException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return remove(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * updates the data of the key
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws IOException the memtable can not be flushed
+     * @throws NullPointerException key or data is null
+     */
+    public synchronized boolean update(K key, D newData) throws IOException {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        check();
+        if (lookup(key) == 0) {
+            return false;
+        }
+        delta(key).data = newData;
+        flushfull();
+        return true;
+    }
+
+    /**
+     * returns the data of the key, from the newest tier that changed it
+     *
+     * @param key to look for
+     * @return D the data
+     * @return null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public synchronized D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int count = 0;
+        D result = null;
+        Delta<D> delta = memtable.getData(key);
+        if (delta != null) {
+            count += delta.delta;
+            result = delta.data;
+        }
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            DAFRun.Record<K, D> record = runs.get(i).find(key);
+            if (record != null) {
+                count += record.delta;
+                if (result == null) {
+                    result = record.data;
+                }
+            }
+        }
+        return count > 0 ? result : null;
+    }
+
+    /**
+     * returns the keys in accending order
+     *
+     * @param allowDuplicate if Duplicates are allowed, otherwise only
+     * the keys that are stored once are returned
+     * @return a linkedlist of the keys
+     */
+    public synchronized List<K> getAllKeys(boolean allowDuplicate) {
+        LinkedList<K> result = new LinkedList<>();
+        merged(null, null, (key, count) -> {
+            if (allowDuplicate) {
+                for (int i = 0; i < count; i++) {
+                    result.add(key);
+                }
+            } else if (count == 1) {
+                result.add(key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * returns the keys between lower (exclusive) and upper (exclusive)
+     * that are stored once
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return a linkedlist of the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public synchronized List<K> getUniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<K> result = new LinkedList<>();
+        merged(lower, upper, (key, count) -> {
+            if (count == 1) {
+                result.add(key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * returns the minimum key
+     *
+     * @return the minimum key
+     * @return null if empty
+     */
+    public synchronized K getMinKey() {
+        Iterator<DAFRun.Record<K, D>> records = records(null, null);
+        return records.hasNext() ? records.next().key : null;
+    }
+
+    /**
+     * returns the maximum key, the runs are only read forward so this merges all of them
+     *
+     * @return the maximum key
+     * @return null if empty
+     */
+    public synchronized K getMaxKey() {
+        K result = null;
+        Iterator<DAFRun.Record<K, D>> records = records(null, null);
+        while (records.hasNext()) {
+            result = records.next().key;
+        }
+        return result;
+    }
+
+    /**
+     * writes the memtable to a new run, even if it is not full
+     *
+     * @throws IOException the run can not be written
+     */
+    public synchronized void flush() throws IOException {
+        check();
+        if (memtable.size() == 0) {
+            return;
+        }
+        long sequence = nextsequence++;
+        Iterator<K> keys = memtable.allKeys(false).iterator();
+        Iterator<DAFRun.Record<K, D>> records = new Iterator<DAFRun.Record<K, D>>() {
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            public DAFRun.Record<K, D> next() {
+                K key = keys.next();
+                Delta<D> delta = memtable.getData(key);
+                return new DAFRun.Record<>(key, delta.data, delta.delta);
+            }
+        };
+        DAFRun<K, D> run = DAFRun.write(runpath(sequence, sequence), records, memtable.size(),
+                sequence, sequence, keycodec, datacodec);
+        List<DAFRun<K, D>> next = new ArrayList<>(runs);
+        next.add(run);
+        this.runs = Collections.unmodifiableList(next);
+        this.memtable = new FADAF<>(defaultcapacity);
+        if (tier(runs) != null && !compactor.isShutdown()
+                && (compaction == null || compaction.isDone())) {
+            this.compaction = compactor.submit(this::compacttiers);
+        }
+    }
+
+    /**
+     * merges every run into one and waits until it is done
+     *
+     * @throws IOException the merged run can not be written, the runs stay as they were
+     */
+    public void compact() throws IOException {
+        try {
+            compactor.submit(() -> {
+                compactall();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while compacting", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * returns why the last background compaction failed. the runs it was
+     * merging stay in use and the compaction is tried again after the next flush
+     *
+     * @return the failure, null if the last background compaction succeeded
+     */
+    public synchronized IOException compactionFailure() {
+        return compactionfailure;
+    }
+
+    /**
+     * flushes the memtable and stops compacting. the memtable is flushed
+     * even when a compaction failed, and if the flush fails it stays open
+     * so close can be called again
+     *
+     * @throws IOException the memtable can not be written
+     */
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush();
+            this.closed = true;
+        }
+    }
+
+    /**
+     * throws when closed
+     */
+    private void check() throws IOException {
+        if (closed) {
+            throw new IOException("TieredFADAF is closed");
+        }
+    }
+
+    /**
+     * returns the memtable entry of key, adding it if needed
+     */
+    private Delta<D> delta(K key) {
+        Delta<D> delta = memtable.getData(key);
+        if (delta == null) {
+            delta = new Delta<>();
+            memtable.insert(key, delta, 1);
+        }
+        return delta;
+    }
+
+    private void flushfull() throws IOException {
+        if (memtable.size() >= memtablekeys) {
+            flush();
+        }
+    }
+
+    private Path runpath(long minsequence, long maxsequence) {
+        return directory.resolve("run-" + minsequence + "-" + maxsequence + ".dat");
+    }
+
+    /**
+     * finds the newest stretch of neighbouring runs worth merging. a stretch
+     * starts at a run and takes older runs while each holds no more records
+     * than the stretch so far, it is worth merging with compactruns runs
+     *
+     * @param runs the runs, oldest first
+     * @return the first (inclusive) and last (exclusive) index of the stretch,
+     * null when no stretch is long enough
+     */
+    private int[] tier(List<DAFRun<K, D>> runs) {
+        for (int end = runs.size(); end >= compactruns; end--) {
+            long records = runs.get(end - 1).nRecords();
+            int start = end - 1;
+            while (start > 0 && runs.get(start - 1).nRecords() <= records) {
+                start--;
+                records += runs.get(start).nRecords();
+            }
+            if (end - start >= compactruns) {
+                return new int[] {start, end};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * runs on the compactor, merges stretches until none is left. a merged
+     * run can make the stretch of the older runs long enough, which is merged next
+     */
+    private void compacttiers() {
+        try {
+            while (true) {
+                List<DAFRun<K, D>> inputs;
+                synchronized (this) {
+                    inputs = runs;
+                }
+                int[] stretch = tier(inputs);
+                if (stretch == null) {
+                    break;
+                }
+                compactruns(inputs, stretch[0], stretch[1]);
+            }
+            synchronized (this) {
+                this.compactionfailure = null;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.compactionfailure = e;
+            }
+        }
+    }
+
+    /**
+     * runs on the compactor, merges the runs there are now into one
+     */
+    private void compactall() throws IOException {
+        List<DAFRun<K, D>> inputs;
+        synchronized (this) {
+            inputs = runs;
+        }
+        if (inputs.size() >= 2) {
+            compactruns(inputs, 0, inputs.size());
+        }
+    }
+
+    /**
+     * runs on the compactor, merges the runs from start (inclusive) to end
+     * (exclusive) into one. the runs flushed in the meantime are newer and
+     * stay as they are, only the compactor replaces runs so the indexes still hold
+     *
+     * @param inputs the runs when the compaction started
+     * @param start the first run to merge
+     * @param end the run after the last one to merge
+     * @throws IOException the merged run can not be written, then the inputs
+     * stay in use, or an input can not be deleted, then open deletes it later
+     */
+    private void compactruns(List<DAFRun<K, D>> inputs, int start, int end) throws IOException {
+        ArrayList<Iterator<DAFRun.Record<K, D>>> iterators = new ArrayList<>();
+        int expected = 0;
+        for (int i = end - 1; i >= start; i--) {
+            iterators.add(inputs.get(i).records(null));
+            expected += inputs.get(i).nRecords();
+        }
+        long min = inputs.get(start).minSequence();
+        long max = inputs.get(end - 1).maxSequence();
+        // without the oldest run older runs may still hold copies of a key,
+        // so its deltas are kept even if they add up to 0 or less
+        DAFRun<K, D> merged = DAFRun.write(runpath(min, max),
+                collapse(new MergeIterator<>(iterators), null, start > 0), expected, min, max,
+                keycodec, datacodec);
+        synchronized (this) {
+            List<DAFRun<K, D>> next = new ArrayList<>(runs.subList(0, start));
+            next.add(merged);
+            next.addAll(runs.subList(end, runs.size()));
+            this.runs = Collections.unmodifiableList(next);
+        }
+        for (int i = start; i < end; i++) {
+            inputs.get(i).delete();
+        }
+    }
+
+    /**
+     * returns the keys between lower and upper (both exclusive, null for no bound)
+     * that are stored, with their summed count and newest data, in accending order
+     */
+    private Iterator<DAFRun.Record<K, D>> records(K lower, K upper) {
+        ArrayList<Iterator<DAFRun.Record<K, D>>> iterators = new ArrayList<>();
+        // the newest tier first so the first record of a key has the newest data
+        Iterator<K> keys = (lower == null ? memtable.allKeys(false)
+                : memtable.keysInRange(lower, upper)).iterator();
+        iterators.add(new Iterator<DAFRun.Record<K, D>>() {
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            public DAFRun.Record<K, D> next() {
+                K key = keys.next();
+                Delta<D> delta = memtable.getData(key);
+                return new DAFRun.Record<>(key, delta.data, delta.delta);
+            }
+        });
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            iterators.add(runs.get(i).records(lower));
+        }
+        return collapse(new MergeIterator<>(iterators), upper, false);
+    }
+
+    /**
+     * calls the action once per stored key with its count, in accending order
+     */
+    private void merged(K lower, K upper, ObjIntConsumer<K> action) {
+        Iterator<DAFRun.Record<K, D>> records = records(lower, upper);
+        while (records.hasNext()) {
+            DAFRun.Record<K, D> record = records.next();
+            action.accept(record.key, record.delta);
+        }
+    }
+
+    /**
+     * turns the merged records of the tiers, newest first for each key, into one
+     * record per key with the sum of the deltas and the newest data. it stops at
+     * upper (exclusive, null for no bound)
+     *
+     * @param merged the records of the tiers
+     * @param upper the upper bound, null for no bound
+     * @param partial if the oldest run is missing, then a record is only skipped
+     * when it changes nothing, otherwise the keys whose deltas add up to 0 are skipped
+     * @return an iterator over the records
+     */
+    private static <K extends Comparable<? super K>, D> Iterator<DAFRun.Record<K, D>> collapse(
+            MergeIterator<DAFRun.Record<K, D>> merged, K upper, boolean partial) {
+        return new Iterator<DAFRun.Record<K, D>>() {
+            private DAFRun.Record<K, D> head = merged.hasNext() ? merged.next() : null;
+            private DAFRun.Record<K, D> record = advance();
+
+            private DAFRun.Record<K, D> advance() {
+                while (head != null && (upper == null || head.key.compareTo(upper) < 0)) {
+                    K key = head.key;
+                    D data = head.data;
+                    int count = head.delta;
+                    this.head = null;
+                    while (merged.hasNext()) {
+                        DAFRun.Record<K, D> next = merged.next();
+                        if (next.key.compareTo(key) != 0) {
+                            this.head = next;
+                            break;
+                        }
+                        count += next.delta;
+                        if (data == null) {
+                            data = next.data;
+                        }
+                    }
+                    if (partial ? count != 0 || data != null : count > 0) {
+                        return new DAFRun.Record<>(key, data, count);
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return record != null;
+            }
+
+            public DAFRun.Record<K, D> next() {
+                if (record == null) {
+                    throw new NoSuchElementException();
+                }
+                DAFRun.Record<K, D> result = record;
+                this.record = advance();
+                return result;
+            }
+        };
+    }
+}
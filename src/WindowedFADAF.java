@@ -0,0 +1,426 @@
+
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * FADAF that only counts the keys of a sliding time window. the window is a
+ * ring of nEpochs FADAFs, one per epochMillis of time. inserts go to the
+ * newest epoch and when time moves past it the oldest epoch is dropped.
+ * the window covers between nEpochs - 1 and nEpochs epochs of time.
+ *
+ * next to the ring a hashtable keeps the count of every key in the whole
+ * window, so lookup, size and nUniqueKeys are O(1). dropping an epoch takes
+ * its keys out of that table, one step per key of the epoch, which each
+ * insert of a new key into an epoch pays for once.
+ * getMinKey and getMaxKey compare the epochs and the key lists, range
+ * queries merge the sorted keys of the epochs in one pass.
+ */
+public class WindowedFADAF<K extends Comparable<? super K>, D> {
+    private static final int epochcapacity = 16;
+
+    /**
+     * the count of a key in the whole window
+     */
+    private static class Count {
+        int count;
+    }
+
+    private final FADAF<K, D>[] epochs; // ring, epochs[newest] gets the inserts
+    private final HashTable<K, Count> totals; // every key of the window
+    private final long epochmillis;
+    private final LongSupplier clock;
+    private int newest;
+    private long epoch; // number of the newest epoch, time / epochmillis
+    private int nElems; // copies in the window
+    private int nUnique; // keys whose count in the window is exactly 1
+
+    /**
+     * A constructor that initializes a WindowedFADAF on the system clock
+     *
+     * @param nEpochs the number of epochs in the window
+     * @param epochMillis the length of one epoch
+     * @throws IllegalArgumentException nEpochs or epochMillis is less than 1
+     */
+    public WindowedFADAF(int nEpochs, long epochMillis) {
+        this(nEpochs, epochMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * A constructor that initializes a WindowedFADAF
+     *
+     * @param nEpochs the number of epochs in the window
+     * @param epochMillis the length of one epoch
+     * @param clock returns the current time in milliseconds
+     * @throws IllegalArgumentException nEpochs or epochMillis is less than 1
+     * @throws NullPointerException clock is null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public WindowedFADAF(int nEpochs, long epochMillis, LongSupplier clock) {
+        if (clock == null) {
+            throw new NullPointerException();
+        }
+        if (nEpochs < 1 || epochMillis < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.epochs = new FADAF[nEpochs];
+        for (int i = 0; i < nEpochs; i++) {
+            this.epochs[i] = new FADAF<>(epochcapacity);
+        }
+        this.totals = new HashTable<>(epochcapacity);
+        this.epochmillis = epochMillis;
+        this.clock = clock;
+        this.epoch = clock.getAsLong() / epochMillis;
+    }
+
+    /**
+     * drops the epochs that the clock has left behind
+     */
+    private void expire() {
+        long now = clock.getAsLong() / epochmillis;
+        if (now <= epoch) {
+            return;
+        }
+        long steps = Math.min(now - epoch, epochs.length);
+        for (long i = 0; i < steps; i++) {
+            advance();
+        }
+        this.epoch = now;
+    }
+
+    /**
+     * starts a new epoch now and drops the oldest one, without waiting for the clock
+     */
+    public void advance() {
+        this.newest = (newest + 1) % epochs.length;
+        // the slot after the newest one held the oldest epoch
+        epochs[newest].forEachEntry((key, data, count) -> count(key, -count));
+        this.epochs[newest] = new FADAF<>(epochcapacity);
+    }
+
+    /**
+     * adds to the count of the key in the window, a negative amount takes
+     * copies away, and keeps nElems and nUnique right
+     *
+     * @param key the key
+     * @param amount the change of its count
+     * @return int the count before the change
+     */
+    private int count(K key, int amount) {
+        Count total = totals.lookup(key);
+        if (total == null) {
+            total = new Count();
+            totals.insert(key, total);
+        }
+        int before = total.count;
+        total.count += amount;
+        this.nElems += amount;
+        if (before == 1) {
+            this.nUnique--;
+        }
+        if (total.count == 1) {
+            this.nUnique++;
+        }
+        if (total.count == 0) {
+            totals.delete(key);
+        }
+        return before;
+    }
+
+    /**
+     * returns the live epochs from newest to oldest
+     */
+    private List<FADAF<K, D>> live() {
+        expire();
+        ArrayList<FADAF<K, D>> result = new ArrayList<>(epochs.length);
+        for (int i = 0; i < epochs.length; i++) {
+            result.add(epochs[(newest - i + epochs.length) % epochs.length]);
+        }
+        return result;
+    }
+
+    /**
+     * returns the total number of keys in the window, including duplicates
+     *
+     * @return int total number of keys
+     */
+    public int size() {
+        expire();
+        return nElems;
+    }
+
+    /**
+     * returns the number of keys that are in the window exactly once
+     *
+     * @return int number of unique keys
+     */
+    public int nUniqueKeys() {
+        expire();
+        return nUnique;
+    }
+
+    /**
+     * inserts key into the newest epoch
+     *
+     * @param key the key to insert
+     * @param data the data for the key
+     * @param nCopy the amount of times to count
+     * @return true if key is new to the window, false if key already exists
+     * @throws NullPointerException key or data are null
+     * @throws IllegalArgumentException ncopy is less than 1
+     */
+    public boolean insert(K key, D data, int nCopy) {
+        expire();
+        epochs[newest].insert(key, data, nCopy);
+        return count(key, nCopy) == 0;
+    }
+
+    /**
+     * returns the count of the key in the window
+     *
+     * @param key to look for
+     * @return int the count of key
+     * @return int 0 if key is not present
+     * @throws NullPointerException key is null
+     */
+    public int lookup(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        expire();
+        Count total = totals.lookup(key);
+        return total == null ? 0 : total.count;
+    }
+
+    /**
+     * removes the key ncopy times, the newest copies first
+     *
+     * @param key the key to remove
+     * @param nCopy the amount of times to remove
+     * @return true if the key was found
+     * @throws IllegalArgumentException when ncopy is less then one
+     * @throws NullPointerException key is null
+     */
+    public boolean remove(K key, int nCopy) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (nCopy < 1) {
+            throw new IllegalArgumentException();
+        }
+        int removed = 0;
+        for (FADAF<K, D> fadaf : live()) {
+            int count = fadaf.lookup(key);
+            if (count > 0 && removed < nCopy) {
+                fadaf.remove(key, nCopy - removed);
+                removed += Math.min(count, nCopy - removed);
+            }
+        }
+        if (removed == 0) {
+            return false;
+        }
+        count(key, -removed);
+        return true;
+    }
+
+    /**
+     * removes every copy of the key from the window
+     *
+     * @param key to be removed
+     * @return true if the key was found
+     * @throws NullPointerException key is null
+     */
+    public boolean removeAll(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int count = lookup(key);
+        if (count == 0) {
+            return false;
+        }
+        for (FADAF<K, D> fadaf : live()) {
+            fadaf.removeAll(key);
+        }
+        count(key, -count);
+        return true;
+    }
+
+    /**
+     * updates the data of the key in every epoch that holds it
+     *
+     * @param key the key to be updated
+     * @param newData the new data
+     * @return true if the key was found
+     * @throws NullPointerException key or data is null
+     */
+    public boolean update(K key, D newData) {
+        if (key == null || newData == null) {
+            throw new NullPointerException();
+        }
+        boolean found = false;
+        for (FADAF<K, D> fadaf : live()) {
+            found |= fadaf.update(key, newData);
+        }
+        return found;
+    }
+
+    /**
+     * returns the data of the key from the newest epoch that holds it
+     *
+     * @param key to look for
+     * @return D the data
+     * @return null if key is not present
+     * @throws NullPointerException key is null
+     */
+    public D getData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        for (FADAF<K, D> fadaf : live()) {
+            D data = fadaf.getData(key);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns the keys of the window in accending order
+     *
+     * @param allowDuplicate if Duplicates are allowed, otherwise only
+     * the keys that are in the window once are returned
+     * @return a linkedlist of the keys
+     */
+    public List<K> getAllKeys(boolean allowDuplicate) {
+        LinkedList<K> result = new LinkedList<>();
+        runs(null, null, (key, count) -> {
+            if (allowDuplicate) {
+                for (int i = 0; i < count; i++) {
+                    result.add(key);
+                }
+            } else if (count == 1) {
+                result.add(key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * returns the keys between lower (exclusive) and upper (exclusive)
+     * that are in the window once
+     *
+     * @param lower the lower parameter for keys to be returned
+     * @param upper the upper parameter for keys to be returned
+     * @return a linkedlist of the keys
+     * @throws NullPointerException lower or upper is null
+     */
+    public List<K> getUniqueKeysInRange(K lower, K upper) {
+        if (lower == null || upper == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<K> result = new LinkedList<>();
+        runs(lower, upper, (key, count) -> {
+            if (count == 1) {
+                result.add(key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * returns the minimum key of the window
+     *
+     * @return the minimum key
+     * @return null if empty
+     */
+    public K getMinKey() {
+        K result = null;
+        for (FADAF<K, D> fadaf : live()) {
+            K key = fadaf.getMinKey();
+            if (key != null && (result == null || key.compareTo(result) < 0)) {
+                result = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the maximum key of the window
+     *
+     * @return the maximum key
+     * @return null if empty
+     */
+    public K getMaxKey() {
+        K result = null;
+        for (FADAF<K, D> fadaf : live()) {
+            K key = fadaf.getMaxKey();
+            if (key != null && (result == null || key.compareTo(result) > 0)) {
+                result = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * merges the epochs and calls the action once per key with its count
+     * in the window, in accending order. every epoch gives its keys once
+     * with their count, so a key costs the same no matter how many copies it has
+     *
+     * @param lower the lower bound (exclusive), null for no bound
+     * @param upper the upper bound (exclusive), null for no bound
+     * @param action gets each key and its count
+     */
+    private void runs(K lower, K upper, ObjIntConsumer<K> action) {
+        ArrayList<Entries<K>> entries = new ArrayList<>(epochs.length);
+        for (FADAF<K, D> fadaf : live()) {
+            Entries<K> epoch = new Entries<>();
+            if (lower == null) {
+                fadaf.forEachEntry((key, data, count) -> epoch.add(key, count));
+            } else {
+                fadaf.forEachEntryInRange(lower, upper, (key, data, count) -> epoch.add(key, count));
+            }
+            if (epoch.size > 0) {
+                entries.add(epoch);
+            }
+        }
+        while (true) {
+            // the window has few epochs, so the smallest head is found by comparing them all
+            K key = null;
+            for (Entries<K> epoch : entries) {
+                if (epoch.next < epoch.size
+                        && (key == null || epoch.keys.get(epoch.next).compareTo(key) < 0)) {
+                    key = epoch.keys.get(epoch.next);
+                }
+            }
+            if (key == null) {
+                return;
+            }
+            int count = 0;
+            for (Entries<K> epoch : entries) {
+                if (epoch.next < epoch.size && epoch.keys.get(epoch.next).compareTo(key) == 0) {
+                    count += epoch.counts[epoch.next++];
+                }
+            }
+            action.accept(key, count);
+        }
+    }
+
+    /**
+     * the keys of one epoch with their counts, in accending order
+     */
+    private static class Entries<K> {
+        final ArrayList<K> keys = new ArrayList<>();
+        int[] counts = new int[epochcapacity];
+        int size;
+        int next; // the first entry that was not merged yet
+
+        void add(K key, int count) {
+            if (size == counts.length) {
+                this.counts = Arrays.copyOf(counts, size * 2);
+            }
+            keys.add(key);
+            this.counts[size++] = count;
+        }
+    }
+}
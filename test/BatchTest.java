@@ -0,0 +1,126 @@
+import java.util.*;
+
+/**
+ * checks insertBatch, removeBatch and merge of FADAF against single
+ * inserts and removes. batches much smaller than the tree go key by key,
+ * batches about as large as the tree rebuild it in one pass, and both
+ * must give the same content, reports and a balanced tree.
+ * run with: java BatchTest
+ */
+public class BatchTest {
+    private static final int nKeys = 20000;
+    private static final int nRounds = 20;
+
+    public static void main(String[] args) {
+        for (int batchsize : new int[] {10, 500, 20000}) {
+            batchesMatchSingleOperations(new FADAF<>(16), batchsize, "tree");
+            batchesMatchSingleOperations(new FADAF<>(new DAFBTree<Integer, Integer>(8)), batchsize, "btree");
+        }
+        mergeMatchesInserts();
+        System.out.println("BatchTest passed");
+    }
+
+    /**
+     * random batches with repeated keys, keys that are stored and keys
+     * that are not
+     */
+    private static void batchesMatchSingleOperations(FADAF<Integer, Integer> fadaf, int batchsize,
+            String backend) {
+        String what = backend + " batches of " + batchsize;
+        FADAF<Integer, Integer> reference = new FADAF<>(16);
+        Random random = new Random(batchsize);
+        for (int round = 0; round < nRounds; round++) {
+            List<Integer> keys = new ArrayList<>();
+            List<Integer> data = new ArrayList<>();
+            int[] counts = new int[batchsize];
+            for (int i = 0; i < batchsize; i++) {
+                keys.add(random.nextInt(nKeys));
+                data.add(round);
+                counts[i] = 1 + random.nextInt(3);
+            }
+            if (round % 2 == 0) {
+                int newkeys = 0;
+                int existing = 0;
+                for (int key : new HashSet<>(keys)) {
+                    newkeys += reference.lookup(key) == 0 ? 1 : 0;
+                    existing += reference.lookup(key) > 0 ? 1 : 0;
+                }
+                for (int i = 0; i < batchsize; i++) {
+                    reference.insert(keys.get(i), data.get(i), counts[i]);
+                }
+                FADAF.BatchReport report = fadaf.insertBatch(keys, data, counts);
+                check(report.newKeys == newkeys && report.existingKeys == existing,
+                        what + ": report " + report + " expected new=" + newkeys + " existing=" + existing);
+            } else {
+                int[] before = new int[nKeys];
+                for (int key : keys) {
+                    before[key] = reference.lookup(key);
+                }
+                for (int i = 0; i < batchsize; i++) {
+                    reference.remove(keys.get(i), counts[i]);
+                }
+                int missing = 0;
+                int dropped = 0;
+                for (int key : new HashSet<>(keys)) {
+                    missing += before[key] == 0 ? 1 : 0;
+                    dropped += before[key] > 0 && reference.lookup(key) == 0 ? 1 : 0;
+                }
+                FADAF.BatchReport report = fadaf.removeBatch(keys, counts);
+                check(report.missingKeys == missing && report.droppedKeys == dropped,
+                        what + ": report " + report + " expected missing=" + missing + " dropped=" + dropped);
+            }
+            compare(fadaf, reference, what + " round " + round);
+        }
+    }
+
+    private static void mergeMatchesInserts() {
+        for (int othersize : new int[] {10, nKeys}) {
+            FADAF<Integer, Integer> fadaf = new FADAF<>(16);
+            FADAF<Integer, Integer> other = new FADAF<>(16);
+            FADAF<Integer, Integer> reference = new FADAF<>(16);
+            Random random = new Random(othersize);
+            for (int i = 0; i < nKeys; i++) {
+                int key = random.nextInt(nKeys);
+                fadaf.insert(key, 1, 1);
+                reference.insert(key, 1, 1);
+            }
+            int distinct = 0;
+            int existing = 0;
+            for (int i = 0; i < othersize; i++) {
+                int key = random.nextInt(2 * nKeys);
+                if (other.insert(key, 2, 1 + i % 2)) {
+                    distinct++;
+                    existing += fadaf.lookup(key) > 0 ? 1 : 0;
+                }
+            }
+            other.forEachEntry((key, data, count) -> reference.insert(key, data, count));
+            List<Integer> before = other.getAllKeys(true);
+            FADAF.BatchReport report = fadaf.merge(other);
+            check(report.newKeys == distinct - existing && report.existingKeys == existing,
+                    "merge report " + report);
+            compare(fadaf, reference, "merge of " + othersize + " keys");
+            check(other.getAllKeys(true).equals(before), "merge changed the other FADAF");
+        }
+    }
+
+    private static void compare(FADAF<Integer, Integer> fadaf, FADAF<Integer, Integer> reference, String what) {
+        check(fadaf.size() == reference.size(), what + ": size " + fadaf.size() + " expected " + reference.size());
+        check(fadaf.nUniqueKeys() == reference.nUniqueKeys(), what + ": nUniqueKeys");
+        for (int key = -1; key <= 2 * nKeys; key++) {
+            check(fadaf.lookup(key) == reference.lookup(key), what + ": count of " + key);
+            check(Objects.equals(fadaf.getData(key), reference.getData(key)), what + ": data of " + key);
+        }
+        check(fadaf.getAllKeys(true).equals(reference.getAllKeys(true)), what + ": all keys");
+        FADAFMetrics metrics = fadaf.metrics();
+        if (metrics.treeHeight >= 0) {
+            int bound = (int) (1.4405 * Math.log(metrics.distinctKeys + 2) / Math.log(2));
+            check(metrics.treeHeight <= bound, what + ": height " + metrics.treeHeight + " above " + bound);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
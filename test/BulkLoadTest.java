@@ -0,0 +1,134 @@
+import java.util.*;
+
+/**
+ * checks the bulk-load constructor of FADAF. sorted input must give a
+ * perfectly balanced tree with the same content as inserting the keys one
+ * by one, unsorted input with repeated keys must add up their counts and
+ * keep the first data, and the loaded FADAF must keep working afterwards.
+ * run with: java BulkLoadTest
+ */
+public class BulkLoadTest {
+    private static final int nKeys = 100000;
+    private static final int nOps = 100000;
+
+    public static void main(String[] args) {
+        sortedInputIsBalanced();
+        unsortedInputIsCollapsed();
+        loadedFADAFKeepsWorking();
+        badInputIsRefused();
+        System.out.println("BulkLoadTest passed");
+    }
+
+    private static void sortedInputIsBalanced() {
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> data = new ArrayList<>();
+        int[] counts = new int[nKeys];
+        FADAF<Integer, Integer> reference = new FADAF<>(16);
+        for (int i = 0; i < nKeys; i++) {
+            keys.add(2 * i);
+            data.add(-i);
+            counts[i] = 1 + i % 3;
+            reference.insert(2 * i, -i, counts[i]);
+        }
+        FADAF<Integer, Integer> loaded = new FADAF<>(keys, data, counts);
+        compare(loaded, reference, "sorted input");
+        FADAFMetrics metrics = loaded.metrics();
+        int perfect = 32 - Integer.numberOfLeadingZeros(nKeys); // ceil(log2(n + 1))
+        check(metrics.treeHeight == perfect, "height " + metrics.treeHeight + " expected " + perfect);
+        check(metrics.rehashCount == 0, metrics.rehashCount + " rehashes while loading");
+        check(new FADAF<Integer, Integer>(new ArrayList<>(), new ArrayList<>(), new int[0]).size() == 0,
+                "empty input");
+    }
+
+    /**
+     * every key comes three times in random order, with a different data each time
+     */
+    private static void unsortedInputIsCollapsed() {
+        List<Integer> keys = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < nKeys / 10; i++) {
+                keys.add(i);
+            }
+        }
+        Collections.shuffle(keys, new Random(7));
+        List<String> data = new ArrayList<>();
+        int[] counts = new int[keys.size()];
+        FADAF<Integer, String> reference = new FADAF<>(16);
+        for (int i = 0; i < keys.size(); i++) {
+            data.add("data" + i);
+            counts[i] = 1 + i % 2;
+            reference.insert(keys.get(i), data.get(i), counts[i]); // keeps the first data too
+        }
+        FADAF<Integer, String> loaded = new FADAF<>(keys, data, counts);
+        compare(loaded, reference, "unsorted input");
+    }
+
+    private static void loadedFADAFKeepsWorking() {
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> data = new ArrayList<>();
+        int[] counts = new int[nKeys / 10];
+        FADAF<Integer, Integer> reference = new FADAF<>(16);
+        for (int i = 0; i < counts.length; i++) {
+            keys.add(i);
+            data.add(i);
+            counts[i] = 1;
+            reference.insert(i, i, 1);
+        }
+        FADAF<Integer, Integer> loaded = new FADAF<>(keys, data, counts);
+        Random random = new Random(8);
+        for (int i = 0; i < nOps; i++) {
+            int key = random.nextInt(2 * counts.length);
+            if (random.nextBoolean()) {
+                check(loaded.insert(key, i, 1) == reference.insert(key, i, 1), "insert of " + key);
+            } else {
+                check(loaded.remove(key, 1) == reference.remove(key, 1), "remove of " + key);
+            }
+        }
+        compare(loaded, reference, "after inserts and removes");
+        int bound = (int) (1.4405 * Math.log(reference.metrics().distinctKeys + 2) / Math.log(2));
+        check(loaded.metrics().treeHeight <= bound, "height " + loaded.metrics().treeHeight + " above " + bound);
+    }
+
+    private static void badInputIsRefused() {
+        List<Integer> keys = Arrays.asList(1, 2, 3);
+        List<Integer> data = Arrays.asList(1, 2, 3);
+        refused(() -> new FADAF<>(keys, data, new int[] {1, 1}), IllegalArgumentException.class, "count missing");
+        refused(() -> new FADAF<>(keys, Arrays.asList(1, 2), new int[] {1, 1, 1}),
+                IllegalArgumentException.class, "data missing");
+        refused(() -> new FADAF<>(keys, data, new int[] {1, 0, 1}), IllegalArgumentException.class, "count 0");
+        refused(() -> new FADAF<>(Arrays.asList(1, null, 3), data, new int[] {1, 1, 1}),
+                NullPointerException.class, "null key");
+        refused(() -> new FADAF<>(keys, Arrays.asList(1, null, 3), new int[] {1, 1, 1}),
+                NullPointerException.class, "null data");
+    }
+
+    private static void refused(Runnable load, Class<? extends RuntimeException> expected, String what) {
+        try {
+            load.run();
+        } catch (RuntimeException e) {
+            check(expected.isInstance(e), what + ": threw " + e);
+            return;
+        }
+        check(false, what + ": was loaded");
+    }
+
+    private static <D> void compare(FADAF<Integer, D> loaded, FADAF<Integer, D> reference, String what) {
+        check(loaded.size() == reference.size(), what + ": size " + loaded.size() + " expected "
+                + reference.size());
+        check(loaded.nUniqueKeys() == reference.nUniqueKeys(), what + ": nUniqueKeys");
+        reference.forEachEntry((key, data, count) -> {
+            check(loaded.lookup(key) == count, what + ": count of " + key);
+            check(loaded.getData(key).equals(data), what + ": data of " + key);
+        });
+        check(loaded.getAllKeys(true).equals(reference.getAllKeys(true)), what + ": all keys");
+        for (int index = 0; index < reference.size(); index += 101) {
+            check(loaded.select(index).equals(reference.select(index)), what + ": select of " + index);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
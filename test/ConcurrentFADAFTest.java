@@ -0,0 +1,221 @@
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * stress tests for ConcurrentFADAF. many threads insert and remove keys at
+ * the same time and afterwards size and nUniqueKeys must agree with a walk
+ * of the keys, and with the counts the threads know they left behind.
+ * run with: java ConcurrentFADAFTest
+ */
+public class ConcurrentFADAFTest {
+    private static final int nThreads = 8;
+    private static final int nOps = 200000;
+    private static final int nKeys = 2000;
+
+    public static void main(String[] args) throws Exception {
+        sharedKeysStayConsistent();
+        ownKeysGiveExactCounts();
+        readersSeeSortedKeys();
+        lookupsSurviveRehash();
+        System.out.println("ConcurrentFADAFTest passed");
+    }
+
+    /**
+     * every thread works on the same small set of keys, so most writers collide
+     */
+    private static void sharedKeysStayConsistent() throws Exception {
+        ConcurrentFADAF<Integer, Integer> fadaf = new ConcurrentFADAF<>(64, 4);
+        run(thread -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < nOps; i++) {
+                int key = random.nextInt(nKeys);
+                int op = random.nextInt(10);
+                if (op < 6) {
+                    fadaf.insert(key, key, 1 + random.nextInt(3));
+                } else if (op < 9) {
+                    fadaf.remove(key, 1 + random.nextInt(2));
+                } else {
+                    fadaf.removeAll(key);
+                }
+            }
+        });
+        checkwalk(fadaf);
+    }
+
+    /**
+     * every thread has its own keys, so the final count of each key is known
+     */
+    private static void ownKeysGiveExactCounts() throws Exception {
+        ConcurrentFADAF<Integer, Integer> fadaf = new ConcurrentFADAF<>(64);
+        int perthread = nKeys;
+        run(thread -> {
+            for (int i = 0; i < perthread; i++) {
+                int key = thread * perthread + i;
+                fadaf.insert(key, key, 3);
+                fadaf.insert(key, key, 1);
+                if (i % 4 > 0) {
+                    fadaf.remove(key, i % 4); // leaves 4 - i % 4 copies
+                }
+                if (i % 5 == 0) {
+                    fadaf.removeAll(key);
+                }
+            }
+        });
+        int size = 0;
+        int unique = 0;
+        for (int key = 0; key < nThreads * perthread; key++) {
+            int i = key % perthread;
+            int expected = i % 5 == 0 ? 0 : 4 - i % 4;
+            check(fadaf.lookup(key) == expected, "count of " + key);
+            size += expected;
+            unique += expected == 1 ? 1 : 0;
+        }
+        check(fadaf.size() == size, "size " + fadaf.size() + " expected " + size);
+        check(fadaf.nUniqueKeys() == unique, "nUniqueKeys " + fadaf.nUniqueKeys()
+                + " expected " + unique);
+        checkwalk(fadaf);
+    }
+
+    /**
+     * readers walk the keys while writers change them, the keys they see
+     * must always be in order and lookup must never go negative
+     */
+    private static void readersSeeSortedKeys() throws Exception {
+        ConcurrentFADAF<Integer, Integer> fadaf = new ConcurrentFADAF<>(64);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        List<Future<?>> checks = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            checks.add(readers.submit(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    List<Integer> keys = fadaf.getAllKeys(true);
+                    Integer prev = null;
+                    for (Integer key : keys) {
+                        check(prev == null || prev <= key, "keys out of order");
+                        prev = key;
+                    }
+                    check(fadaf.lookup(random.nextInt(nKeys)) >= 0, "negative count");
+                }
+                return null;
+            }));
+        }
+        try {
+            run(thread -> {
+                Random random = new Random(thread + 100);
+                for (int i = 0; i < nOps / 4; i++) {
+                    int key = random.nextInt(nKeys);
+                    if (random.nextBoolean()) {
+                        fadaf.insert(key, key, 1);
+                    } else {
+                        fadaf.remove(key, 1);
+                    }
+                }
+            });
+        } finally {
+            done.set(true);
+            readers.shutdown();
+        }
+        for (Future<?> f : checks) {
+            f.get();
+        }
+        checkwalk(fadaf);
+    }
+
+    /**
+     * a writer grows one stripe from the minimum capacity while readers look
+     * up the keys it already inserted, the optimistic reads must never miss
+     * one or see the data of another key while the entries move
+     */
+    private static void lookupsSurviveRehash() throws Exception {
+        ConcurrentFADAF<Integer, Integer> fadaf = new ConcurrentFADAF<>(10, 1);
+        AtomicInteger inserted = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(nThreads - 1);
+        List<Future<?>> checks = new ArrayList<>();
+        for (int r = 0; r < nThreads - 1; r++) {
+            checks.add(readers.submit(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int upto = inserted.get();
+                    if (upto == 0) {
+                        continue;
+                    }
+                    int key = random.nextInt(upto);
+                    check(fadaf.lookup(key) == 1, "lookup of " + key + " during rehash");
+                    check(fadaf.getData(key) == -key, "data of " + key + " during rehash");
+                }
+                return null;
+            }));
+        }
+        try {
+            for (int key = 0; key < nOps * 5; key++) {
+                fadaf.insert(key, -key, 1);
+                inserted.set(key + 1);
+            }
+        } finally {
+            done.set(true);
+            readers.shutdown();
+        }
+        for (Future<?> f : checks) {
+            f.get();
+        }
+        check(fadaf.size() == nOps * 5 && fadaf.getData(nOps * 5) == null, "size after rehash");
+    }
+
+    /**
+     * size and nUniqueKeys must match the keys once no thread writes anymore
+     */
+    private static void checkwalk(ConcurrentFADAF<Integer, Integer> fadaf) {
+        List<Integer> all = fadaf.getAllKeys(true);
+        List<Integer> unique = fadaf.getAllKeys(false);
+        check(fadaf.size() == all.size(), "size " + fadaf.size() + " walk " + all.size());
+        check(fadaf.nUniqueKeys() == unique.size(), "nUniqueKeys " + fadaf.nUniqueKeys()
+                + " walk " + unique.size());
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Integer key : all) {
+            counts.merge(key, 1, Integer::sum);
+        }
+        for (int key = 0; key < nKeys; key++) {
+            check(fadaf.lookup(key) == counts.getOrDefault(key, 0), "lookup of " + key);
+        }
+    }
+
+    private interface Worker {
+        void work(int thread) throws Exception;
+    }
+
+    /**
+     * starts nThreads workers at the same moment and waits for all of them
+     */
+    private static void run(Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                worker.work(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
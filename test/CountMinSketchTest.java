@@ -0,0 +1,98 @@
+
+import java.util.*;
+
+/**
+ * checks the guarantee of CountMinSketch on skewed streams: no estimate is
+ * below the true count and at most a delta fraction of the keys is
+ * overestimated by more than epsilon times the total.
+ * run with: java CountMinSketchTest
+ */
+public class CountMinSketchTest {
+    private static final int nAdds = 1000000;
+    private static final int nKeys = 100000;
+    private static final int nAbsent = 10000;
+    private static final int nTrials = 5;
+
+    public static void main(String[] args) {
+        overestimateStaysWithinBound(0.001, 0.01);
+        overestimateStaysWithinBound(0.0001, 0.05);
+        negativeAmountsTakeCopiesAway();
+        System.out.println("CountMinSketchTest passed");
+    }
+
+    /**
+     * every trial draws its own keys, so the keys fall on other counters
+     */
+    private static void overestimateStaysWithinBound(double epsilon, double delta) {
+        for (int trial = 0; trial < nTrials; trial++) {
+            Random random = new Random(trial);
+            int[] keys = distinct(random, nKeys + nAbsent);
+            CountMinSketch sketch = new CountMinSketch(epsilon, delta);
+            Map<Integer, Long> counts = new HashMap<>();
+            double[] cumulative = zipf(nKeys);
+            for (int i = 0; i < nAdds; i++) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[nKeys - 1]);
+                int key = keys[index >= 0 ? index : Math.min(-index - 1, nKeys - 1)];
+                sketch.add(key, 1);
+                counts.merge(key, 1L, Long::sum);
+            }
+            check(sketch.total() == nAdds, "total " + sketch.total());
+            double bound = epsilon * sketch.total();
+            int over = 0;
+            // the keys that were never added must estimate within the bound as well
+            for (int key : keys) {
+                long actual = counts.getOrDefault(key, 0L);
+                long estimate = sketch.estimate(key);
+                check(estimate >= actual, "estimate " + estimate + " below " + actual);
+                if (estimate - actual > bound) {
+                    over++;
+                }
+            }
+            double fraction = (double) over / keys.length;
+            check(fraction <= delta, "epsilon " + epsilon + " trial " + trial + ": "
+                    + fraction + " of the keys are over the bound, delta is " + delta);
+        }
+    }
+
+    private static void negativeAmountsTakeCopiesAway() {
+        CountMinSketch sketch = new CountMinSketch(0.01, 0.01);
+        sketch.add("a", 5);
+        sketch.add("b", 2);
+        sketch.add("a", -3);
+        check(sketch.total() == 4, "total " + sketch.total());
+        check(sketch.estimate("a") >= 2, "estimate of a " + sketch.estimate("a"));
+        check(sketch.estimate("a") <= 2 + 0.01 * 4 * Math.E, "estimate of a " + sketch.estimate("a"));
+    }
+
+    private static int[] distinct(Random random, int n) {
+        Set<Integer> seen = new HashSet<>();
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt();
+            while (!seen.add(key)) {
+                key = random.nextInt();
+            }
+            result[i] = key;
+        }
+        return result;
+    }
+
+    /**
+     * cumulative weights of zipf with exponent 1, key i is drawn with weight 1 / (i + 1)
+     */
+    private static double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
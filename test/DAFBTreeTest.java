@@ -0,0 +1,120 @@
+import java.util.*;
+
+/**
+ * randomized differential test of DAFBTree against the default tree of
+ * FADAF. small orders make the nodes split, borrow and merge all the time,
+ * after every round the counts, data, ranks, selections and the least
+ * frequent key must agree with the reference.
+ * run with: java DAFBTreeTest
+ */
+public class DAFBTreeTest {
+    private static final int nOps = 200000;
+    private static final int nKeys = 3000;
+
+    public static void main(String[] args) {
+        for (int order : new int[] {4, 5, 8, 64}) {
+            matchesDefaultTree(order);
+            shrinksToEmpty(order);
+        }
+        System.out.println("DAFBTreeTest passed");
+    }
+
+    /**
+     * mixed inserts and removes, compared every few thousand operations
+     */
+    private static void matchesDefaultTree(int order) {
+        Random random = new Random(order);
+        DAFBTree<Integer, Integer> btree = new DAFBTree<>(order);
+        FADAF<Integer, Integer> reference = new FADAF<>(16);
+        for (int i = 0; i < nOps; i++) {
+            int key = random.nextInt(nKeys);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                check(btree.insert(key, key * 7, nCopy) == reference.insert(key, key * 7, nCopy),
+                        "insert of " + key);
+            } else if (op < 8) {
+                int nCopy = 1 + random.nextInt(2);
+                check(btree.remove(key, nCopy) == reference.remove(key, nCopy), "remove of " + key);
+            } else if (op < 9) {
+                check(btree.removeAll(key) == reference.removeAll(key), "removeAll of " + key);
+            } else {
+                check(btree.update(key, -key) == reference.update(key, -key), "update of " + key);
+            }
+            if (i % 5000 == 0) {
+                compare(btree, reference, order);
+            }
+        }
+        compare(btree, reference, order);
+    }
+
+    /**
+     * removing every key walks the tree back down to a single leaf
+     */
+    private static void shrinksToEmpty(int order) {
+        DAFBTree<Integer, Integer> btree = new DAFBTree<>(order);
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 0; key < nKeys; key++) {
+            btree.insert(key, key, 1 + key % 2);
+            keys.add(key);
+        }
+        Collections.shuffle(keys, new Random(order));
+        for (int key : keys) {
+            check(btree.removeAll(key), "removeAll of " + key);
+        }
+        check(btree.size() == 0 && btree.nUniqueKeys() == 0, "size after removing every key");
+        check(btree.height() == 1, "height " + btree.height() + " of an empty tree");
+        check(btree.leastFrequent() == null && btree.findExtreme(false) == null, "empty tree");
+        check(!btree.iterator(null, null, true).hasNext(), "iterator of an empty tree");
+    }
+
+    private static void compare(DAFBTree<Integer, Integer> btree, FADAF<Integer, Integer> reference,
+            int order) {
+        check(btree.size() == reference.size(), "size " + btree.size() + " expected " + reference.size());
+        check(btree.nUniqueKeys() == reference.nUniqueKeys(), "nUniqueKeys " + btree.nUniqueKeys()
+                + " expected " + reference.nUniqueKeys());
+        int lowest = Integer.MAX_VALUE;
+        Integer least = null;
+        for (int key = -1; key <= nKeys; key++) {
+            int count = reference.lookup(key);
+            check(btree.lookup(key) == count, "lookup of " + key);
+            check(Objects.equals(btree.getData(key), reference.getData(key)), "data of " + key);
+            check(btree.rank(key, false) == reference.rank(key), "rank of " + key);
+            check(btree.rank(key, true) == reference.rank(key) + count, "inclusive rank of " + key);
+            if (count > 0 && count < lowest) {
+                lowest = count;
+                least = key;
+            }
+        }
+        check(Objects.equals(btree.leastFrequent(), least), "leastFrequent " + btree.leastFrequent()
+                + " expected " + least);
+        for (int index = 0; index < reference.size(); index += 7) {
+            check(btree.select(index).equals(reference.select(index)), "select of " + index);
+        }
+        check(drain(btree.iterator(null, null, true)).equals(reference.getAllKeys(true)), "all keys");
+        check(drain(btree.iterator(null, null, false)).equals(reference.getAllKeys(false)), "unique keys");
+        check(drain(btree.iterator(100, 200, false)).equals(reference.getUniqueKeysInRange(100, 200)),
+                "unique keys in range");
+        check(Objects.equals(btree.findExtreme(false), reference.getMinKey()), "min key");
+        check(Objects.equals(btree.findExtreme(true), reference.getMaxKey()), "max key");
+        // every node but the root holds at least order / 2 keys
+        int distinct = new HashSet<>(reference.getAllKeys(true)).size();
+        double fanout = order / 2 + 1;
+        int bound = distinct == 0 ? 1 : 2 + (int) (Math.log(distinct) / Math.log(fanout));
+        check(btree.height() <= bound, "height " + btree.height() + " above " + bound);
+    }
+
+    private static <K> List<K> drain(Iterator<K> it) {
+        List<K> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.*;
+
+/**
+ * checks that DAFTree stays an avl tree. keys that arrive sorted, in
+ * reverse and at random, and removes from both ends and the middle, must
+ * never push the height above the avl bound of 1.44 log2(n + 2), while the
+ * counts and the order of the keys match a TreeMap.
+ * run with: java DAFTreeTest
+ */
+public class DAFTreeTest {
+    private static final int nKeys = 100000;
+    private static final int nOps = 200000;
+
+    public static void main(String[] args) {
+        sortedInsertsStayBalanced();
+        reverseInsertsStayBalanced();
+        removesStayBalanced();
+        matchesTreeMap();
+        System.out.println("DAFTreeTest passed");
+    }
+
+    private static void sortedInsertsStayBalanced() {
+        DAFTree<Integer, Integer> tree = new DAFTree<>();
+        for (int key = 0; key < nKeys; key++) {
+            tree.insert(key, key, 1);
+            if ((key & (key + 1)) == 0) {
+                checkheight(tree, key + 1, "sorted inserts");
+            }
+        }
+        checkheight(tree, nKeys, "sorted inserts");
+    }
+
+    private static void reverseInsertsStayBalanced() {
+        DAFTree<Integer, Integer> tree = new DAFTree<>();
+        for (int key = nKeys - 1; key >= 0; key--) {
+            tree.insert(key, key, 1);
+        }
+        checkheight(tree, nKeys, "reverse inserts");
+    }
+
+    /**
+     * removing the smallest keys leaves the right side of the tree, removing
+     * every other key thins out all of it
+     */
+    private static void removesStayBalanced() {
+        DAFTree<Integer, Integer> tree = new DAFTree<>();
+        for (int key = 0; key < nKeys; key++) {
+            tree.insert(key, key, 2);
+        }
+        int n = nKeys;
+        for (int key = 0; key < nKeys / 2; key++) {
+            tree.remove(key, 2);
+            n--;
+        }
+        checkheight(tree, n, "removes from the left");
+        for (int key = nKeys / 2; key < nKeys; key += 2) {
+            check(tree.removenode(key), "removenode of " + key);
+            n--;
+        }
+        checkheight(tree, n, "removes of every other key");
+        check(tree.nDistinctKeys() == n, "nDistinctKeys " + tree.nDistinctKeys() + " expected " + n);
+        check(tree.size() == 2 * n, "size " + tree.size() + " expected " + 2 * n);
+    }
+
+    /**
+     * mixed inserts and removes of a small key space, so keys come and go
+     */
+    private static void matchesTreeMap() {
+        Random random = new Random(3);
+        DAFTree<Integer, Integer> tree = new DAFTree<>();
+        TreeMap<Integer, Integer> reference = new TreeMap<>();
+        for (int i = 0; i < nOps; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) > 0) {
+                int nCopy = 1 + random.nextInt(3);
+                tree.insert(key, key, nCopy);
+                reference.merge(key, nCopy, Integer::sum);
+            } else {
+                int nCopy = 1 + random.nextInt(2);
+                check((tree.remove(key, nCopy) != null) == reference.containsKey(key), "remove of " + key);
+                Integer count = reference.get(key);
+                if (count != null) {
+                    if (count <= nCopy) {
+                        reference.remove(key);
+                    } else {
+                        reference.put(key, count - nCopy);
+                    }
+                }
+            }
+            if (i % 10000 == 0) {
+                compare(tree, reference);
+            }
+        }
+        compare(tree, reference);
+    }
+
+    private static void compare(DAFTree<Integer, Integer> tree, TreeMap<Integer, Integer> reference) {
+        int size = 0;
+        int unique = 0;
+        List<Integer> keys = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            size += entry.getValue();
+            unique += entry.getValue() == 1 ? 1 : 0;
+            for (int i = 0; i < entry.getValue(); i++) {
+                keys.add(entry.getKey());
+            }
+            check(tree.lookup(entry.getKey()).count == entry.getValue(), "count of " + entry.getKey());
+        }
+        check(tree.size() == size, "size " + tree.size() + " expected " + size);
+        check(tree.nUniqueKeys() == unique, "nUniqueKeys " + tree.nUniqueKeys() + " expected " + unique);
+        check(tree.nDistinctKeys() == reference.size(), "nDistinctKeys");
+        List<Integer> actual = new ArrayList<>();
+        Iterator<Integer> it = tree.iterator(true);
+        while (it.hasNext()) {
+            actual.add(it.next());
+        }
+        check(actual.equals(keys), "keys in order");
+        checkheight(tree, reference.size(), "mixed operations");
+    }
+
+    /**
+     * an avl tree of n nodes is at most 1.44 log2(n + 2) - 0.328 high
+     */
+    private static void checkheight(DAFTree<Integer, Integer> tree, int n, String what) {
+        double bound = 1.4405 * Math.log(n + 2) / Math.log(2) - 0.3277;
+        check(tree.height() <= bound, what + ": height " + tree.height() + " of " + n + " keys above " + bound);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
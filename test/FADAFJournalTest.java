@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * crash recovery of FADAFJournal. the journal file is cut off or damaged
+ * the way a crash in the middle of a write would leave it, and reopening
+ * must drop exactly the damaged record and keep everything before it.
+ * run with: java FADAFJournalTest
+ */
+public class FADAFJournalTest {
+    private static final int nOps = 2000;
+    private static final int nKeys = 300;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("fadafjournal");
+        try {
+            recoversEverySyncedRecord(dir);
+            cutOffTailIsDropped(dir);
+            corruptTailIsDropped(dir);
+            recoversFromSnapshotAndJournal(dir);
+            failedSyncIsNotReplayed(dir);
+        } finally {
+            clear(dir);
+            Files.delete(dir);
+        }
+        System.out.println("FADAFJournalTest passed");
+    }
+
+    private static void recoversEverySyncedRecord(Path dir) throws IOException {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 512)) {
+            run(journal, expected, new Random(1), nOps);
+        }
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 512)) {
+            compare(journal.fadaf(), expected, "reopened journal");
+        }
+    }
+
+    /**
+     * the last record is cut off at points all along its length, each
+     * time only that record is lost
+     */
+    private static void cutOffTailIsDropped(Path dir) throws IOException {
+        for (int cut = 1; cut < 20; cut++) {
+            clear(dir);
+            FADAF<Integer, Integer> expected = new FADAF<>(16);
+            long before = lastrecord(dir, expected, cut);
+            long length = Files.size(journalpath(dir));
+            long keep = before + (length - before) * cut / 20;
+            try (FileChannel channel = FileChannel.open(journalpath(dir), StandardOpenOption.WRITE)) {
+                channel.truncate(keep);
+            }
+            try (FADAFJournal<Integer, Integer> journal = open(dir, 1)) {
+                compare(journal.fadaf(), expected, "journal cut at " + keep);
+                check(Files.size(journalpath(dir)) == before, "the cut off record is still in the file");
+                // new records go where the damaged one was
+                journal.insert(-1, -1, 2);
+                expected.insert(-1, -1, 2);
+            }
+            try (FADAFJournal<Integer, Integer> journal = open(dir, 1)) {
+                compare(journal.fadaf(), expected, "journal written after the cut");
+            }
+        }
+    }
+
+    /**
+     * a flipped bit anywhere in the last record fails its crc
+     */
+    private static void corruptTailIsDropped(Path dir) throws IOException {
+        for (int flip = 0; flip < 16; flip++) {
+            clear(dir);
+            FADAF<Integer, Integer> expected = new FADAF<>(16);
+            long before = lastrecord(dir, expected, flip);
+            long length = Files.size(journalpath(dir));
+            // skips the length field, a damaged length is a cut off record
+            long position = before + Integer.BYTES + flip % (length - before - Integer.BYTES);
+            try (FileChannel channel = FileChannel.open(journalpath(dir), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer one = ByteBuffer.allocate(1);
+                channel.read(one, position);
+                one.put(0, (byte) (one.get(0) ^ (1 << (flip % 8))));
+                one.rewind();
+                channel.write(one, position);
+            }
+            try (FADAFJournal<Integer, Integer> journal = open(dir, 1)) {
+                compare(journal.fadaf(), expected, "journal with a bit flipped at " + position);
+                check(Files.size(journalpath(dir)) == before, "the damaged record is still in the file");
+            }
+        }
+    }
+
+    /**
+     * a checkpoint in the middle, the records after it come from the journal
+     */
+    private static void recoversFromSnapshotAndJournal(Path dir) throws IOException {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        Random random = new Random(2);
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 256)) {
+            run(journal, expected, random, nOps);
+            journal.checkpoint();
+            check(Files.size(journalpath(dir)) == 2 * Integer.BYTES, "checkpoint empties the journal");
+            run(journal, expected, random, nOps);
+        }
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 256)) {
+            compare(journal.fadaf(), expected, "snapshot and journal");
+        }
+    }
+
+    /**
+     * an interrupt closes the channel in the middle of a group commit. the
+     * operation fails, every later one fails too and the record of the
+     * failed operation is not on disk
+     */
+    private static void failedSyncIsNotReplayed(Path dir) throws IOException {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        FADAFJournal<Integer, Integer> journal = open(dir, 1);
+        run(journal, expected, new Random(3), 100);
+        Thread.currentThread().interrupt();
+        try {
+            journal.insert(nKeys + 1, 0, 1);
+            check(false, "insert after a failed write");
+        } catch (IOException e) {
+            // the write was interrupted
+        } finally {
+            Thread.interrupted();
+        }
+        check(journal.fadaf().lookup(nKeys + 1) == 0, "failed insert was applied");
+        try {
+            journal.insert(nKeys + 2, 0, 1);
+            check(false, "journal takes records after a failed sync");
+        } catch (IOException e) {
+            // the failure is reported by every later call
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            // close reports the failure as well
+        }
+        try (FADAFJournal<Integer, Integer> reopened = open(dir, 1)) {
+            compare(reopened.fadaf(), expected, "journal after a failed sync");
+        }
+    }
+
+    /**
+     * writes some records, then one more on its own and returns where it starts
+     */
+    private static long lastrecord(Path dir, FADAF<Integer, Integer> expected, int seed)
+            throws IOException {
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 1)) {
+            run(journal, expected, new Random(seed), 200);
+        }
+        long before = Files.size(journalpath(dir));
+        try (FADAFJournal<Integer, Integer> journal = open(dir, 1)) {
+            journal.insert(nKeys + seed, seed, 3); // not applied to expected, it gets damaged
+        }
+        return before;
+    }
+
+    private static void run(FADAFJournal<Integer, Integer> journal, FADAF<Integer, Integer> expected,
+            Random random, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt(nKeys);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                journal.insert(key, i, nCopy);
+                expected.insert(key, i, nCopy);
+            } else if (op < 8) {
+                journal.remove(key, 1);
+                expected.remove(key, 1);
+            } else if (op < 9) {
+                journal.removeAll(key);
+                expected.removeAll(key);
+            } else {
+                journal.update(key, -i);
+                expected.update(key, -i);
+            }
+        }
+    }
+
+    private static FADAFJournal<Integer, Integer> open(Path dir, int groupbytes) throws IOException {
+        return FADAFJournal.open(dir.resolve("snapshot"), journalpath(dir), DAFCodec.INT, DAFCodec.INT,
+                groupbytes, 0);
+    }
+
+    private static Path journalpath(Path dir) {
+        return dir.resolve("journal");
+    }
+
+    private static void compare(FADAF<Integer, Integer> actual, FADAF<Integer, Integer> expected,
+            String what) {
+        check(actual.size() == expected.size(), what + ": size " + actual.size()
+                + " expected " + expected.size());
+        for (int key = -1; key <= nKeys + 20; key++) {
+            check(actual.lookup(key) == expected.lookup(key), what + ": count of " + key);
+            check(Objects.equals(actual.getData(key), expected.getData(key)), what + ": data of " + key);
+        }
+    }
+
+    private static void clear(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
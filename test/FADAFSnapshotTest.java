@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * round trips of FADAFSnapshot. keys and data of every size, including
+ * records larger than the write buffer and text outside of ascii, must come
+ * back with their counts, and files that are not complete snapshots must be
+ * refused with an IOException instead of loading part of them.
+ * run with: java FADAFSnapshotTest
+ */
+public class FADAFSnapshotTest {
+    private static final int nKeys = 50000;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("fadafsnapshot");
+        try {
+            roundTrip(dir);
+            emptyRoundTrip(dir);
+            largeRecordsRoundTrip(dir);
+            versionOneIsRead(dir);
+            damagedFilesAreRefused(dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println("FADAFSnapshotTest passed");
+    }
+
+    private static void roundTrip(Path dir) throws IOException {
+        Path path = dir.resolve("snapshot");
+        Random random = new Random(4);
+        FADAF<String, String> fadaf = new FADAF<>(16);
+        for (int i = 0; i < nKeys; i++) {
+            String data = "daten \u00e4\u00f6\u00fc \u20ac" + i; // more bytes than chars in utf-8
+            fadaf.insert("key" + random.nextInt(nKeys), data, 1 + random.nextInt(3));
+        }
+        FADAFSnapshot.write(fadaf, path, DAFCodec.STRING, DAFCodec.STRING, 1234);
+        check(!Files.exists(dir.resolve("snapshot.tmp")), "the .tmp file is left");
+        check(FADAFSnapshot.sequence(path) == 1234, "sequence " + FADAFSnapshot.sequence(path));
+        FADAF<String, String> read = FADAFSnapshot.read(path, DAFCodec.STRING, DAFCodec.STRING);
+        compare(read, fadaf, "round trip");
+        int perfect = 32 - Integer.numberOfLeadingZeros(read.metrics().distinctKeys);
+        check(read.metrics().treeHeight == perfect, "height " + read.metrics().treeHeight + " after read");
+
+        // a second write replaces the first one
+        fadaf.removeAll(fadaf.getMinKey());
+        FADAFSnapshot.write(fadaf, path, DAFCodec.STRING, DAFCodec.STRING);
+        check(FADAFSnapshot.sequence(path) == 0, "sequence after rewrite");
+        compare(FADAFSnapshot.read(path, DAFCodec.STRING, DAFCodec.STRING), fadaf, "rewritten snapshot");
+    }
+
+    private static void emptyRoundTrip(Path dir) throws IOException {
+        Path path = dir.resolve("empty");
+        FADAFSnapshot.write(new FADAF<Integer, Integer>(16), path, DAFCodec.INT, DAFCodec.INT);
+        FADAF<Integer, Integer> read = FADAFSnapshot.read(path, DAFCodec.INT, DAFCodec.INT);
+        check(read.size() == 0 && read.getMinKey() == null, "empty round trip");
+    }
+
+    /**
+     * data larger than the 64KB the writer buffers at once
+     */
+    private static void largeRecordsRoundTrip(Path dir) throws IOException {
+        Path path = dir.resolve("large");
+        FADAF<Integer, String> fadaf = new FADAF<>(16);
+        for (int key = 0; key < 20; key++) {
+            char[] chars = new char[key * 10000];
+            Arrays.fill(chars, (char) ('a' + key));
+            fadaf.insert(key, new String(chars), key + 1);
+        }
+        FADAFSnapshot.write(fadaf, path, DAFCodec.INT, DAFCodec.STRING);
+        compare(FADAFSnapshot.read(path, DAFCodec.INT, DAFCodec.STRING), fadaf, "large records");
+    }
+
+    /**
+     * version 1 files have no sequence in the header
+     */
+    private static void versionOneIsRead(Path dir) throws IOException {
+        Path path = dir.resolve("v1");
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(0x46414446).putInt(1).putInt(2);
+        for (int key : new int[] {3, 8}) {
+            byte[] data = ("d" + key).getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(Integer.BYTES).putInt(key).putInt(data.length).put(data).putInt(key);
+        }
+        Files.write(path, Arrays.copyOf(buffer.array(), buffer.position()));
+        check(FADAFSnapshot.sequence(path) == 0, "sequence of a version 1 file");
+        FADAF<Integer, String> read = FADAFSnapshot.read(path, DAFCodec.INT, DAFCodec.STRING);
+        check(read.size() == 11 && read.lookup(3) == 3 && read.lookup(8) == 8, "counts of a version 1 file");
+        check("d8".equals(read.getData(8)), "data of a version 1 file");
+    }
+
+    private static void damagedFilesAreRefused(Path dir) throws IOException {
+        Path path = dir.resolve("damaged");
+        FADAF<Integer, Integer> fadaf = new FADAF<>(16);
+        for (int key = 0; key < 100; key++) {
+            fadaf.insert(key, key, 1);
+        }
+        FADAFSnapshot.write(fadaf, path, DAFCodec.INT, DAFCodec.INT);
+        byte[] whole = Files.readAllBytes(path);
+
+        Files.write(path, Arrays.copyOf(whole, whole.length - 3));
+        refused(path, "cut off snapshot");
+        Files.write(path, Arrays.copyOf(whole, 6));
+        refused(path, "cut off header");
+        Files.write(path, "not a snapshot at all".getBytes(StandardCharsets.UTF_8));
+        refused(path, "wrong magic");
+        byte[] version = whole.clone();
+        version[Integer.BYTES + 3] = 9;
+        Files.write(path, version);
+        refused(path, "unknown version");
+        byte[] zero = whole.clone();
+        Arrays.fill(zero, zero.length - Integer.BYTES, zero.length, (byte) 0);
+        Files.write(path, zero);
+        refused(path, "count of 0");
+    }
+
+    private static void refused(Path path, String what) {
+        try {
+            FADAFSnapshot.read(path, DAFCodec.INT, DAFCodec.INT);
+            check(false, what + " was read");
+        } catch (IOException e) {
+            // the file is not a complete snapshot
+        }
+    }
+
+    private static <K extends Comparable<? super K>, D> void compare(FADAF<K, D> read, FADAF<K, D> expected,
+            String what) {
+        check(read.size() == expected.size(), what + ": size " + read.size() + " expected " + expected.size());
+        check(read.nUniqueKeys() == expected.nUniqueKeys(), what + ": nUniqueKeys");
+        expected.forEachEntry((key, data, count) -> {
+            check(read.lookup(key) == count, what + ": count of " + key);
+            check(read.getData(key).equals(data), what + ": data of " + key);
+        });
+        check(read.getAllKeys(true).equals(expected.getAllKeys(true)), what + ": all keys");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
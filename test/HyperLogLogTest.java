@@ -0,0 +1,80 @@
+
+import java.util.*;
+
+/**
+ * checks that the relative error of HyperLogLog stays within its documented
+ * standard error of 1.04 / sqrt(m), also around 2.5 * m where estimators
+ * that switch to linear counting are known to be biased.
+ * run with: java HyperLogLogTest
+ */
+public class HyperLogLogTest {
+    private static final int[] precisions = {10, 12, 14};
+    private static final double[] loads = {0.5, 1, 2, 2.5, 3, 5, 10, 30}; // keys per register
+    private static final int nTrials = 20;
+    private static final double rmsslack = 1.5; // allowed rms error in standard errors
+    private static final double worstslack = 4; // allowed single error in standard errors
+
+    public static void main(String[] args) {
+        smallCountsAreExact();
+        errorStaysWithinStandardError();
+        duplicatesAreNotCounted();
+        System.out.println("HyperLogLogTest passed");
+    }
+
+    private static void smallCountsAreExact() {
+        HyperLogLog hll = new HyperLogLog(14);
+        check(hll.estimate() == 0, "empty estimate " + hll.estimate());
+        for (int i = 1; i <= 20; i++) {
+            hll.add("key" + i);
+            check(hll.estimate() == i, i + " keys estimated as " + hll.estimate());
+        }
+    }
+
+    /**
+     * the root mean square of the relative error over the trials must be
+     * close to the standard error, and no single estimate may be far off
+     */
+    private static void errorStaysWithinStandardError() {
+        for (int precision : precisions) {
+            int m = 1 << precision;
+            double standard = 1.04 / Math.sqrt(m);
+            check(new HyperLogLog(precision).standardError() == standard, "standardError");
+            for (double load : loads) {
+                int n = (int) (load * m);
+                double squares = 0;
+                for (int trial = 0; trial < nTrials; trial++) {
+                    Random random = new Random(trial * 1000003L + n);
+                    HyperLogLog hll = new HyperLogLog(precision);
+                    for (int i = 0; i < n; i++) {
+                        hll.add(random.nextLong());
+                    }
+                    double error = (double) (hll.estimate() - n) / n;
+                    check(Math.abs(error) <= worstslack * standard, "precision " + precision
+                            + " n " + n + " trial " + trial + ": relative error " + error);
+                    squares += error * error;
+                }
+                double rms = Math.sqrt(squares / nTrials);
+                check(rms <= rmsslack * standard, "precision " + precision + " n " + n
+                        + ": rms error " + rms + ", standard error " + standard);
+            }
+        }
+    }
+
+    private static void duplicatesAreNotCounted() {
+        HyperLogLog once = new HyperLogLog(12);
+        HyperLogLog thrice = new HyperLogLog(12);
+        for (int i = 0; i < 50000; i++) {
+            once.add(i);
+            for (int j = 0; j < 3; j++) {
+                thrice.add(i);
+            }
+        }
+        check(once.estimate() == thrice.estimate(), "duplicates changed the estimate");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
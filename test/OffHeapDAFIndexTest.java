@@ -0,0 +1,125 @@
+import java.util.*;
+
+/**
+ * randomized differential test of OffHeapDAFIndex against FADAF. keys and
+ * data of varying length and updates to longer data fill the blob arena
+ * with garbage so it gets compacted, and a large run of keys spreads the
+ * nodes and blobs over several segments.
+ * run with: java OffHeapDAFIndexTest
+ */
+public class OffHeapDAFIndexTest {
+    private static final int nOps = 200000;
+    private static final int nKeys = 5000;
+    private static final int nLarge = 150000; // more nodes than one segment holds
+    private static final int largedata = 120; // bytes of data per key, the blobs pass one segment
+
+    public static void main(String[] args) {
+        matchesFADAF();
+        growsPastOneSegment();
+        System.out.println("OffHeapDAFIndexTest passed");
+    }
+
+    private static void matchesFADAF() {
+        Random random = new Random(11);
+        String[] keys = new String[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys[i] = "key" + i + pad(random, 10);
+        }
+        OffHeapDAFIndex<String, String> offheap = new OffHeapDAFIndex<>(10, DAFCodec.STRING, DAFCodec.STRING);
+        FADAF<String, String> reference = new FADAF<>(10);
+        for (int i = 0; i < nOps; i++) {
+            String key = keys[random.nextInt(nKeys)];
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                String data = pad(random, 20);
+                check(offheap.insert(key, data, nCopy) == reference.insert(key, data, nCopy), "insert of " + key);
+            } else if (op < 7) {
+                int nCopy = 1 + random.nextInt(2);
+                check(offheap.remove(key, nCopy) == reference.remove(key, nCopy), "remove of " + key);
+            } else if (op < 8) {
+                check(offheap.removeAll(key) == reference.removeAll(key), "removeAll of " + key);
+            } else {
+                // longer data leaves the old bytes behind as garbage
+                String data = pad(random, 60);
+                check(offheap.update(key, data) == reference.update(key, data), "update of " + key);
+            }
+            if (i % 20000 == 0) {
+                compare(offheap, reference, keys);
+            }
+        }
+        compare(offheap, reference, keys);
+    }
+
+    private static void growsPastOneSegment() {
+        OffHeapDAFIndex<Integer, String> offheap = new OffHeapDAFIndex<>(10, DAFCodec.INT, DAFCodec.STRING);
+        char[] chars = new char[largedata];
+        for (int key = 0; key < nLarge; key++) {
+            Arrays.fill(chars, (char) ('a' + key % 26));
+            check(offheap.insert(key, new String(chars), 1 + key % 2), "insert of " + key);
+        }
+        for (int key = 0; key < nLarge; key += 2) {
+            check(offheap.removeAll(key), "removeAll of " + key);
+        }
+        check(offheap.size() == nLarge, "size " + offheap.size() + " expected " + nLarge);
+        check(offheap.nUniqueKeys() == 0, "nUniqueKeys " + offheap.nUniqueKeys());
+        for (int key = 0; key < nLarge; key++) {
+            int count = key % 2 == 0 ? 0 : 2;
+            check(offheap.lookup(key) == count, "lookup of " + key);
+            if (count > 0) {
+                String data = offheap.getData(key);
+                check(data.length() == largedata && data.charAt(0) == 'a' + key % 26, "data of " + key);
+            }
+        }
+        Iterator<Integer> it = offheap.iterator(null, null, false);
+        check(!it.hasNext(), "unique keys when every count is 2");
+        it = offheap.iterator(null, null, true);
+        for (int key = 1; key < nLarge; key += 2) {
+            check(it.next() == key && it.next() == key, "copies of " + key + " in order");
+        }
+        check(!it.hasNext(), "keys after the last one");
+        check(offheap.findExtreme(false) == 1 && offheap.findExtreme(true) == nLarge - 1, "extremes");
+    }
+
+    private static void compare(OffHeapDAFIndex<String, String> offheap, FADAF<String, String> reference,
+            String[] keys) {
+        check(offheap.size() == reference.size(), "size " + offheap.size() + " expected " + reference.size());
+        check(offheap.nUniqueKeys() == reference.nUniqueKeys(), "nUniqueKeys");
+        for (String key : keys) {
+            check(offheap.lookup(key) == reference.lookup(key), "lookup of " + key);
+            check(Objects.equals(offheap.getData(key), reference.getData(key)), "data of " + key);
+        }
+        check(drain(offheap.iterator(null, null, true)).equals(reference.getAllKeys(true)), "all keys");
+        check(drain(offheap.iterator(null, null, false)).equals(reference.getAllKeys(false)), "unique keys");
+        check(drain(offheap.iterator("key2", "key4", false)).equals(reference.getUniqueKeysInRange("key2", "key4")),
+                "unique keys in range");
+        check(Objects.equals(offheap.findExtreme(false), reference.getMinKey()), "min key");
+        check(Objects.equals(offheap.findExtreme(true), reference.getMaxKey()), "max key");
+    }
+
+    /**
+     * returns up to max random letters, the length varies too
+     */
+    private static String pad(Random random, int max) {
+        StringBuilder result = new StringBuilder();
+        int length = random.nextInt(max + 1);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('a' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    private static <K> List<K> drain(Iterator<K> it) {
+        List<K> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.*;
+
+/**
+ * checks rank, select, percentile and countInRange of FADAF against the
+ * sorted list of every copy, on the default tree and on DAFBTree, while
+ * keys come and go. a backend without subtree counts must refuse them.
+ * run with: java OrderStatisticsTest
+ */
+public class OrderStatisticsTest {
+    private static final int nOps = 100000;
+    private static final int nKeys = 2000;
+
+    public static void main(String[] args) {
+        matchesSortedList(new FADAF<>(16), "tree");
+        matchesSortedList(new FADAF<>(new DAFBTree<Integer, Integer>(6)), "btree");
+        emptyAndBounds();
+        unsupportedBackend();
+        System.out.println("OrderStatisticsTest passed");
+    }
+
+    private static void matchesSortedList(FADAF<Integer, Integer> fadaf, String backend) {
+        Random random = new Random(5);
+        TreeMap<Integer, Integer> reference = new TreeMap<>();
+        for (int i = 0; i < nOps; i++) {
+            int key = random.nextInt(nKeys);
+            if (random.nextInt(3) > 0) {
+                int nCopy = 1 + random.nextInt(3);
+                fadaf.insert(key, key, nCopy);
+                reference.merge(key, nCopy, Integer::sum);
+            } else {
+                fadaf.remove(key, 1);
+                reference.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+            }
+            if (i % 10000 == 0) {
+                compare(fadaf, reference, backend);
+            }
+        }
+        compare(fadaf, reference, backend);
+    }
+
+    private static void compare(FADAF<Integer, Integer> fadaf, TreeMap<Integer, Integer> reference,
+            String backend) {
+        List<Integer> copies = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                copies.add(entry.getKey());
+            }
+        }
+        int rank = 0;
+        for (int key = -1; key <= nKeys; key++) {
+            while (rank < copies.size() && copies.get(rank) < key) {
+                rank++;
+            }
+            check(fadaf.rank(key) == rank, backend + ": rank of " + key);
+            if (reference.containsKey(key)) {
+                check(fadaf.select(rank) == key, backend + ": select of the rank of " + key);
+            }
+        }
+        for (int index = 0; index < copies.size(); index += 3) {
+            check(fadaf.select(index).equals(copies.get(index)), backend + ": select of " + index);
+        }
+        for (double p : new double[] {0, 0.1, 25, 50, 90, 99, 99.9, 100}) {
+            int index = Math.max((int) Math.ceil(p / 100 * copies.size()) - 1, 0);
+            check(fadaf.percentile(p).equals(copies.get(index)), backend + ": percentile " + p);
+        }
+        for (int lower = -10; lower < nKeys; lower += 97) {
+            int upper = lower + 250;
+            int count = 0;
+            for (int key : copies) {
+                count += key > lower && key < upper ? 1 : 0;
+            }
+            check(fadaf.countInRange(lower, upper) == count, backend + ": countInRange " + lower);
+            check(fadaf.countInRange(upper, lower) == 0, backend + ": countInRange of an empty range");
+        }
+    }
+
+    private static void emptyAndBounds() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(16);
+        check(fadaf.percentile(50) == null, "percentile of an empty FADAF");
+        check(fadaf.rank(3) == 0 && fadaf.countInRange(0, 10) == 0, "rank of an empty FADAF");
+        fadaf.insert(3, 3, 2);
+        fadaf.insert(7, 7, 1);
+        for (int index : new int[] {-1, 3}) {
+            try {
+                fadaf.select(index);
+                check(false, "select of " + index);
+            } catch (IllegalArgumentException e) {
+                // outside of the copies
+            }
+        }
+        for (double p : new double[] {-1, 100.5, Double.NaN}) {
+            try {
+                fadaf.percentile(p);
+                check(false, "percentile " + p);
+            } catch (IllegalArgumentException e) {
+                // not a percentile
+            }
+        }
+        check(fadaf.percentile(0) == 3 && fadaf.percentile(100) == 7, "percentile of the extremes");
+    }
+
+    /**
+     * the off-heap index keeps no subtree counts
+     */
+    private static void unsupportedBackend() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(
+                new OffHeapDAFIndex<Integer, Integer>(16, DAFCodec.INT, DAFCodec.INT));
+        fadaf.insert(1, 1, 1);
+        try {
+            fadaf.rank(1);
+            check(false, "rank without subtree counts");
+        } catch (UnsupportedOperationException e) {
+            // refused instead of scanning every key
+        }
+        try {
+            fadaf.select(0);
+            check(false, "select without subtree counts");
+        } catch (UnsupportedOperationException e) {
+            // refused instead of scanning every key
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
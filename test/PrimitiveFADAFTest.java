@@ -0,0 +1,145 @@
+import java.util.*;
+
+/**
+ * randomized differential test of IntFADAF and LongFADAF against FADAF.
+ * the long keys are spread over the whole range, so keys that only differ
+ * in their high bits and the extremes of the type go through the same
+ * hash index and tree.
+ * run with: java PrimitiveFADAFTest
+ */
+public class PrimitiveFADAFTest {
+    private static final int nOps = 100000;
+    private static final int nKeys = 3000;
+
+    public static void main(String[] args) {
+        intMatchesFADAF();
+        longMatchesFADAF();
+        emptyHasNoExtremes();
+        System.out.println("PrimitiveFADAFTest passed");
+    }
+
+    private static void intMatchesFADAF() {
+        Random random = new Random(1);
+        IntFADAF<Integer> ints = new IntFADAF<>(10);
+        FADAF<Integer, Integer> reference = new FADAF<>(10);
+        for (int i = 0; i < nOps; i++) {
+            int key = random.nextInt(nKeys) - nKeys / 2;
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                check(ints.insert(key, i, nCopy) == reference.insert(key, i, nCopy), "insert of " + key);
+            } else if (op < 8) {
+                int nCopy = 1 + random.nextInt(2);
+                check(ints.remove(key, nCopy) == reference.remove(key, nCopy), "remove of " + key);
+            } else if (op < 9) {
+                check(ints.removeAll(key) == reference.removeAll(key), "removeAll of " + key);
+            } else {
+                check(ints.update(key, -i) == reference.update(key, -i), "update of " + key);
+            }
+            if (i % 5000 == 0) {
+                check(ints.size() == reference.size(), "size " + ints.size() + " expected " + reference.size());
+                check(ints.nUniqueKeys() == reference.nUniqueKeys(), "nUniqueKeys");
+                for (int k = -nKeys / 2 - 1; k <= nKeys / 2; k++) {
+                    check(ints.lookup(k) == reference.lookup(k), "lookup of " + k);
+                    check(Objects.equals(ints.getData(k), reference.getData(k)), "data of " + k);
+                }
+                check(Arrays.equals(ints.getAllKeys(true), toints(reference.getAllKeys(true))), "all keys");
+                check(Arrays.equals(ints.getAllKeys(false), toints(reference.getAllKeys(false))), "unique keys");
+                check(Arrays.equals(ints.getUniqueKeysInRange(-100, 400),
+                        toints(reference.getUniqueKeysInRange(-100, 400))), "unique keys in range");
+                if (reference.size() > 0) {
+                    check(ints.getMinKey() == reference.getMinKey(), "min key");
+                    check(ints.getMaxKey() == reference.getMaxKey(), "max key");
+                }
+            }
+        }
+    }
+
+    private static void longMatchesFADAF() {
+        Random random = new Random(2);
+        long[] pool = new long[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            pool[i] = random.nextLong();
+        }
+        pool[0] = Long.MIN_VALUE;
+        pool[1] = Long.MAX_VALUE;
+        pool[2] = 0;
+        pool[3] = 1L << 32; // same low bits as 0
+        LongFADAF<Integer> longs = new LongFADAF<>(10);
+        FADAF<Long, Integer> reference = new FADAF<>(10);
+        for (int i = 0; i < nOps; i++) {
+            long key = pool[random.nextInt(nKeys)];
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                check(longs.insert(key, i, nCopy) == reference.insert(key, i, nCopy), "insert of " + key);
+            } else if (op < 8) {
+                int nCopy = 1 + random.nextInt(2);
+                check(longs.remove(key, nCopy) == reference.remove(key, nCopy), "remove of " + key);
+            } else if (op < 9) {
+                check(longs.removeAll(key) == reference.removeAll(key), "removeAll of " + key);
+            } else {
+                check(longs.update(key, -i) == reference.update(key, -i), "update of " + key);
+            }
+            if (i % 5000 == 0) {
+                check(longs.size() == reference.size(), "size " + longs.size() + " expected " + reference.size());
+                check(longs.nUniqueKeys() == reference.nUniqueKeys(), "nUniqueKeys");
+                for (long k : pool) {
+                    check(longs.lookup(k) == reference.lookup(k), "lookup of " + k);
+                    check(Objects.equals(longs.getData(k), reference.getData(k)), "data of " + k);
+                }
+                check(Arrays.equals(longs.getAllKeys(true), tolongs(reference.getAllKeys(true))), "all keys");
+                check(Arrays.equals(longs.getAllKeys(false), tolongs(reference.getAllKeys(false))), "unique keys");
+                check(Arrays.equals(longs.getUniqueKeysInRange(Long.MIN_VALUE / 2, Long.MAX_VALUE / 3),
+                        tolongs(reference.getUniqueKeysInRange(Long.MIN_VALUE / 2, Long.MAX_VALUE / 3))),
+                        "unique keys in range");
+                if (reference.size() > 0) {
+                    check(longs.getMinKey() == reference.getMinKey(), "min key");
+                    check(longs.getMaxKey() == reference.getMaxKey(), "max key");
+                }
+            }
+        }
+    }
+
+    private static void emptyHasNoExtremes() {
+        IntFADAF<Integer> ints = new IntFADAF<>(10);
+        ints.insert(5, 5, 2);
+        ints.removeAll(5);
+        try {
+            ints.getMinKey();
+            check(false, "min key of an empty IntFADAF");
+        } catch (NoSuchElementException e) {
+            // nothing to return
+        }
+        check(ints.getAllKeys(true).length == 0, "keys of an empty IntFADAF");
+        LongFADAF<Integer> longs = new LongFADAF<>(10);
+        try {
+            longs.getMaxKey();
+            check(false, "max key of an empty LongFADAF");
+        } catch (NoSuchElementException e) {
+            // nothing to return
+        }
+    }
+
+    private static int[] toints(List<Integer> keys) {
+        int[] result = new int[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = keys.get(i);
+        }
+        return result;
+    }
+
+    private static long[] tolongs(List<Long> keys) {
+        long[] result = new long[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = keys.get(i);
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
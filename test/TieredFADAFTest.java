@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * checks TieredFADAF against a FADAF through flushes, compactions and
+ * reopening, and that open cleans up what a crash leaves in the directory:
+ * half written .tmp runs and runs that are already in a merged run.
+ * run with: java TieredFADAFTest
+ */
+public class TieredFADAFTest {
+    private static final int nOps = 50000;
+    private static final int nKeys = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("tieredfadaf");
+        try {
+            matchesFADAF(dir);
+            tmpRunsAreDeleted(dir);
+            mergedInputsAreDeleted(dir);
+            failedCompactionIsRetried(dir);
+        } finally {
+            clear(dir);
+            Files.delete(dir);
+        }
+        System.out.println("TieredFADAFTest passed");
+    }
+
+    /**
+     * small memtables make many runs, so background compactions merge
+     * stretches while the keys change. the keys must survive every reopen
+     */
+    private static void matchesFADAF(Path dir) throws IOException {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        Random random = new Random(1);
+        for (int round = 0; round < 3; round++) {
+            try (TieredFADAF<Integer, Integer> tiered = open(dir, 100)) {
+                compare(tiered, expected, "reopened in round " + round);
+                run(tiered, expected, random, nOps);
+                compare(tiered, expected, "round " + round);
+                if (round == 1) {
+                    tiered.compact();
+                    check(tiered.nRuns() == 1, tiered.nRuns() + " runs after compact");
+                    compare(tiered, expected, "after compact");
+                }
+            }
+        }
+    }
+
+    /**
+     * a run that was written when the process died is never renamed from .tmp
+     */
+    private static void tmpRunsAreDeleted(Path dir) throws IOException {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        try (TieredFADAF<Integer, Integer> tiered = open(dir, 100)) {
+            run(tiered, expected, new Random(2), 1000);
+        }
+        Path tmp = dir.resolve("run-1000-1000.dat.tmp");
+        Files.write(tmp, new byte[] {1, 2, 3});
+        try (TieredFADAF<Integer, Integer> tiered = open(dir, 100)) {
+            check(!Files.exists(tmp), "the .tmp run is still there");
+            compare(tiered, expected, "after the .tmp run");
+        }
+    }
+
+    /**
+     * the process died after the merged run was renamed but before its
+     * inputs were deleted, open must not count their keys twice
+     */
+    private static void mergedInputsAreDeleted(Path dir) throws IOException {
+        clear(dir);
+        Path saved = Files.createTempDirectory("tieredinputs");
+        try {
+            FADAF<Integer, Integer> expected = new FADAF<>(16);
+            Random random = new Random(3);
+            try (TieredFADAF<Integer, Integer> tiered = open(dir, 1 << 20)) {
+                for (int i = 0; i < 3; i++) {
+                    run(tiered, expected, random, 2000);
+                    tiered.flush();
+                }
+                check(tiered.nRuns() == 3, tiered.nRuns() + " runs before compact");
+                copy(dir, saved);
+                tiered.compact();
+                check(tiered.nRuns() == 1, tiered.nRuns() + " runs after compact");
+            }
+            copy(saved, dir);
+            try (TieredFADAF<Integer, Integer> tiered = open(dir, 1 << 20)) {
+                check(tiered.nRuns() == 1, tiered.nRuns() + " runs after reopening with the inputs");
+                compare(tiered, expected, "after reopening with the inputs");
+            }
+            check(count(dir) == 1, count(dir) + " files left, the inputs are still there");
+        } finally {
+            clear(saved);
+            Files.delete(saved);
+        }
+    }
+
+    /**
+     * a directory in place of the .tmp file makes the first background
+     * compaction fail. writes go on, close still flushes the memtable and
+     * the compaction succeeds once it is tried again
+     */
+    private static void failedCompactionIsRetried(Path dir) throws Exception {
+        clear(dir);
+        FADAF<Integer, Integer> expected = new FADAF<>(16);
+        TieredFADAF<Integer, Integer> tiered = open(dir, 10);
+        Path trap = dir.resolve("run-1-4.dat.tmp");
+        Files.createDirectories(trap.resolve("x"));
+        for (int key = 0; key < 40; key++) {
+            tiered.insert(key, key, 1); // the fourth flush starts a compaction of runs 1 to 4
+            expected.insert(key, key, 1);
+        }
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (tiered.compactionFailure() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        check(tiered.compactionFailure() != null, "the compaction did not fail");
+        check(tiered.nRuns() == 4, tiered.nRuns() + " runs after the failed compaction");
+        for (int key = 40; key < 45; key++) {
+            tiered.insert(key, key, 2); // stays in the memtable
+            expected.insert(key, key, 2);
+        }
+        compare(tiered, expected, "after the failed compaction");
+        tiered.close();
+        Files.delete(trap.resolve("x"));
+        Files.delete(trap);
+        try (TieredFADAF<Integer, Integer> reopened = open(dir, 10)) {
+            compare(reopened, expected, "memtable flushed by close");
+            reopened.compact();
+            check(reopened.nRuns() == 1, reopened.nRuns() + " runs after the retry");
+            check(reopened.compactionFailure() == null, "failure after the retry");
+            compare(reopened, expected, "after the retry");
+        }
+    }
+
+    private static void run(TieredFADAF<Integer, Integer> tiered, FADAF<Integer, Integer> expected,
+            Random random, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt(nKeys);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int nCopy = 1 + random.nextInt(3);
+                check(tiered.insert(key, i, nCopy) == expected.insert(key, i, nCopy), "insert of " + key);
+            } else if (op < 8) {
+                check(tiered.remove(key, 1) == expected.remove(key, 1), "remove of " + key);
+            } else if (op < 9) {
+                check(tiered.removeAll(key) == expected.removeAll(key), "removeAll of " + key);
+            } else {
+                check(tiered.update(key, -i) == expected.update(key, -i), "update of " + key);
+            }
+        }
+    }
+
+    private static TieredFADAF<Integer, Integer> open(Path dir, int memtablekeys) throws IOException {
+        return TieredFADAF.open(dir, DAFCodec.INT, DAFCodec.INT, memtablekeys);
+    }
+
+    private static void compare(TieredFADAF<Integer, Integer> tiered, FADAF<Integer, Integer> expected,
+            String what) {
+        check(tiered.size() == expected.size(), what + ": size " + tiered.size()
+                + " expected " + expected.size());
+        check(tiered.nUniqueKeys() == expected.nUniqueKeys(), what + ": nUniqueKeys");
+        for (int key = -1; key <= nKeys; key++) {
+            check(tiered.lookup(key) == expected.lookup(key), what + ": count of " + key);
+            check(Objects.equals(tiered.getData(key), expected.getData(key)), what + ": data of " + key);
+        }
+        check(tiered.getAllKeys(true).equals(expected.getAllKeys(true)), what + ": all keys");
+        check(tiered.getUniqueKeysInRange(100, 900).equals(expected.getUniqueKeysInRange(100, 900)),
+                what + ": unique keys in range");
+        check(Objects.equals(tiered.getMinKey(), expected.getMinKey()), what + ": min key");
+        check(Objects.equals(tiered.getMaxKey(), expected.getMaxKey()), what + ": max key");
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                Files.copy(file, to.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static int count(Path dir) throws IOException {
+        int result = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static void clear(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    clear(file);
+                }
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.*;
+
+/**
+ * randomized differential test of WindowedFADAF against a plain list of
+ * inserts stamped with their epoch. a manual clock moves time forward by
+ * nothing, part of an epoch or several epochs at once, so keys expire in
+ * the middle of inserts and removes.
+ * run with: java WindowedFADAFTest
+ */
+public class WindowedFADAFTest {
+    private static final int nOps = 30000;
+    private static final int nKeys = 200;
+    private static final int nEpochs = 4;
+    private static final long epochMillis = 100;
+
+    private static long now = 1000;
+
+    public static void main(String[] args) {
+        matchesReference();
+        expiresWholeWindow();
+        System.out.println("WindowedFADAFTest passed");
+    }
+
+    /**
+     * every insert is kept as {epoch, key, count}, removes take copies from
+     * the newest inserts first, like the window does
+     */
+    private static void matchesReference() {
+        WindowedFADAF<Integer, Integer> window = new WindowedFADAF<>(nEpochs, epochMillis, () -> now);
+        List<long[]> inserts = new ArrayList<>();
+        Random random = new Random(2);
+        for (int i = 0; i < nOps; i++) {
+            if (random.nextInt(10) == 0) {
+                now += random.nextInt(250);
+            }
+            long epoch = now / epochMillis;
+            int key = random.nextInt(nKeys);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                int nCopy = 1 + random.nextInt(3);
+                boolean isnew = !reference(inserts, epoch).containsKey(key);
+                check(window.insert(key, key, nCopy) == isnew, "insert of " + key);
+                inserts.add(new long[] {epoch, key, nCopy});
+            } else if (op < 8) {
+                int nCopy = 1 + random.nextInt(3);
+                boolean found = reference(inserts, epoch).containsKey(key);
+                check(window.remove(key, nCopy) == found, "remove of " + key);
+                for (int j = inserts.size() - 1; j >= 0 && nCopy > 0; j--) {
+                    long[] insert = inserts.get(j);
+                    if (insert[1] == key && insert[0] > epoch - nEpochs) {
+                        long taken = Math.min(nCopy, insert[2]);
+                        insert[2] -= taken;
+                        nCopy -= taken;
+                    }
+                }
+            } else if (op < 9) {
+                boolean found = reference(inserts, epoch).containsKey(key);
+                check(window.removeAll(key) == found, "removeAll of " + key);
+                for (long[] insert : inserts) {
+                    if (insert[1] == key) {
+                        insert[2] = 0;
+                    }
+                }
+            } else {
+                compare(window, reference(inserts, epoch));
+            }
+        }
+    }
+
+    /**
+     * after nEpochs of time without inserts nothing is left
+     */
+    private static void expiresWholeWindow() {
+        WindowedFADAF<Integer, Integer> window = new WindowedFADAF<>(nEpochs, epochMillis, () -> now);
+        for (int key = 0; key < nKeys; key++) {
+            window.insert(key, key, 1 + key % 2);
+            now += epochMillis / 10;
+        }
+        now += nEpochs * epochMillis;
+        compare(window, new TreeMap<>());
+        window.insert(1, 1, 1);
+        check(window.size() == 1 && window.nUniqueKeys() == 1, "insert after the window expired");
+    }
+
+    /**
+     * the counts of the keys inserted in the epochs of the window
+     */
+    private static TreeMap<Integer, Integer> reference(List<long[]> inserts, long epoch) {
+        TreeMap<Integer, Integer> result = new TreeMap<>();
+        for (long[] insert : inserts) {
+            if (insert[0] > epoch - nEpochs && insert[2] > 0) {
+                result.merge((int) insert[1], (int) insert[2], Integer::sum);
+            }
+        }
+        return result;
+    }
+
+    private static void compare(WindowedFADAF<Integer, Integer> window, TreeMap<Integer, Integer> expected) {
+        int size = 0;
+        List<Integer> all = new ArrayList<>();
+        List<Integer> unique = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            size += entry.getValue();
+            for (int i = 0; i < entry.getValue(); i++) {
+                all.add(entry.getKey());
+            }
+            if (entry.getValue() == 1) {
+                unique.add(entry.getKey());
+            }
+        }
+        check(window.size() == size, "size " + window.size() + " expected " + size);
+        check(window.nUniqueKeys() == unique.size(), "nUniqueKeys " + window.nUniqueKeys()
+                + " expected " + unique.size());
+        for (int key = -1; key <= nKeys; key++) {
+            check(window.lookup(key) == expected.getOrDefault(key, 0), "lookup of " + key);
+        }
+        check(window.getAllKeys(true).equals(all), "all keys");
+        check(window.getAllKeys(false).equals(unique), "unique keys");
+        List<Integer> range = new ArrayList<>();
+        for (int key : unique) {
+            if (key > 50 && key < 150) {
+                range.add(key);
+            }
+        }
+        check(window.getUniqueKeysInRange(50, 150).equals(range), "unique keys in range");
+        check(Objects.equals(window.getMinKey(), expected.isEmpty() ? null : expected.firstKey()), "min key");
+        check(Objects.equals(window.getMaxKey(), expected.isEmpty() ? null : expected.lastKey()), "max key");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}